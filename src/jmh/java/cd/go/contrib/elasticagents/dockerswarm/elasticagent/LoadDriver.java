@@ -0,0 +1,213 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
+
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.thoughtworks.go.plugin.api.GoApplicationAccessor;
+import com.thoughtworks.go.plugin.api.request.DefaultGoPluginApiRequest;
+import com.thoughtworks.go.plugin.api.request.GoApiRequest;
+import com.thoughtworks.go.plugin.api.response.DefaultGoApiResponse;
+import com.thoughtworks.go.plugin.api.response.GoApiResponse;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static cd.go.contrib.elasticagents.dockerswarm.elasticagent.Constants.REQUEST_SERVER_LIST_AGENTS;
+
+/**
+ * Replays GoCD traffic against the plugin while it talks over HTTP to a {@link FakeSwarmServer}, and reports the
+ * throughput and latency percentiles of every request type.
+ * <p>
+ * Worker threads alternate between creating agents for new jobs and completing the jobs of agents that are running,
+ * while GoCD pings the plugin at a fixed interval. Options are given as <code>--name=value</code>:
+ * <pre>
+ *   --duration=60          seconds to run for
+ *   --threads=8            worker threads sending create-agent and job-completion requests
+ *   --services=100         agents running when the run starts
+ *   --nodes=3              nodes in the swarm
+ *   --ping-interval=1000   milliseconds between server pings
+ *   --latency=5            milliseconds the swarm takes to answer every request
+ *   --failure-rate=0       share of swarm requests that fail
+ * </pre>
+ */
+public class LoadDriver {
+    private static final Gson GSON = new GsonBuilder().setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES).create();
+    private static final String CREATE_AGENT = "cd.go.elastic-agent.create-agent";
+    private static final String JOB_COMPLETION = "cd.go.elastic-agent.job-completion";
+    private static final String SERVER_PING = "cd.go.elastic-agent.server-ping";
+
+    private final Map<String, String> options;
+    private final FakeSwarmServer swarm;
+    private final DockerPlugin plugin;
+    private final Map<String, String> clusterProfileConfiguration = new HashMap<>();
+    private final Map<String, Latencies> latencies = new ConcurrentHashMap<>();
+    private final AtomicLong jobIds = new AtomicLong();
+
+    LoadDriver(Map<String, String> options) throws Exception {
+        this.options = options;
+        swarm = new FakeSwarmServer(option("nodes", 3))
+                .latency(option("latency", 5), TimeUnit.MILLISECONDS)
+                .failureRate(Double.parseDouble(options.getOrDefault("failure-rate", "0")));
+        for (int i = 0; i < option("services", 100); i++) {
+            swarm.addService("preloaded-" + i, "preloaded-agent-" + i, true);
+        }
+
+        clusterProfileConfiguration.put("docker_uri", swarm.uri());
+        clusterProfileConfiguration.put("max_docker_containers", String.valueOf(Integer.MAX_VALUE));
+        clusterProfileConfiguration.put("go_server_url", "https://gocd.example.com:8154/go");
+
+        plugin = new DockerPlugin();
+        plugin.initializeGoApplicationAccessor(new GoServer());
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            final String[] option = arg.replaceFirst("^--", "").split("=", 2);
+            options.put(option[0], option.length == 2 ? option[1] : "true");
+        }
+
+        new LoadDriver(options).run();
+        System.exit(0);
+    }
+
+    void run() throws Exception {
+        final long duration = TimeUnit.SECONDS.toNanos(option("duration", 60));
+        final long startedAt = System.nanoTime();
+        final long endsAt = startedAt + duration;
+
+        final ScheduledExecutorService pinger = Executors.newSingleThreadScheduledExecutor();
+        pinger.scheduleAtFixedRate(() -> send(SERVER_PING, body("all_cluster_profile_properties", Collections.singletonList(clusterProfileConfiguration))),
+                0, option("ping-interval", 1000), TimeUnit.MILLISECONDS);
+
+        final ExecutorService workers = Executors.newFixedThreadPool(option("threads", 8));
+        for (int i = 0; i < option("threads", 8); i++) {
+            workers.execute(() -> {
+                final Random random = new Random();
+                while (System.nanoTime() < endsAt) {
+                    final List<String> running = new ArrayList<>(swarm.serviceNames());
+                    if (running.isEmpty() || random.nextBoolean()) {
+                        Map<String, Object> body = body("auto_register_key", "secret-key");
+                        body.put("elastic_agent_profile_properties", Collections.singletonMap("Image", "gocd/gocd-agent-alpine-3.9:v19.3.0"));
+                        body.put("environment", "prod");
+                        body.put("job_identifier", SwarmFixture.jobIdentifier(jobIds.incrementAndGet()));
+                        send(CREATE_AGENT, body);
+                    } else {
+                        send(JOB_COMPLETION, body("elastic_agent_id", running.get(random.nextInt(running.size()))));
+                    }
+                }
+            });
+        }
+
+        workers.shutdown();
+        workers.awaitTermination(duration + TimeUnit.MINUTES.toNanos(1), TimeUnit.NANOSECONDS);
+        pinger.shutdownNow();
+        report(System.nanoTime() - startedAt);
+        swarm.stop();
+    }
+
+    private void send(String requestName, Map<String, Object> body) {
+        body.put("cluster_profile_properties", clusterProfileConfiguration);
+        DefaultGoPluginApiRequest request = new DefaultGoPluginApiRequest(Constants.EXTENSION_TYPE, Constants.EXTENSION_API_VERSION, requestName);
+        request.setRequestBody(GSON.toJson(body));
+
+        final long startedAt = System.nanoTime();
+        boolean failed;
+        try {
+            failed = plugin.handle(request).responseCode() != 200;
+        } catch (Exception e) {
+            failed = true;
+        }
+        latencies.computeIfAbsent(requestName, name -> new Latencies()).record(System.nanoTime() - startedAt, failed);
+    }
+
+    private void report(long elapsedNanos) {
+        System.out.println();
+        System.out.println(String.format("%-40s %9s %7s %9s %9s %9s %9s %9s %9s", "Request", "Count", "Errors", "Req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "Max ms"));
+        for (Map.Entry<String, Latencies> entry : new TreeMap<>(latencies).entrySet()) {
+            final Latencies requestLatencies = entry.getValue();
+            final long[] sorted = requestLatencies.sorted();
+            System.out.println(String.format("%-40s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f", entry.getKey(), sorted.length, requestLatencies.errors(),
+                    sorted.length / (elapsedNanos / 1e9), millis(sorted, 0.5), millis(sorted, 0.9), millis(sorted, 0.99), millis(sorted, 0.999), millis(sorted, 1)));
+        }
+        System.out.println(String.format("%nSwarm requests: %d list services, %d create service, %d remove service.",
+                swarm.requests("GET /services"), swarm.requests("POST /services/create"), swarm.requests("DELETE /services/{id}")));
+    }
+
+    private static double millis(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1)] / 1e6;
+    }
+
+    private int option(String name, int defaultValue) {
+        return Integer.parseInt(options.getOrDefault(name, String.valueOf(defaultValue)));
+    }
+
+    private static Map<String, Object> body(String key, Object value) {
+        Map<String, Object> body = new HashMap<>();
+        body.put(key, value);
+        return body;
+    }
+
+    private static class Latencies {
+        private long[] nanos = new long[1024];
+        private int count;
+        private int errors;
+
+        synchronized void record(long latency, boolean failed) {
+            if (count == nanos.length) {
+                nanos = Arrays.copyOf(nanos, count * 2);
+            }
+            nanos[count++] = latency;
+            if (failed) {
+                errors++;
+            }
+        }
+
+        synchronized long[] sorted() {
+            final long[] sorted = Arrays.copyOf(nanos, count);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+
+        synchronized int errors() {
+            return errors;
+        }
+    }
+
+    /**
+     * A GoCD server that knows of an agent, busy building, for every service running in the swarm.
+     */
+    private class GoServer extends GoApplicationAccessor {
+        @Override
+        public GoApiResponse submit(GoApiRequest request) {
+            if (REQUEST_SERVER_LIST_AGENTS.equals(request.api())) {
+                List<Agent> agents = new ArrayList<>();
+                for (String name : swarm.serviceNames()) {
+                    agents.add(new Agent(name, Agent.AgentState.Building, Agent.BuildState.Building, Agent.ConfigState.Enabled));
+                }
+                return DefaultGoApiResponse.success(Agent.toJSONArray(agents));
+            }
+            return DefaultGoApiResponse.success("");
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the parsing done on every request: the agents GoCD lists on each server ping, the cluster profile sent with
+ * every request, and the mounts and secrets of an elastic agent profile, the latter also with the parsers they replaced
+ * ({@link GsonRoundTripParsers}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParsingBenchmark {
+    private Map<String, String> clusterProfileConfiguration;
+    private String mounts;
+    private String secrets;
+
+    @Setup
+    public void setUp() {
+        clusterProfileConfiguration = new HashMap<>();
+        clusterProfileConfiguration.put("docker_uri", SwarmFixture.DOCKER_URI);
+        clusterProfileConfiguration.put("max_docker_containers", "100");
+        clusterProfileConfiguration.put("go_server_url", "https://gocd.example.com:8154/go");
+        clusterProfileConfiguration.put("auto_register_timeout", "10");
+        clusterProfileConfiguration.put("environment_variables", "JAVA_HOME=/usr/lib/jvm/default\nGRADLE_USER_HOME=/cache/gradle");
+
+        mounts = "type=volume, source=gradle-cache, target=/cache/gradle\n" +
+                "type=bind, source=/var/run/docker.sock, target=/var/run/docker.sock, readonly\n" +
+                "\n" +
+                "source=maven-cache, target=/cache/maven";
+        secrets = "src=Username, target=Foo, uid=uid, gid=gid, mode=640\n" +
+                "\n" +
+                "src=Password, target=Bar\n" +
+                "src=Token";
+    }
+
+    @Benchmark
+    public List<Agent> agentsFromJSONArray(AgentsJSON agentsJSON) {
+        return Agent.fromJSONArray(agentsJSON.json);
+    }
+
+    @Benchmark
+    public ClusterProfileProperties clusterProfilePropertiesFromConfiguration() {
+        return ClusterProfileProperties.fromConfiguration(clusterProfileConfiguration);
+    }
+
+    @Benchmark
+    public DockerMounts dockerMountsFromString() {
+        return DockerMounts.fromString(mounts);
+    }
+
+    @Benchmark
+    public DockerSecrets dockerSecretsFromString() {
+        return DockerSecrets.fromString(secrets);
+    }
+
+    @Benchmark
+    public DockerMounts dockerMountsFromStringWithGsonRoundTrip() {
+        return GsonRoundTripParsers.dockerMounts(mounts);
+    }
+
+    @Benchmark
+    public DockerSecrets dockerSecretsFromStringWithGsonRoundTrip() {
+        return GsonRoundTripParsers.dockerSecrets(secrets);
+    }
+
+    @State(Scope.Benchmark)
+    public static class AgentsJSON {
+        @Param({"10", "1000", "10000"})
+        public int agents;
+
+        String json;
+
+        @Setup
+        public void setUp() {
+            List<Agent> agentList = new ArrayList<>();
+            for (int i = 0; i < agents; i++) {
+                agentList.add(new Agent(SwarmFixture.agentId(i), Agent.AgentState.Building, Agent.BuildState.Building, Agent.ConfigState.Enabled));
+            }
+            json = Agent.toJSONArray(agentList);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
+
+import com.spotify.docker.client.messages.swarm.Service;
+import com.thoughtworks.go.plugin.api.request.DefaultGoPluginApiRequest;
+import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link DockerPlugin#handle} for every request type GoCD sends to a plugin whose cluster runs the given
+ * number of services. See {@link SwarmFixture} for the swarm the requests are handled against.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PluginRequestBenchmark {
+    @Param({"10", "1000", "10000"})
+    public int services;
+
+    @Param({"true", "false"})
+    public boolean watchEvents;
+
+    private SwarmFixture swarm;
+    private DockerPlugin plugin;
+    private DockerServices dockerServices;
+
+    private DefaultGoPluginApiRequest serverPing;
+    private DefaultGoPluginApiRequest createAgent;
+    private DefaultGoPluginApiRequest shouldAssignWork;
+    private DefaultGoPluginApiRequest jobCompletion;
+    private DefaultGoPluginApiRequest agentStatusReport;
+    private DefaultGoPluginApiRequest clusterStatusReport;
+    private DefaultGoPluginApiRequest validateElasticAgentProfile;
+    private DefaultGoPluginApiRequest validateClusterProfile;
+
+    @Setup
+    public void setUp() throws Exception {
+        swarm = new SwarmFixture(services, watchEvents);
+        DockerServicesRegistry registry = new DockerServicesRegistry(() -> new DockerServices(swarm.dockerClientFactory()));
+        plugin = new DockerPlugin(registry, swarm.dockerClientFactory());
+        plugin.initializeGoApplicationAccessor(swarm.accessor());
+
+        final int middle = services / 2;
+        serverPing = swarm.serverPing();
+        createAgent = swarm.createAgent(services);
+        shouldAssignWork = swarm.shouldAssignWork(middle);
+        jobCompletion = swarm.jobCompletion(middle);
+        agentStatusReport = swarm.agentStatusReport(middle);
+        clusterStatusReport = swarm.clusterStatusReport();
+        validateElasticAgentProfile = swarm.validateElasticAgentProfile();
+        validateClusterProfile = swarm.validateClusterProfile();
+
+        // lists the services and, if the events stream is watched, starts watching it
+        plugin.handle(serverPing);
+        dockerServices = registry.asMap().values().iterator().next();
+        while (!watchEvents && dockerServices.eventsWatcher().isWatching()) {
+            Thread.sleep(10);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        dockerServices.eventsWatcher().stop();
+    }
+
+    @Benchmark
+    public GoPluginApiResponse serverPing() throws Exception {
+        return plugin.handle(serverPing);
+    }
+
+    @Benchmark
+    public GoPluginApiResponse shouldAssignWork() throws Exception {
+        return plugin.handle(shouldAssignWork);
+    }
+
+    /**
+     * Only the request handling is measured: the service is created in the background, and is waited for and
+     * removed again after every invocation so the cluster keeps its size.
+     */
+    @Benchmark
+    public GoPluginApiResponse createAgent(CreatedAgent createdAgent) throws Exception {
+        return plugin.handle(createAgent);
+    }
+
+    /**
+     * The terminated agent is registered again after every invocation so the cluster keeps its size.
+     */
+    @Benchmark
+    public GoPluginApiResponse jobCompletion(TerminatedAgent terminatedAgent) throws Exception {
+        return plugin.handle(jobCompletion);
+    }
+
+    @Benchmark
+    public GoPluginApiResponse agentStatusReport() throws Exception {
+        return plugin.handle(agentStatusReport);
+    }
+
+    @Benchmark
+    public GoPluginApiResponse clusterStatusReport() throws Exception {
+        return plugin.handle(clusterStatusReport);
+    }
+
+    @Benchmark
+    public GoPluginApiResponse validateElasticAgentProfile() throws Exception {
+        return plugin.handle(validateElasticAgentProfile);
+    }
+
+    @Benchmark
+    public GoPluginApiResponse validateClusterProfile() throws Exception {
+        return plugin.handle(validateClusterProfile);
+    }
+
+    @Benchmark
+    public GoPluginApiResponse getElasticAgentProfileMetadata() throws Exception {
+        return plugin.handle(SwarmFixture.request("cd.go.elastic-agent.get-elastic-agent-profile-metadata", null));
+    }
+
+    @Benchmark
+    public GoPluginApiResponse getElasticAgentProfileView() throws Exception {
+        return plugin.handle(SwarmFixture.request("cd.go.elastic-agent.get-elastic-agent-profile-view", null));
+    }
+
+    @Benchmark
+    public GoPluginApiResponse getClusterProfileMetadata() throws Exception {
+        return plugin.handle(SwarmFixture.request("cd.go.elastic-agent.get-cluster-profile-metadata", null));
+    }
+
+    @Benchmark
+    public GoPluginApiResponse getClusterProfileView() throws Exception {
+        return plugin.handle(SwarmFixture.request("cd.go.elastic-agent.get-cluster-profile-view", null));
+    }
+
+    @Benchmark
+    public GoPluginApiResponse getIcon() throws Exception {
+        return plugin.handle(SwarmFixture.request("cd.go.elastic-agent.get-icon", null));
+    }
+
+    @Benchmark
+    public GoPluginApiResponse getCapabilities() throws Exception {
+        return plugin.handle(SwarmFixture.request("cd.go.elastic-agent.get-capabilities", null));
+    }
+
+    @State(Scope.Thread)
+    public static class CreatedAgent {
+        @TearDown(Level.Invocation)
+        public void tearDown(PluginRequestBenchmark benchmark) throws Exception {
+            final String name = benchmark.swarm.nextCreatedService();
+            while (!benchmark.dockerServices.hasInstance(name)) {
+                Thread.yield();
+            }
+            benchmark.dockerServices.remove(name);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class TerminatedAgent {
+        @TearDown(Level.Invocation)
+        public void tearDown(PluginRequestBenchmark benchmark) {
+            final Service service = benchmark.swarm.service(SwarmFixture.agentId(benchmark.services / 2));
+            benchmark.dockerServices.register(DockerService.fromService(service));
+        }
+    }
+}
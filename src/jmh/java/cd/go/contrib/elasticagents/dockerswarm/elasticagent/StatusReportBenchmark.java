@@ -0,0 +1,147 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
+
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.builders.PluginStatusReportViewBuilder;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.reports.SwarmCluster;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.ObjectMapperProvider;
+import com.spotify.docker.client.messages.swarm.Node;
+import com.spotify.docker.client.messages.swarm.Service;
+import com.spotify.docker.client.messages.swarm.Task;
+import freemarker.template.Template;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Measures rendering the cluster status report of a swarm of {@link #NODES} nodes running {@link #TASKS} agent tasks,
+ * straight into the JSON response body, and as it was rendered before: to a string, then wrapped in a
+ * {@link JsonObject} and serialised.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StatusReportBenchmark {
+    static final int NODES = 500;
+    static final int TASKS = 5000;
+
+    private static final Gson GSON = new Gson();
+
+    private PluginStatusReportViewBuilder builder;
+    private Template template;
+    private SwarmCluster swarmCluster;
+
+    @Setup
+    public void setUp() throws Exception {
+        final SwarmFixture fixture = new SwarmFixture(TASKS, false);
+        final List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < NODES; i++) {
+            nodes.add(node(i));
+        }
+        final List<Service> services = new ArrayList<>();
+        final List<Task> tasks = new ArrayList<>();
+        for (int i = 0; i < TASKS; i++) {
+            final Service service = fixture.service(SwarmFixture.agentId(i));
+            services.add(service);
+            tasks.add(task(i, service, nodes.get(i % NODES)));
+        }
+
+        final DockerClient docker = mock(DockerClient.class);
+        when(docker.listNodes()).thenReturn(nodes);
+        when(docker.listServices(any(Service.Criteria.class))).thenReturn(services);
+        when(docker.listTasks(any(Task.Criteria.class))).thenReturn(tasks);
+
+        builder = PluginStatusReportViewBuilder.instance();
+        template = builder.getTemplate("status-report.template.ftlh");
+        swarmCluster = new SwarmCluster(docker, true);
+    }
+
+    @Benchmark
+    public String clusterStatusReport() throws Exception {
+        return builder.buildView(template, swarmCluster);
+    }
+
+    @Benchmark
+    public String clusterStatusReportThroughJsonObject() throws Exception {
+        final JsonObject responseJSON = new JsonObject();
+        responseJSON.addProperty("view", builder.build(template, swarmCluster));
+        return responseJSON.toString();
+    }
+
+    private static Node node(int index) throws Exception {
+        final Map<String, Object> spec = body("Role", index == 0 ? "manager" : "worker");
+        spec.put("Availability", "active");
+
+        final Map<String, Object> platform = body("Architecture", "x86_64");
+        platform.put("OS", "linux");
+        final Map<String, Object> resources = body("NanoCPUs", 4000000000L);
+        resources.put("MemoryBytes", 8L * 1024 * 1024 * 1024);
+        final Map<String, Object> description = body("Hostname", String.format("swarm-node-%03d", index));
+        description.put("Platform", platform);
+        description.put("Resources", resources);
+        description.put("Engine", body("EngineVersion", "17.09.0-ce"));
+
+        final Map<String, Object> status = body("State", "ready");
+        status.put("Addr", String.format("10.0.%d.%d", index / 250, index % 250 + 1));
+
+        final Map<String, Object> node = resource(String.format("node-%021d", index));
+        node.put("Spec", spec);
+        node.put("Description", description);
+        node.put("Status", status);
+        return ObjectMapperProvider.objectMapper().readValue(GSON.toJson(node), Node.class);
+    }
+
+    private static Task task(int index, Service service, Node node) throws Exception {
+        final Map<String, Object> status = body("Timestamp", System.currentTimeMillis());
+        status.put("State", "running");
+        status.put("Message", "started");
+
+        final Map<String, Object> task = resource(String.format("task-%021d", index));
+        task.put("Spec", body("ContainerSpec", body("Image", service.spec().taskTemplate().containerSpec().image())));
+        task.put("ServiceID", service.id());
+        task.put("Slot", 1);
+        task.put("NodeID", node.id());
+        task.put("Status", status);
+        task.put("DesiredState", "running");
+        return ObjectMapperProvider.objectMapper().readValue(GSON.toJson(task), Task.class);
+    }
+
+    private static Map<String, Object> resource(String id) {
+        final Map<String, Object> resource = body("ID", id);
+        resource.put("Version", body("Index", 1));
+        resource.put("CreatedAt", System.currentTimeMillis());
+        resource.put("UpdatedAt", System.currentTimeMillis());
+        return resource;
+    }
+
+    private static Map<String, Object> body(String key, Object value) {
+        final Map<String, Object> body = new HashMap<>();
+        body.put(key, value);
+        return body;
+    }
+}
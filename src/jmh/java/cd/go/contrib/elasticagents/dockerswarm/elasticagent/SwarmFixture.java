@@ -0,0 +1,298 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
+
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.JobIdentifier;
+import com.google.common.base.Ticker;
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.spotify.docker.client.DefaultDockerClient;
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.LogMessage;
+import com.spotify.docker.client.LogStream;
+import com.spotify.docker.client.ObjectMapperProvider;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.messages.ServiceCreateResponse;
+import com.spotify.docker.client.messages.Version;
+import com.spotify.docker.client.messages.swarm.Service;
+import com.spotify.docker.client.messages.swarm.ServiceSpec;
+import com.spotify.docker.client.messages.swarm.Task;
+import com.thoughtworks.go.plugin.api.GoApplicationAccessor;
+import com.thoughtworks.go.plugin.api.request.DefaultGoPluginApiRequest;
+import com.thoughtworks.go.plugin.api.request.GoApiRequest;
+import com.thoughtworks.go.plugin.api.response.DefaultGoApiResponse;
+import com.thoughtworks.go.plugin.api.response.GoApiResponse;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static cd.go.contrib.elasticagents.dockerswarm.elasticagent.Constants.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * A swarm running a given number of elastic agent services created by the plugin, behind a mocked docker client, and
+ * a GoCD server that knows of a building agent for each of those services.
+ * <p>
+ * When the events stream is watched the plugin keeps its services from the first listing, as it does against a
+ * healthy swarm; otherwise the stream fails straight away and the services are listed again on every server ping.
+ */
+class SwarmFixture {
+    static final String DOCKER_URI = "http://swarm-manager:2375";
+    static final String ENVIRONMENT = "prod";
+
+    private static final Gson GSON = new Gson();
+    private static final Gson REQUEST_GSON = new GsonBuilder().setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES).create();
+
+    private final List<Service> services = new ArrayList<>();
+    private final Map<String, Service> servicesByName = new HashMap<>();
+    private final Map<String, Service> servicesById = new HashMap<>();
+    private final BlockingQueue<String> createdServices = new LinkedBlockingQueue<>();
+    private final Map<String, String> clusterProfileConfiguration = new HashMap<>();
+    private final Map<String, String> elasticAgentProfile = new HashMap<>();
+    private final DefaultDockerClient docker;
+    private final DockerClientFactory dockerClientFactory;
+    private final GoApplicationAccessor accessor;
+
+    SwarmFixture(int serviceCount, boolean watchEvents) throws Exception {
+        elasticAgentProfile.put("Image", "gocd/gocd-agent-alpine-3.9:v19.3.0");
+        elasticAgentProfile.put("MaxMemory", "1G");
+        elasticAgentProfile.put("ReservedMemory", "512M");
+        elasticAgentProfile.put("Environment", "JAVA_HOME=/usr/lib/jvm/default\nGRADLE_USER_HOME=/cache/gradle");
+        elasticAgentProfile.put("Mounts", "type=volume, source=gradle-cache, target=/cache/gradle\ntype=bind, source=/var/run/docker.sock, target=/var/run/docker.sock, readonly");
+
+        clusterProfileConfiguration.put("docker_uri", DOCKER_URI);
+        clusterProfileConfiguration.put("max_docker_containers", String.valueOf(Integer.MAX_VALUE));
+        clusterProfileConfiguration.put("go_server_url", "https://gocd.example.com:8154/go");
+        clusterProfileConfiguration.put("auto_register_timeout", "10");
+
+        for (int i = 0; i < serviceCount; i++) {
+            Service service = service(i);
+            services.add(service);
+            servicesByName.put(service.spec().name(), service);
+            servicesById.put(service.id(), service);
+        }
+
+        docker = mockDocker(watchEvents);
+        dockerClientFactory = new DockerClientFactory(clusterProfileProperties -> docker, 10, 30, TimeUnit.MINUTES, Ticker.systemTicker());
+        accessor = goServer(agentsJSON(serviceCount));
+    }
+
+    static String agentId(int index) {
+        return String.format("agent-%05d", index);
+    }
+
+    static JobIdentifier jobIdentifier(long index) {
+        return new JobIdentifier("up42", 1L, "1", "build", "1", "test-" + index, index);
+    }
+
+    DockerClientFactory dockerClientFactory() {
+        return dockerClientFactory;
+    }
+
+    GoApplicationAccessor accessor() {
+        return accessor;
+    }
+
+    Service service(String agentId) {
+        return servicesByName.get(agentId);
+    }
+
+    /**
+     * @return the name of the next service created through the docker client, waiting a while for one to be created
+     */
+    String nextCreatedService() throws InterruptedException {
+        final String name = createdServices.poll(10, TimeUnit.SECONDS);
+        if (name == null) {
+            throw new IllegalStateException("No service was created.");
+        }
+        return name;
+    }
+
+    DefaultGoPluginApiRequest serverPing() {
+        return request("cd.go.elastic-agent.server-ping", body("all_cluster_profile_properties", Collections.singletonList(clusterProfileConfiguration)));
+    }
+
+    DefaultGoPluginApiRequest createAgent(long jobId) {
+        Map<String, Object> body = body("auto_register_key", "secret-key");
+        body.put("elastic_agent_profile_properties", elasticAgentProfile);
+        body.put("environment", ENVIRONMENT);
+        body.put("job_identifier", jobIdentifier(jobId));
+        return request("cd.go.elastic-agent.create-agent", body);
+    }
+
+    DefaultGoPluginApiRequest shouldAssignWork(int agentIndex) {
+        Map<String, Object> body = body("agent", new Agent(agentId(agentIndex), Agent.AgentState.Idle, Agent.BuildState.Idle, Agent.ConfigState.Enabled));
+        body.put("environment", ENVIRONMENT);
+        body.put("properties", elasticAgentProfile);
+        body.put("job_identifier", jobIdentifier(agentIndex));
+        return request("cd.go.elastic-agent.should-assign-work", body);
+    }
+
+    DefaultGoPluginApiRequest jobCompletion(int agentIndex) {
+        Map<String, Object> body = body("elastic_agent_id", agentId(agentIndex));
+        body.put("job_identifier", jobIdentifier(agentIndex));
+        return request("cd.go.elastic-agent.job-completion", body);
+    }
+
+    DefaultGoPluginApiRequest agentStatusReport(int agentIndex) {
+        Map<String, Object> body = body("elastic_agent_id", agentId(agentIndex));
+        body.put("job_identifier", jobIdentifier(agentIndex));
+        return request("cd.go.elastic-agent.agent-status-report", body);
+    }
+
+    DefaultGoPluginApiRequest clusterStatusReport() {
+        return request("cd.go.elastic-agent.cluster-status-report", new HashMap<>());
+    }
+
+    DefaultGoPluginApiRequest validateElasticAgentProfile() {
+        return request("cd.go.elastic-agent.validate-elastic-agent-profile", GSON.toJson(elasticAgentProfile));
+    }
+
+    DefaultGoPluginApiRequest validateClusterProfile() {
+        return request("cd.go.elastic-agent.validate-cluster-profile", GSON.toJson(clusterProfileConfiguration));
+    }
+
+    static DefaultGoPluginApiRequest request(String requestName, String body) {
+        DefaultGoPluginApiRequest request = new DefaultGoPluginApiRequest(Constants.EXTENSION_TYPE, Constants.EXTENSION_API_VERSION, requestName);
+        request.setRequestBody(body);
+        return request;
+    }
+
+    private DefaultGoPluginApiRequest request(String requestName, Map<String, Object> body) {
+        body.putIfAbsent("cluster_profile_properties", clusterProfileConfiguration);
+        return request(requestName, REQUEST_GSON.toJson(body));
+    }
+
+    private static Map<String, Object> body(String key, Object value) {
+        Map<String, Object> body = new HashMap<>();
+        body.put(key, value);
+        return body;
+    }
+
+    private Service service(int index) throws Exception {
+        Map<String, String> labels = new HashMap<>();
+        labels.put(CREATED_BY_LABEL_KEY, PLUGIN_ID);
+        labels.put(JOB_IDENTIFIER_LABEL_KEY, jobIdentifier(index).toJson());
+        labels.put(ENVIRONMENT_LABEL_KEY, ENVIRONMENT);
+        labels.put(CONFIGURATION_LABEL_KEY, GSON.toJson(elasticAgentProfile));
+
+        Map<String, Object> containerSpec = new HashMap<>();
+        containerSpec.put("Image", elasticAgentProfile.get("Image"));
+        containerSpec.put("Env", Arrays.asList("GO_EA_MODE=prod", "GO_EA_SERVER_URL=https://gocd.example.com:8154/go", "GO_EA_GUID=docker-swarm." + agentId(index)));
+
+        Map<String, Object> taskTemplate = new HashMap<>();
+        taskTemplate.put("ContainerSpec", containerSpec);
+        taskTemplate.put("Resources", body("Limits", body("MemoryBytes", 1024L * 1024 * 1024)));
+        taskTemplate.put("Placement", body("Constraints", Collections.singletonList("node.role == worker")));
+
+        Map<String, Object> spec = body("Name", agentId(index));
+        spec.put("Labels", labels);
+        spec.put("TaskTemplate", taskTemplate);
+
+        Map<String, Object> service = body("ID", String.format("%025d", index));
+        service.put("Version", body("Index", 42));
+        service.put("CreatedAt", System.currentTimeMillis());
+        service.put("UpdatedAt", System.currentTimeMillis());
+        service.put("Spec", spec);
+        service.put("Endpoint", body("Spec", new HashMap<>()));
+        return ObjectMapperProvider.objectMapper().readValue(GSON.toJson(service), Service.class);
+    }
+
+    private DefaultDockerClient mockDocker(boolean watchEvents) throws Exception {
+        DefaultDockerClient docker = mock(DefaultDockerClient.class);
+
+        when(docker.listServices(any(Service.Criteria.class))).thenAnswer(invocation -> {
+            Service.Criteria criteria = invocation.getArgument(0);
+            if (criteria.serviceName() != null) {
+                return single(servicesByName.get(criteria.serviceName()));
+            }
+            if (criteria.serviceId() != null) {
+                return single(servicesById.get(criteria.serviceId()));
+            }
+            return services;
+        });
+        when(docker.listTasks(any(Task.Criteria.class))).thenReturn(Collections.emptyList());
+        when(docker.listNodes()).thenReturn(Collections.emptyList());
+        when(docker.listNetworks()).thenReturn(Collections.emptyList());
+
+        when(docker.serviceLogs(anyString(), any())).thenAnswer(invocation -> {
+            Iterator<LogMessage> messages = Collections.singletonList(new LogMessage(LogMessage.Stream.STDOUT,
+                    ByteBuffer.wrap("Starting GoCD agent...\n".getBytes(StandardCharsets.UTF_8)))).iterator();
+            LogStream logStream = mock(LogStream.class);
+            when(logStream.hasNext()).thenAnswer(hasNext -> messages.hasNext());
+            when(logStream.next()).thenAnswer(next -> messages.next());
+            return logStream;
+        });
+
+        Version version = mock(Version.class);
+        when(version.apiVersion()).thenReturn("1.26");
+        when(version.version()).thenReturn("17.03.0-ce");
+        when(docker.version()).thenReturn(version);
+
+        when(docker.createService(any(ServiceSpec.class))).thenAnswer(invocation -> {
+            ServiceSpec spec = invocation.getArgument(0);
+            ServiceCreateResponse response = mock(ServiceCreateResponse.class);
+            when(response.id()).thenReturn(spec.name());
+            createdServices.add(spec.name());
+            return response;
+        });
+        when(docker.inspectService(anyString())).thenAnswer(invocation -> servicesById.getOrDefault(invocation.getArgument(0), services.get(0)));
+
+        if (watchEvents) {
+            when(docker.events(any(), any(), any())).thenAnswer(invocation -> {
+                new CountDownLatch(1).await();
+                return null;
+            });
+        } else {
+            when(docker.events(any(), any(), any())).thenThrow(new DockerException("events are not available"));
+        }
+        return docker;
+    }
+
+    private static List<Service> single(Service service) {
+        return service == null ? Collections.emptyList() : Collections.singletonList(service);
+    }
+
+    private static String agentsJSON(int count) {
+        List<Agent> agents = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            agents.add(new Agent(agentId(i), Agent.AgentState.Building, Agent.BuildState.Building, Agent.ConfigState.Enabled));
+        }
+        return Agent.toJSONArray(agents);
+    }
+
+    private static GoApplicationAccessor goServer(String agentsJSON) {
+        return new GoApplicationAccessor() {
+            @Override
+            public GoApiResponse submit(GoApiRequest request) {
+                if (REQUEST_SERVER_LIST_AGENTS.equals(request.api())) {
+                    return DefaultGoApiResponse.success(agentsJSON);
+                }
+                return DefaultGoApiResponse.success("");
+            }
+        };
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
+
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.reports.SwarmCluster;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.Util;
+import com.spotify.docker.client.DefaultDockerClient;
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.messages.swarm.Service;
+import com.spotify.docker.client.messages.swarm.Task;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures listing the tasks of the plugin for the cluster status report from a {@link FakeSwarmServer} that answers
+ * every request after {@link #LATENCY_MILLIS} milliseconds: with a single request for the running tasks of the
+ * services labelled by the plugin, as {@link SwarmCluster} does, and with a request per service of the plugin, as it
+ * did before.
+ * <p>
+ * A shared swarm also runs as many services that were not created by the plugin, whose tasks the label filter leaves
+ * out. The requests sent and the bytes of the responses received by one listing are printed at the end of a run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SwarmTasksBenchmark {
+    static final int NODES = 10;
+    static final long LATENCY_MILLIS = 1;
+
+    @Param({"10", "100", "1000"})
+    public int services;
+
+    @Param({"false", "true"})
+    public boolean sharedSwarm;
+
+    private FakeSwarmServer swarm;
+    private DockerClient docker;
+    private long requests;
+    private long responseBytes;
+
+    @Setup
+    public void setUp() throws Exception {
+        swarm = new FakeSwarmServer(NODES).latency(LATENCY_MILLIS, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < services; i++) {
+            swarm.addService("agent-" + i, SwarmFixture.agentId(i), true);
+            if (sharedSwarm) {
+                swarm.addService("other-" + i, "other-service-" + i, false);
+            }
+        }
+        docker = DefaultDockerClient.builder().uri(swarm.uri()).build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.println(String.format("%n%d requests, %d bytes of responses per listing", requests, responseBytes));
+        docker.close();
+        swarm.stop();
+    }
+
+    @Benchmark
+    public int singleListing() throws Exception {
+        final long requestsBefore = totalRequests();
+        final long bytesBefore = swarm.responseBytes();
+        final int tasks = new SwarmCluster(docker, true).getTaskCount();
+        record(requestsBefore, bytesBefore);
+        return tasks;
+    }
+
+    @Benchmark
+    public int listingPerService() throws Exception {
+        final long requestsBefore = totalRequests();
+        final long bytesBefore = swarm.responseBytes();
+        docker.listNodes();
+        final List<Task> tasks = new ArrayList<>();
+        for (Service service : docker.listServices(Util.servicesCreatedByPlugin())) {
+            tasks.addAll(docker.listTasks(Task.Criteria.builder().serviceName(service.id()).desiredState("running").build()));
+        }
+        record(requestsBefore, bytesBefore);
+        return tasks.size();
+    }
+
+    private void record(long requestsBefore, long bytesBefore) {
+        requests = totalRequests() - requestsBefore;
+        responseBytes = swarm.responseBytes() - bytesBefore;
+    }
+
+    private long totalRequests() {
+        return swarm.requests("GET /nodes") + swarm.requests("GET /services") + swarm.requests("GET /tasks");
+    }
+}
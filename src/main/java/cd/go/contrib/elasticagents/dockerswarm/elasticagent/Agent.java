@@ -16,13 +16,16 @@
 
 package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
 
-import com.google.gson.FieldNamingPolicy;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.GsonRegistry;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
 import com.google.gson.annotations.Expose;
 import com.google.gson.annotations.SerializedName;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
+import java.io.IOException;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -49,7 +52,7 @@ public class Agent {
     public static final Type AGENT_METADATA_LIST_TYPE = new TypeToken<ArrayList<Agent>>() {
     }.getType();
 
-    private static final Gson GSON = new GsonBuilder().setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES).create();
+    private static final Gson GSON = GsonRegistry.SNAKE_CASE;
 
     @Expose
     @SerializedName("agent_id")
@@ -104,7 +107,7 @@ public class Agent {
     }
 
     public static String toJSONArray(Collection<Agent> metadata) {
-        return new GsonBuilder().setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES).create().toJson(metadata);
+        return GSON.toJson(metadata);
     }
 
     @Override
@@ -139,4 +142,46 @@ public class Agent {
         result = 31 * result + (configState != null ? configState.hashCode() : 0);
         return result;
     }
+
+    /**
+     * Reads and writes agents without reflection, as the server lists them and the plugin deletes or disables them
+     * in bulk. An agent state the plugin does not know of is read as null, as Gson does for enums.
+     */
+    public static class JsonAdapter extends TypeAdapter<Agent> {
+        @Override
+        public void write(JsonWriter out, Agent agent) throws IOException {
+            out.beginObject();
+            out.name("agent_id").value(agent.agentId);
+            out.name("agent_state").value(agent.agentState == null ? null : agent.agentState.name());
+            out.name("build_state").value(agent.buildState == null ? null : agent.buildState.name());
+            out.name("config_state").value(agent.configState == null ? null : agent.configState.name());
+            out.endObject();
+        }
+
+        @Override
+        public Agent read(JsonReader in) throws IOException {
+            final Agent agent = new Agent();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "agent_id":
+                        agent.agentId = GsonRegistry.nextString(in);
+                        break;
+                    case "agent_state":
+                        agent.agentState = GsonRegistry.nextEnum(in, AgentState.class);
+                        break;
+                    case "build_state":
+                        agent.buildState = GsonRegistry.nextEnum(in, BuildState.class);
+                        break;
+                    case "config_state":
+                        agent.configState = GsonRegistry.nextEnum(in, ConfigState.class);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return agent;
+        }
+    }
 }
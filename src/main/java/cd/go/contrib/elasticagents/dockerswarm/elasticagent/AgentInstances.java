@@ -17,7 +17,11 @@
 package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
 
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.executors.ServerPingRequestExecutor;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.executors.ShouldAssignWorkRequestExecutor;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.requests.CreateAgentRequest;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.requests.ShouldAssignWorkRequest;
+
+import java.util.concurrent.Future;
 
 
 /**
@@ -37,6 +41,16 @@ public interface AgentInstances<T> {
      */
     T create(CreateAgentRequest request, PluginRequest pluginRequest) throws Exception;
 
+    /**
+     * Same as {@link #create(CreateAgentRequest, PluginRequest)}, but returns as soon as the creation of the agent
+     * instance has been scheduled, so that the server is not kept waiting while the instance is being created.
+     *
+     * @param request       the request object
+     * @param pluginRequest the plugin request object
+     * @return the pending agent instance, which completes with <code>null</code> if no instance is created
+     */
+    Future<T> createAsync(CreateAgentRequest request, PluginRequest pluginRequest) throws Exception;
+
     /**
      * This message is sent when the plugin needs to terminate the agent instance.
      *
@@ -87,6 +101,16 @@ public interface AgentInstances<T> {
      */
     void refreshAll(ClusterProfileProperties pluginSettings, boolean forceRefresh) throws Exception;
 
+    /**
+     * This message is sent from the {@link ShouldAssignWorkRequestExecutor} for an agent that was not created for
+     * the job being assigned. Implementations that keep a pool of pre-created agents may bind such an agent to the job.
+     *
+     * @param agentId the elastic agent id
+     * @param request the should assign work request
+     * @return true if the agent is a pooled agent that is, or now has been, bound to the job of the request
+     */
+    boolean bindPooledAgent(String agentId, ShouldAssignWorkRequest request);
+
     /**
      * This
      * Returns an agent instance with the specified <code>id</code> or <code>null</code>, if the agent is not found.
@@ -87,4 +87,20 @@ public class Agents {
         agents.put(agent.elasticAgentId(), agent);
     }
 
+    // Keeps a snapshot of the agents in line with a disable request made to the server
+    public void markDisabled(Collection<Agent> disabled) {
+        for (Agent agent : disabled) {
+            if (agents.containsKey(agent.elasticAgentId())) {
+                add(new Agent(agent.elasticAgentId(), agent.agentState(), agent.buildState(), Agent.ConfigState.Disabled));
+            }
+        }
+    }
+
+    // Keeps a snapshot of the agents in line with a delete request made to the server
+    public void removeAll(Collection<Agent> deleted) {
+        for (Agent agent : deleted) {
+            agents.remove(agent.elasticAgentId());
+        }
+    }
+
 }
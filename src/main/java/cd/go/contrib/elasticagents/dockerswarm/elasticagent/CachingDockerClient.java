@@ -0,0 +1,120 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
+
+import com.google.common.base.Ticker;
+import com.spotify.docker.client.DefaultDockerClient;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.messages.Network;
+import com.spotify.docker.client.messages.Version;
+import com.spotify.docker.client.messages.swarm.Secret;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A docker client that remembers the docker version, secrets and networks of its swarm for
+ * {@link #METADATA_TTL_MINUTES} minutes, so that creating an agent only has to create the service. This includes the
+ * version check the docker client itself makes before every swarm call.
+ * <p>
+ * The secrets and networks are forgotten as soon as the docker events stream reports a change, or when a secret or
+ * network an agent profile refers to is not among them (see {@link SwarmMetadata#resolve}).
+ */
+class CachingDockerClient extends DefaultDockerClient implements SwarmMetadata {
+    static final long METADATA_TTL_MINUTES = 5;
+
+    private final Expiring<Version> version;
+    private final Expiring<List<Secret>> secrets;
+    private final Expiring<List<Network>> networks;
+
+    CachingDockerClient(Builder builder) {
+        this(builder, METADATA_TTL_MINUTES, TimeUnit.MINUTES, Ticker.systemTicker());
+    }
+
+    CachingDockerClient(Builder builder, long ttl, TimeUnit ttlUnit, Ticker ticker) {
+        super(builder);
+        final long ttlNanos = ttlUnit.toNanos(ttl);
+        this.version = new Expiring<>(super::version, ttlNanos, ticker);
+        this.secrets = new Expiring<>(super::listSecrets, ttlNanos, ticker);
+        this.networks = new Expiring<>(super::listNetworks, ttlNanos, ticker);
+    }
+
+    @Override
+    public Version version() throws DockerException, InterruptedException {
+        return version.get();
+    }
+
+    @Override
+    public List<Secret> listSecrets() throws DockerException, InterruptedException {
+        return secrets.get();
+    }
+
+    @Override
+    public List<Network> listNetworks(ListNetworksParam... params) throws DockerException, InterruptedException {
+        if (params.length != 0) {
+            return super.listNetworks(params);
+        }
+        return networks.get();
+    }
+
+    @Override
+    public void invalidateSecrets() {
+        secrets.invalidate();
+    }
+
+    @Override
+    public void invalidateNetworks() {
+        networks.invalidate();
+    }
+
+    private interface Loader<T> {
+        T load() throws DockerException, InterruptedException;
+    }
+
+    private static class Expiring<T> {
+        private final Loader<T> loader;
+        private final long ttlNanos;
+        private final Ticker ticker;
+        private volatile T value;
+        private volatile long expiresAt;
+
+        private Expiring(Loader<T> loader, long ttlNanos, Ticker ticker) {
+            this.loader = loader;
+            this.ttlNanos = ttlNanos;
+            this.ticker = ticker;
+        }
+
+        T get() throws DockerException, InterruptedException {
+            T current = value;
+            if (current != null && ticker.read() - expiresAt < 0) {
+                return current;
+            }
+
+            synchronized (this) {
+                if (value == null || ticker.read() - expiresAt >= 0) {
+                    value = loader.load();
+                    expiresAt = ticker.read() + ttlNanos;
+                }
+                return value;
+            }
+        }
+
+        synchronized void invalidate() {
+            value = null;
+        }
+    }
+}
@@ -1,19 +1,14 @@
 package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
 
-import com.google.gson.FieldNamingPolicy;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.GsonRegistry;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.annotations.Expose;
 import com.google.gson.annotations.SerializedName;
 
-import java.util.HashMap;
 import java.util.Objects;
 
 public class ClusterProfile {
-    public static final Gson GSON = new GsonBuilder()
-            .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
-            .excludeFieldsWithoutExposeAnnotation()
-            .create();
+    public static final Gson GSON = GsonRegistry.EXPOSED_SNAKE_CASE;
 
     @Expose
     @SerializedName("id")
@@ -89,7 +84,7 @@ public class ClusterProfile {
     }
 
     public void setClusterProfileProperties(PluginSettings pluginSettings) {
-        this.clusterProfileProperties = ClusterProfileProperties.fromConfiguration(GSON.fromJson(GSON.toJson(pluginSettings), HashMap.class));
+        this.clusterProfileProperties = GSON.fromJson(GSON.toJsonTree(pluginSettings), ClusterProfileProperties.class);
     }
 
 }
@@ -1,19 +1,80 @@
 package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
 
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.spotify.docker.client.messages.RegistryAuth;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
-import java.util.Objects;
+
+import static org.apache.commons.lang.StringUtils.defaultString;
+import static org.apache.commons.lang.StringUtils.stripEnd;
 
 public class ClusterProfileProperties extends PluginSettings {
+    private static final JsonAdapter<ClusterProfileProperties> CONFIGURATION = new JsonAdapter<>(ClusterProfileProperties::new);
+
+    private transient volatile String uuid;
+    private transient volatile String credentialsDigest;
+
     public static ClusterProfileProperties fromJSON(String json) {
         return GSON.fromJson(json, ClusterProfileProperties.class);
     }
 
     public static ClusterProfileProperties fromConfiguration(Map<String, String> clusterProfileProperties) {
-        return GSON.fromJson(GSON.toJson(clusterProfileProperties), ClusterProfileProperties.class);
+        return CONFIGURATION.fromConfiguration(clusterProfileProperties);
     }
 
+    /**
+     * Identifies the swarm this cluster profile connects to: a SHA-256 digest of the normalized docker URI. Editing
+     * any other property of the profile, like its certificates or the maximum number of containers, keeps the
+     * identity, and with it the agents tracked for the cluster.
+     */
     public String uuid() {
-        return Integer.toHexString(Objects.hash(this));
+        if (uuid == null) {
+            uuid = Hashing.sha256().hashString(normalize(getDockerURI()), StandardCharsets.UTF_8).toString();
+        }
+        return uuid;
+    }
+
+    /**
+     * A SHA-256 digest of the credentials used to connect to the swarm and to the private registry, which tells
+     * whether a docker client built for this cluster is still good to use.
+     */
+    public String credentialsDigest() {
+        if (credentialsDigest == null) {
+            final RegistryAuth registryAuth = registryAuth();
+            final Hasher hasher = Hashing.sha256().newHasher();
+            for (String credential : new String[]{getDockerCACert(), getDockerClientCert(), getDockerClientKey(), String.valueOf(useDockerAuthInfo()),
+                    registryAuth.serverAddress(), registryAuth.username(), registryAuth.password()}) {
+                hasher.putString(defaultString(credential), StandardCharsets.UTF_8).putChar('\0');
+            }
+            credentialsDigest = hasher.hash().toString();
+        }
+        return credentialsDigest;
+    }
+
+    // the scheme and host of a URI are case insensitive, and a trailing slash does not make it another endpoint
+    private static String normalize(String dockerURI) {
+        final String trimmed = stripEnd(defaultString(dockerURI).trim(), "/");
+        try {
+            final URI uri = new URI(trimmed);
+            if (uri.getScheme() == null || uri.getRawAuthority() == null) {
+                return trimmed;
+            }
+            return uri.getScheme().toLowerCase() + "://" + uri.getRawAuthority().toLowerCase() + defaultString(uri.getRawPath())
+                    + (uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery());
+        } catch (URISyntaxException e) {
+            return trimmed;
+        }
+    }
+
+    @Override
+    protected void changed() {
+        super.changed();
+        uuid = null;
+        credentialsDigest = null;
     }
 
     @Override
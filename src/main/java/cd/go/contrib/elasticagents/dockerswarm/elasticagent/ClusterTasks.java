@@ -0,0 +1,171 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static cd.go.contrib.elasticagents.dockerswarm.elasticagent.DockerPlugin.LOG;
+import static java.text.MessageFormat.format;
+
+/**
+ * Runs a piece of work for each cluster profile concurrently, so that one slow or unreachable swarm does not hold up
+ * the other clusters.
+ * <p>
+ * Work is run on a pool of at most {@link #MAX_THREADS} threads, which can be set with the system property
+ * <code>{@value #MAX_THREADS_PROPERTY}</code>. Up to {@link #QUEUE_SIZE} more clusters wait for a thread, and a
+ * cluster beyond those is reported as failed. Every cluster gets its own deadline, counted from the moment its work
+ * starts, and shared by all the work of a {@link Run}. A cluster whose work fails or misses its deadline is logged
+ * and reported back to the caller; the other clusters are not affected.
+ * Blocking docker calls do not always give way to an interrupt, so a cluster whose earlier work is still running is
+ * reported as failed without running more work for it, rather than piling up threads behind a hung swarm.
+ */
+public class ClusterTasks {
+    static final long DEFAULT_DEADLINE_SECONDS = 45;
+    static final String MAX_THREADS_PROPERTY = "cd.go.contrib.elasticagents.dockerswarm.clusterTaskThreads";
+    static final int MAX_THREADS = Integer.getInteger(MAX_THREADS_PROPERTY, 16);
+    static final int QUEUE_SIZE = 256;
+
+    private static final ClusterTasks CLUSTER_TASKS = new ClusterTasks(newExecutor(), DEFAULT_DEADLINE_SECONDS, TimeUnit.SECONDS);
+
+    private final ExecutorService executor;
+    private final long deadline;
+    private final TimeUnit deadlineUnit;
+    private final Set<String> busyClusters = ConcurrentHashMap.newKeySet();
+
+    ClusterTasks(ExecutorService executor, long deadline, TimeUnit deadlineUnit) {
+        this.executor = executor;
+        this.deadline = deadline;
+        this.deadlineUnit = deadlineUnit;
+    }
+
+    public static ClusterTasks instance() {
+        return CLUSTER_TASKS;
+    }
+
+    private static ExecutorService newExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(QUEUE_SIZE),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("cluster-task-%d").build(), new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Runs the task for every cluster and waits for all of them to finish or to miss their deadline.
+     *
+     * @return the uuids of the clusters for which the task failed or did not finish in time
+     */
+    public Set<String> runForEach(String name, Collection<ClusterProfileProperties> clusters, ClusterTask task) throws InterruptedException {
+        return newRun().runForEach(name, clusters, task);
+    }
+
+    /**
+     * @return a run, whose work for a cluster must all be done within a single deadline
+     */
+    public Run newRun() {
+        return new Run();
+    }
+
+    public class Run {
+        private final Map<String, Long> startedAt = new ConcurrentHashMap<>();
+
+        private Run() {
+        }
+
+        /**
+         * Runs the task for every cluster and waits for all of them to finish, or to miss the deadline counted from
+         * when the first work of this run for the cluster started.
+         *
+         * @return the uuids of the clusters for which the task failed or did not finish in time
+         */
+        public Set<String> runForEach(String name, Collection<ClusterProfileProperties> clusters, ClusterTask task) throws InterruptedException {
+            final long submittedAt = System.nanoTime();
+            final Set<String> failedClusters = new LinkedHashSet<>();
+            final Map<ClusterProfileProperties, Future<?>> futures = new LinkedHashMap<>();
+            for (ClusterProfileProperties clusterProfileProperties : clusters) {
+                final String uuid = clusterProfileProperties.uuid();
+                if (remainingNanos(uuid, submittedAt) <= 0) {
+                    LOG.warn(format("[{0}] Cluster `{1}` has no time left, skipping it.", name, uuid));
+                    failedClusters.add(uuid);
+                    continue;
+                }
+                try {
+                    futures.put(clusterProfileProperties, executor.submit(() -> {
+                        if (!busyClusters.add(uuid)) {
+                            throw new IllegalStateException("Earlier work for the cluster is still running.");
+                        }
+                        try {
+                            final long started = System.nanoTime();
+                            startedAt.putIfAbsent(uuid, started);
+                            task.run(clusterProfileProperties);
+                            LOG.info(format("[{0}] Done with cluster `{1}` in {2} ms.", name, uuid, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)));
+                            return null;
+                        } finally {
+                            busyClusters.remove(uuid);
+                        }
+                    }));
+                } catch (RejectedExecutionException e) {
+                    LOG.warn(format("[{0}] No thread available for cluster `{1}`, skipping it.", name, uuid));
+                    failedClusters.add(uuid);
+                }
+            }
+
+            for (Map.Entry<ClusterProfileProperties, Future<?>> entry : futures.entrySet()) {
+                final String uuid = entry.getKey().uuid();
+                try {
+                    await(entry.getValue(), uuid, submittedAt);
+                } catch (ExecutionException e) {
+                    LOG.error(format("[{0}] Failed for cluster `{1}`.", name, uuid), e.getCause());
+                    failedClusters.add(uuid);
+                } catch (TimeoutException e) {
+                    LOG.warn(format("[{0}] Cluster `{1}` did not finish within {2} {3}, giving up on it.", name, uuid, deadline, deadlineUnit.toString().toLowerCase()));
+                    entry.getValue().cancel(true);
+                    failedClusters.add(uuid);
+                }
+            }
+            return failedClusters;
+        }
+
+        /**
+         * Waits for the work of a cluster until its deadline. Work that has not started yet is waited for until the
+         * deadline counted from its submission, while it waits for a thread of the pool.
+         */
+        private void await(Future<?> future, String uuid, long submittedAt) throws InterruptedException, ExecutionException, TimeoutException {
+            while (true) {
+                try {
+                    future.get(Math.max(remainingNanos(uuid, submittedAt), 0), TimeUnit.NANOSECONDS);
+                    return;
+                } catch (TimeoutException e) {
+                    if (remainingNanos(uuid, submittedAt) <= 0) {
+                        throw e;
+                    }
+                }
+            }
+        }
+
+        private long remainingNanos(String uuid, long submittedAt) {
+            final Long started = startedAt.get(uuid);
+            return deadlineUnit.toNanos(deadline) - (System.nanoTime() - (started == null ? submittedAt : started));
+        }
+    }
+
+    public interface ClusterTask {
+        void run(ClusterProfileProperties clusterProfileProperties) throws Exception;
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
+
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.Size;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.Util;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.spotify.docker.client.messages.mount.Mount;
+import com.spotify.docker.client.messages.swarm.*;
+import org.apache.commons.lang.StringUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+import static cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.Util.splitIntoLinesAndTrimSpaces;
+import static java.util.Collections.unmodifiableList;
+import static org.apache.commons.lang.StringUtils.isBlank;
+
+/**
+ * An elastic agent profile with its multiline properties parsed: image, command, environment, hosts, mounts,
+ * secrets, constraints, log driver and resource limits. Profiles are compiled once and kept in a cache of the
+ * {@link #MAX_PROFILES} most recently used ones, so that validating a create agent request and creating the agent
+ * parse the profile once between them. Profiles are looked up by a digest of their properties, and a cached profile
+ * is only used when its properties are equal to the ones asked for.
+ * <p>
+ * A property that cannot be parsed fails with an exception of the same type and message as before every time it is
+ * asked for.
+ */
+public class CompiledProfile {
+    static final int MAX_PROFILES = 256;
+    private static final Cache<HashCode, CompiledProfile> PROFILES = CacheBuilder.newBuilder()
+            .maximumSize(MAX_PROFILES)
+            .build();
+    private static final HashFunction DIGEST = Hashing.murmur3_128();
+    private static final HashCode NO_PROPERTIES = DIGEST.hashInt(0);
+
+    private final Map<String, String> properties;
+
+    private final Parsed<String> image;
+    private final List<String> command;
+    private final List<String> environment;
+    private final List<String> hosts;
+    private final Parsed<List<Mount>> mounts;
+    private final Parsed<DockerSecrets> secrets;
+    private final List<String> constraints;
+    private final Parsed<Driver> logDriver;
+    private final Parsed<ResourceRequirements> resources;
+    private final String networks;
+
+    CompiledProfile(Map<String, String> properties) {
+        this.properties = Collections.unmodifiableMap(new HashMap<>(properties));
+        image = Parsed.of(() -> image(properties.get("Image")));
+        command = StringUtils.isNotBlank(properties.get("Command")) ? lines(properties.get("Command")) : null;
+        environment = StringUtils.isNotBlank(properties.get("Environment")) ? lines(properties.get("Environment")) : Collections.emptyList();
+        hosts = unmodifiableList(new Hosts().hosts(properties.get("Hosts")));
+        mounts = Parsed.of(() -> unmodifiableList(DockerMounts.fromString(properties.get("Mounts")).toMount()));
+        secrets = Parsed.of(() -> DockerSecrets.fromString(properties.get("Secrets")));
+        constraints = unmodifiableList(Util.linesToList(properties.get("Constraints")));
+        logDriver = Parsed.of(() -> StringUtils.isBlank(properties.get("LogDriver")) ? null : Driver.builder()
+                .name(properties.get("LogDriver"))
+                .options(Util.linesToMap(properties.get("LogDriverOptions")))
+                .build());
+        resources = Parsed.of(() -> resourceRequirements(properties));
+        networks = properties.get("Networks");
+    }
+
+    public static CompiledProfile of(Map<String, String> properties) {
+        try {
+            final CompiledProfile compiledProfile = PROFILES.get(digest(properties), () -> new CompiledProfile(properties));
+            return compiledProfile.properties.equals(properties) ? compiledProfile : new CompiledProfile(properties);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    // the entries are hashed one by one and combined regardless of their order, without copying the properties
+    private static HashCode digest(Map<String, String> properties) {
+        if (properties.isEmpty()) {
+            return NO_PROPERTIES;
+        }
+        final List<HashCode> entries = new ArrayList<>(properties.size());
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            entries.add(DIGEST.newHasher()
+                    .putString(String.valueOf(property.getKey()), StandardCharsets.UTF_8)
+                    .putChar('\0')
+                    .putBoolean(property.getValue() == null)
+                    .putString(String.valueOf(property.getValue()), StandardCharsets.UTF_8)
+                    .hash());
+        }
+        return Hashing.combineUnordered(entries);
+    }
+
+    public String image() {
+        return image.get();
+    }
+
+    /**
+     * @return the command lines, or null if the profile does not override the command of the image
+     */
+    public List<String> command() {
+        return command;
+    }
+
+    public List<String> environment() {
+        return environment;
+    }
+
+    public List<String> hosts() {
+        return hosts;
+    }
+
+    public List<Mount> mounts() {
+        return mounts.get();
+    }
+
+    public boolean hasSecrets() {
+        return !secrets.get().isEmpty();
+    }
+
+    public List<SecretBind> secretBinds(List<Secret> dockerSecrets) {
+        return secrets.get().toSecretBind(dockerSecrets);
+    }
+
+    public List<String> constraints() {
+        return constraints;
+    }
+
+    public Driver logDriver() {
+        return logDriver.get();
+    }
+
+    public ResourceRequirements resources() {
+        return resources.get();
+    }
+
+    public String networks() {
+        return networks;
+    }
+
+    private static List<String> lines(String lines) {
+        return unmodifiableList(new ArrayList<>(splitIntoLinesAndTrimSpaces(lines)));
+    }
+
+    private static String image(String image) {
+        if (isBlank(image)) {
+            throw new IllegalArgumentException("Must provide `Image` attribute.");
+        }
+
+        if (!image.contains(":")) {
+            return image + ":latest";
+        }
+        return image;
+    }
+
+    private static ResourceRequirements resourceRequirements(Map<String, String> properties) {
+        ResourceRequirements.Builder resourceRequirementsBuilder = ResourceRequirements.builder();
+        final String maxMemory = properties.get("MaxMemory");
+        if (StringUtils.isNotBlank(maxMemory)) {
+            resourceRequirementsBuilder.limits(
+                    Resources.builder()
+                            .memoryBytes(Size.parse(maxMemory).toBytes())
+                            .build()
+            );
+        }
+
+        final String reservedMemory = properties.get("ReservedMemory");
+        if (StringUtils.isNotBlank(reservedMemory)) {
+            resourceRequirementsBuilder.reservations(
+                    Resources.builder()
+                            .memoryBytes(Size.parse(reservedMemory).toBytes())
+                            .build()
+            );
+        }
+
+        return resourceRequirementsBuilder.build();
+    }
+
+    private static class Parsed<T> {
+        private final T value;
+        private final RuntimeException error;
+
+        private Parsed(T value, RuntimeException error) {
+            this.value = value;
+            this.error = error;
+        }
+
+        static <T> Parsed<T> of(Supplier<T> parser) {
+            try {
+                return new Parsed<>(parser.get(), null);
+            } catch (RuntimeException e) {
+                return new Parsed<>(null, e);
+            }
+        }
+
+        // a new exception per call, as a thrown exception gets the stack trace and suppressed exceptions of its caller
+        T get() {
+            if (error != null) {
+                throw new IllegalArgumentException(error.getMessage(), error);
+            }
+            return value;
+        }
+    }
+}
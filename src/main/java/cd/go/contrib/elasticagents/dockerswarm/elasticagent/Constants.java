@@ -46,6 +46,7 @@ public interface Constants {
     String JOB_IDENTIFIER_LABEL_KEY = "Elastic-Agent-Job-Identifier";
     String ENVIRONMENT_LABEL_KEY = "Elastic-Agent-Environment-Name";
     String CONFIGURATION_LABEL_KEY = "Elastic-Agent-Configuration";
+    String WARM_POOL_LABEL_KEY = "Elastic-Agent-Warm-Pool";
     String SWARM_SERVICE_NAME = "com.docker.swarm.service.name";
 
 }
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
+
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.requests.CreateAgentRequest;
+import com.google.common.util.concurrent.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static cd.go.contrib.elasticagents.dockerswarm.elasticagent.DockerPlugin.LOG;
+import static java.text.MessageFormat.format;
+
+/**
+ * Groups agent creations for the same elastic agent profile on the same cluster that arrive within
+ * {@link #WINDOW_MILLIS} milliseconds of the first one, like the requests GoCD sends when a pipeline fans out. Every
+ * creation is handed to the given executor as soon as it is submitted; the {@link ServiceSpecTemplate} of a batch is
+ * built once, by whichever creation of the batch gets to it first, and reused by the others. A creation the executor
+ * rejects fails with the {@link RejectedExecutionException}, and when the template cannot be built every creation of
+ * the batch fails with its own {@link ExecutionException} caused by that failure. Batches of all clusters are closed by
+ * one shared scheduler thread.
+ */
+class CreationBatches {
+    static final long WINDOW_MILLIS = 50;
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("create-batches-%d").build());
+
+    private final ConcurrentHashMap<String, Batch> openBatches = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final Executor executor;
+    private final long windowMillis;
+
+    CreationBatches(Executor executor) {
+        this(executor, WINDOW_MILLIS);
+    }
+
+    CreationBatches(Executor executor, long windowMillis) {
+        this.executor = executor;
+        this.windowMillis = windowMillis;
+        this.scheduler = SCHEDULER;
+    }
+
+    /**
+     * Adds a creation to the open batch for the profile and cluster of the request, opening one if there is none, and
+     * dispatches it right away. The template callable is only called for the first request of a batch.
+     */
+    ListenableFuture<DockerService> submit(CreateAgentRequest request, Callable<ServiceSpecTemplate> template, Creation creation) {
+        final String key = request.getClusterProfileProperties().uuid() + "\n" + WarmPool.keyFor(request.properties(), null);
+        final Member member = new Member(creation);
+        while (true) {
+            final Batch batch = openBatches.computeIfAbsent(key, k -> new Batch(k, template));
+            if (batch.add(member)) {
+                batch.dispatch(member);
+                return member.result;
+            }
+        }
+    }
+
+    interface Creation {
+        DockerService create(Callable<ServiceSpecTemplate> template) throws Exception;
+    }
+
+    private static class Member {
+        private final Creation creation;
+        private final SettableFuture<DockerService> result = SettableFuture.create();
+
+        private Member(Creation creation) {
+            this.creation = creation;
+        }
+    }
+
+    private class Batch {
+        private final String key;
+        private final Callable<ServiceSpecTemplate> templateBuilder;
+        private final List<Member> members = new ArrayList<>();
+        private boolean closed;
+        private boolean templateBuilt;
+        private ServiceSpecTemplate template;
+        private Exception templateFailure;
+
+        private Batch(String key, Callable<ServiceSpecTemplate> templateBuilder) {
+            this.key = key;
+            this.templateBuilder = templateBuilder;
+            scheduler.schedule(this::close, windowMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private synchronized boolean add(Member member) {
+            if (closed) {
+                return false;
+            }
+            members.add(member);
+            return true;
+        }
+
+        private void dispatch(Member member) {
+            try {
+                executor.execute(() -> {
+                    try {
+                        member.result.set(member.creation.create(this::template));
+                    } catch (Throwable e) {
+                        member.result.setException(e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                member.result.setException(e);
+            }
+        }
+
+        private void close() {
+            final List<ListenableFuture<DockerService>> results = new ArrayList<>();
+            synchronized (this) {
+                closed = true;
+                for (Member member : members) {
+                    results.add(member.result);
+                }
+            }
+            openBatches.remove(key, this);
+
+            final ListenableFuture<List<DockerService>> created = Futures.successfulAsList(results);
+            created.addListener(() -> {
+                final long count = Futures.getUnchecked(created).stream().filter(service -> service != null).count();
+                LOG.debug(format("Created {0} of {1} agents requested together for the same profile.", count, results.size()));
+            }, MoreExecutors.directExecutor());
+        }
+
+        private synchronized ServiceSpecTemplate template() throws Exception {
+            if (!templateBuilt) {
+                templateBuilt = true;
+                try {
+                    template = templateBuilder.call();
+                } catch (Exception e) {
+                    templateFailure = e;
+                }
+            }
+            if (templateFailure != null) {
+                throw new ExecutionException(templateFailure.getMessage(), templateFailure);
+            }
+            return template;
+        }
+    }
+}
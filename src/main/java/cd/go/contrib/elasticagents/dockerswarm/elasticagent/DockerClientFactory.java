@@ -16,6 +16,12 @@
 
 package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
 
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.spotify.docker.client.DefaultDockerClient;
 import com.spotify.docker.client.DockerCertificates;
 import com.spotify.docker.client.DockerClient;
@@ -29,31 +35,92 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static cd.go.contrib.elasticagents.dockerswarm.elasticagent.DockerPlugin.LOG;
 import static java.text.MessageFormat.format;
 import static org.apache.commons.lang.StringUtils.isBlank;
 
+/**
+ * Keeps one docker client per cluster profile. Clients that are not used for {@link #IDLE_TIMEOUT_MINUTES} are
+ * evicted and closed, as is the least recently used client once more than {@link #MAX_CLIENTS} clusters are in use.
+ * <p>
+ * The underlying cache is split into independently locked segments, and a client is built outside of the segment
+ * lock, so connecting to one (possibly slow) cluster never blocks callers that use another one. Every call made
+ * through a client is timed by {@link MeteredDockerClient}, and the metadata of the swarm is cached by
+ * {@link CachingDockerClient}.
+ * <p>
+ * Clients are kept by {@link ClusterProfileProperties#uuid()}, which only depends on the docker URI, together with
+ * {@link ClusterProfileProperties#credentialsDigest()}. Profiles of the same swarm with other certificates or registry
+ * credentials get a client of their own, and editing the credentials of a profile builds a new client while the old
+ * one, which other threads may still be using, is left to expire.
+ */
 public class DockerClientFactory {
-    private DefaultDockerClient client;
-    private ClusterProfileProperties clusterProfileProperties;
+    static final int MAX_CLIENTS = 32;
+    static final long IDLE_TIMEOUT_MINUTES = 30;
+    private static final int LOCK_STRIPES = 8;
 
     private static final DockerClientFactory DOCKER_CLIENT_FACTORY = new DockerClientFactory();
 
-    public synchronized DockerClient docker(ClusterProfileProperties clusterProfileProperties) throws Exception {
-        if (clusterProfileProperties.equals(this.clusterProfileProperties) && this.client != null) {
-            return this.client;
-        }
+    private final Cache<String, DockerClient> clients;
+    private final ClientCreator clientCreator;
+
+    private DockerClientFactory() {
+        this(DockerClientFactory::createMeteredClient, MAX_CLIENTS, IDLE_TIMEOUT_MINUTES, TimeUnit.MINUTES, Ticker.systemTicker());
+    }
 
-        this.clusterProfileProperties = clusterProfileProperties;
-        this.client = createClient(clusterProfileProperties);
-        return this.client;
+    DockerClientFactory(ClientCreator clientCreator, long maxClients, long idleTimeout, TimeUnit idleTimeoutUnit, Ticker ticker) {
+        this.clientCreator = clientCreator;
+        this.clients = CacheBuilder.newBuilder()
+                .concurrencyLevel(LOCK_STRIPES)
+                .maximumSize(maxClients)
+                .expireAfterAccess(idleTimeout, idleTimeoutUnit)
+                .ticker(ticker)
+                .removalListener(DockerClientFactory::close)
+                .build();
+    }
+
+    public DockerClient docker(ClusterProfileProperties clusterProfileProperties) throws Exception {
+        try {
+            return clients.get(clusterProfileProperties.uuid() + "/" + clusterProfileProperties.credentialsDigest(),
+                    () -> clientCreator.create(clusterProfileProperties));
+        } catch (ExecutionException | UncheckedExecutionException | ExecutionError e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
     }
 
     public static DockerClientFactory instance() {
         return DOCKER_CLIENT_FACTORY;
     }
 
+    // used by tests
+    long size() {
+        clients.cleanUp();
+        return clients.size();
+    }
+
+    private static void close(RemovalNotification<String, DockerClient> notification) {
+        final DockerClient client = notification.getValue();
+        if (client == null) {
+            return;
+        }
+
+        LOG.debug(format("Closing docker client for cluster `{0}`, reason: {1}.", notification.getKey(), notification.getCause()));
+        try {
+            client.close();
+        } catch (Exception e) {
+            LOG.warn(format("Failed to close docker client for cluster `{0}`.", notification.getKey()), e);
+        }
+    }
+
+    private static DockerClient createMeteredClient(ClusterProfileProperties clusterProfileProperties) throws Exception {
+        return MeteredDockerClient.wrap(createClient(clusterProfileProperties), clusterProfileProperties.uuid(), Metrics.instance());
+    }
+
     private static DefaultDockerClient createClient(ClusterProfileProperties clusterProfileProperties) throws Exception {
         DefaultDockerClient.Builder builder = DefaultDockerClient.builder();
 
@@ -68,9 +135,10 @@ public class DockerClientFactory {
             builder.registryAuth(registryAuth);
         }
 
-        DefaultDockerClient docker = builder.build();
+        DefaultDockerClient docker = new CachingDockerClient(builder);
         String ping = docker.ping();
         if (!"OK".equals(ping)) {
+            docker.close();
             throw new RuntimeException("Could not ping the docker server, the server said '" + ping + "' instead of 'OK'.");
         }
         return docker;
@@ -94,4 +162,8 @@ public class DockerClientFactory {
             FileUtils.deleteDirectory(tempDirectory);
         }
     }
+
+    interface ClientCreator {
+        DockerClient create(ClusterProfileProperties clusterProfileProperties) throws Exception;
+    }
 }
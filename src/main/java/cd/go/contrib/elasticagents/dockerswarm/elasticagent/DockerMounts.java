@@ -17,7 +17,6 @@
 package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
 
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.Util;
-import com.google.gson.Gson;
 import com.spotify.docker.client.messages.Volume;
 import com.spotify.docker.client.messages.mount.Mount;
 
@@ -27,65 +26,19 @@ import java.util.stream.Collectors;
 import static cd.go.contrib.elasticagents.dockerswarm.elasticagent.DockerPlugin.LOG;
 import static cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.Util.splitIntoLinesAndTrimSpaces;
 import static java.text.MessageFormat.format;
-import static java.util.stream.Collectors.toList;
 import static org.apache.commons.lang.StringUtils.*;
 
 public class DockerMounts extends ArrayList<DockerMounts.DockerMount> {
-    private static final Gson GSON = new Gson();
+    private static final List<String> MOUNT_TYPES = Arrays.asList("bind", "volume");
 
     public static DockerMounts fromString(String mountsConfig) {
-        final List<Map<String, String>> mounts = splitIntoLinesAndTrimSpaces(mountsConfig).stream()
-                .filter(line -> isNotBlank(line))
-                .map(line -> lineToMap(line))
-                .collect(toList());
-
-        return GSON.fromJson(GSON.toJson(mounts), DockerMounts.class);
-    }
-
-    private static Map<String, String> lineToMap(String line) {
-        final HashMap<String, String> map = new HashMap<>();
-        final String[] properties = line.split(",");
-
-        for (String property : properties) {
-            if (stripToEmpty(property).toLowerCase().equals("readonly")) {
-                map.put("readOnly", "true");
-            } else if (property.contains("=")) {
-                final String[] parts = property.split("=", 2);
-                switch (stripToEmpty(parts[0]).toLowerCase()) {
-                    case "type":
-                        map.put("type", stripToEmpty(parts[1]));
-                        break;
-                    case "source":
-                    case "src":
-                        map.put("source", stripToEmpty(parts[1]));
-                        break;
-                    case "target":
-                    case "destination":
-                    case "dst":
-                        map.put("target", stripToEmpty(parts[1]));
-                        break;
-                    default:
-                        throw new RuntimeException(format("Invalid mount specification `{0}`. Option `{1}` not implemented.", line, parts[0]));
-                }
-            } else {
-                throw new RuntimeException(format("Invalid mount specification `{0}`. Option `{1}` not implemented.", line, property));
+        final DockerMounts mounts = new DockerMounts();
+        for (String line : splitIntoLinesAndTrimSpaces(mountsConfig)) {
+            if (isNotBlank(line)) {
+                mounts.add(DockerMount.parse(line));
             }
         }
-
-        final List<String> mountTypes = Arrays.asList("bind", "volume");
-        if (map.containsKey("type") && mountTypes.stream().noneMatch(map.get("type")::contains)) {
-            throw new RuntimeException(format("Invalid mount type specification `{0}`. Available options are `{1}`.", line, mountTypes));
-        }
-
-        if (map.containsKey("type") && map.get("type").equals("bind") && isBlank(map.get("source"))) {
-            throw new RuntimeException(format("Invalid mount source specification `{0}`. Bind mounts have to specify `source`.", line));
-        }
-
-        if (isBlank(map.get("target"))) {
-            throw new RuntimeException(format("Invalid mount target specification `{0}`. `target` has to be specified.", line));
-        }
-
-        return map;
+        return mounts;
     }
 
     public List<Mount> toMount() {
@@ -111,6 +64,50 @@ public class DockerMounts extends ArrayList<DockerMounts.DockerMount> {
         private String target;
         private String readOnly;
 
+        private static DockerMount parse(String line) {
+            final DockerMount mount = new DockerMount();
+            final SpecificationOptions options = new SpecificationOptions(line);
+
+            while (options.next()) {
+                if (stripToEmpty(options.option()).toLowerCase().equals("readonly")) {
+                    mount.readOnly = "true";
+                } else if (options.hasValue()) {
+                    switch (stripToEmpty(options.key()).toLowerCase()) {
+                        case "type":
+                            mount.type = stripToEmpty(options.value());
+                            break;
+                        case "source":
+                        case "src":
+                            mount.source = stripToEmpty(options.value());
+                            break;
+                        case "target":
+                        case "destination":
+                        case "dst":
+                            mount.target = stripToEmpty(options.value());
+                            break;
+                        default:
+                            throw new RuntimeException(format("Invalid mount specification `{0}`. Option `{1}` not implemented.", line, options.key()));
+                    }
+                } else {
+                    throw new RuntimeException(format("Invalid mount specification `{0}`. Option `{1}` not implemented.", line, options.option()));
+                }
+            }
+
+            if (mount.type != null && MOUNT_TYPES.stream().noneMatch(mount.type::contains)) {
+                throw new RuntimeException(format("Invalid mount type specification `{0}`. Available options are `{1}`.", line, MOUNT_TYPES));
+            }
+
+            if ("bind".equals(mount.type) && isBlank(mount.source)) {
+                throw new RuntimeException(format("Invalid mount source specification `{0}`. Bind mounts have to specify `source`.", line));
+            }
+
+            if (isBlank(mount.target)) {
+                throw new RuntimeException(format("Invalid mount target specification `{0}`. `target` has to be specified.", line));
+            }
+
+            return mount;
+        }
+
         public String type() {
             return isNotBlank(type) ? type : "volume";
         }
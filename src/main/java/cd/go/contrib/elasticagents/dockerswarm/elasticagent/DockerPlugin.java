@@ -16,6 +16,7 @@
 
 package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
 
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.builders.PluginStatusReportViewBuilder;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.executors.*;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.requests.*;
 import com.thoughtworks.go.plugin.api.GoApplicationAccessor;
@@ -28,24 +29,52 @@ import com.thoughtworks.go.plugin.api.request.GoPluginApiRequest;
 import com.thoughtworks.go.plugin.api.response.DefaultGoPluginApiResponse;
 import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+
+import static org.apache.commons.lang.StringUtils.removeStart;
 
 @Extension
 public class DockerPlugin implements GoPlugin {
     public static final Logger LOG = Logger.getLoggerFor(DockerPlugin.class);
-    private PluginRequest pluginRequest;
-    private Map<String, DockerServices> clusterSpecificAgentInstances;
+    private volatile PluginRequest pluginRequest;
+    private final DockerServicesRegistry clusterSpecificAgentInstances;
+    private final DockerClientFactory dockerClientFactory;
+    private final Metrics metrics;
+
+    public DockerPlugin() {
+        this(new DockerServicesRegistry(), DockerClientFactory.instance(), Metrics.instance());
+    }
+
+    DockerPlugin(DockerServicesRegistry clusterSpecificAgentInstances, DockerClientFactory dockerClientFactory) {
+        this(clusterSpecificAgentInstances, dockerClientFactory, Metrics.instance());
+    }
+
+    DockerPlugin(DockerServicesRegistry clusterSpecificAgentInstances, DockerClientFactory dockerClientFactory, Metrics metrics) {
+        this.clusterSpecificAgentInstances = clusterSpecificAgentInstances;
+        this.dockerClientFactory = dockerClientFactory;
+        this.metrics = metrics;
+    }
 
     @Override
     public void initializeGoApplicationAccessor(GoApplicationAccessor accessor) {
         pluginRequest = new PluginRequest(accessor);
-        clusterSpecificAgentInstances = new HashMap<>();
+        PluginStatusReportViewBuilder.instance();
     }
 
     @Override
     public GoPluginApiResponse handle(GoPluginApiRequest request) throws UnhandledRequestTypeException {
+        final long startedAt = System.nanoTime();
+        boolean failed = true;
+        try {
+            GoPluginApiResponse response = handleRequest(request);
+            failed = response.responseCode() >= 400;
+            return response;
+        } finally {
+            metrics.timer("request." + removeStart(request.requestName(), "cd.go.elastic-agent.")).recordSince(startedAt, failed);
+        }
+    }
+
+    private GoPluginApiResponse handleRequest(GoPluginApiRequest request) throws UnhandledRequestTypeException {
         ClusterProfileProperties clusterProfileProperties;
         try {
             switch (Request.fromString(request.requestName())) {
@@ -58,12 +87,12 @@ public class DockerPlugin implements GoPlugin {
                     CreateAgentRequest createAgentRequest = CreateAgentRequest.fromJSON(request.requestBody());
                     clusterProfileProperties = createAgentRequest.getClusterProfileProperties();
                     refreshInstancesForCluster(clusterProfileProperties);
-                    return createAgentRequest.executor(getAgentInstancesFor(clusterProfileProperties), pluginRequest).execute();
+                    return createAgentRequest.executor(getAgentInstancesFor(clusterProfileProperties), pluginRequest, dockerClientFactory).execute();
                 case REQUEST_SERVER_PING:
                     ServerPingRequest serverPingRequest = ServerPingRequest.fromJSON(request.requestBody());
                     List<ClusterProfileProperties> listOfClusterProfileProperties = serverPingRequest.allClusterProfileProperties();
-                    refreshInstancesForAllClusters(listOfClusterProfileProperties,true);
-                    return serverPingRequest.executor(clusterSpecificAgentInstances, pluginRequest).execute();
+                    ensureInstancesForAllClusters(listOfClusterProfileProperties);
+                    return serverPingRequest.executor(clusterSpecificAgentInstances.asMap(), pluginRequest).execute();
                 case REQUEST_GET_ELASTIC_AGENT_PROFILE_METADATA:
                     return new GetProfileMetadataExecutor().execute();
                 case REQUEST_GET_ELASTIC_AGENT_PROFILE_VIEW:
@@ -84,17 +113,17 @@ public class DockerPlugin implements GoPlugin {
                     JobCompletionRequest jobCompletionRequest = JobCompletionRequest.fromJSON(request.requestBody());
                     clusterProfileProperties = jobCompletionRequest.getClusterProfileProperties();
                     refreshInstancesForCluster(clusterProfileProperties);
-                    return jobCompletionRequest.executor(getAgentInstancesFor(clusterProfileProperties), pluginRequest).execute();
+                    return jobCompletionRequest.executor(clusterSpecificAgentInstances.forAgent(jobCompletionRequest.getElasticAgentId(), clusterProfileProperties), pluginRequest).execute();
                 case REQUEST_CLUSTER_STATUS_REPORT:
                     ClusterStatusReportRequest clusterStatusReportRequest = ClusterStatusReportRequest.fromJSON(request.requestBody());
                     clusterProfileProperties = clusterStatusReportRequest.getClusterProfile();
                     refreshInstancesForCluster(clusterProfileProperties);
-                    return clusterStatusReportRequest.executor(clusterSpecificAgentInstances.get(clusterProfileProperties.uuid())).execute();
+                    return clusterStatusReportRequest.executor(clusterSpecificAgentInstances.forCluster(clusterProfileProperties), dockerClientFactory).execute();
                 case REQUEST_ELASTIC_AGENT_STATUS_REPORT:
                     AgentStatusReportRequest statusReportRequest = AgentStatusReportRequest.fromJSON(request.requestBody());
                     clusterProfileProperties = statusReportRequest.getClusterProfileProperties();
                     refreshInstancesForCluster(clusterProfileProperties);
-                    return statusReportRequest.executor(pluginRequest, clusterSpecificAgentInstances.get(clusterProfileProperties.uuid())).execute();
+                    return statusReportRequest.executor(pluginRequest, clusterSpecificAgentInstances.forAgent(statusReportRequest.getElasticAgentId(), clusterProfileProperties), dockerClientFactory).execute();
                 case REQUEST_CLUSTER_PROFILE_CHANGED:
                     return new DefaultGoPluginApiResponse(200);
                 case REQUEST_MIGRATE_CONFIGURATION:
@@ -111,26 +140,19 @@ public class DockerPlugin implements GoPlugin {
         }
     }
 
-    private void refreshInstancesForAllClusters(List<ClusterProfileProperties> allClusterProfileProperties, boolean forceRefresh) throws Exception {
+    // clusters are refreshed concurrently by the server ping executor
+    private void ensureInstancesForAllClusters(List<ClusterProfileProperties> allClusterProfileProperties) {
         for (ClusterProfileProperties clusterProfileProperties : allClusterProfileProperties) {
-            refreshInstancesForCluster(clusterProfileProperties,forceRefresh);
+            clusterSpecificAgentInstances.forCluster(clusterProfileProperties);
         }
     }
 
     private AgentInstances<DockerService> getAgentInstancesFor(ClusterProfileProperties clusterProfileProperties) {
-        return clusterSpecificAgentInstances.get(clusterProfileProperties.uuid());
+        return clusterSpecificAgentInstances.forCluster(clusterProfileProperties);
     }
 
     private void refreshInstancesForCluster(ClusterProfileProperties clusterProfileProperties) throws Exception {
-        DockerServices dockerServices = clusterSpecificAgentInstances.getOrDefault(clusterProfileProperties.uuid(), new DockerServices());
-        dockerServices.refreshAll(clusterProfileProperties);
-        clusterSpecificAgentInstances.put(clusterProfileProperties.uuid(), dockerServices);
-    }
-
-    private void refreshInstancesForCluster(ClusterProfileProperties clusterProfileProperties, boolean forceRefresh) throws Exception {
-        DockerServices dockerServices = clusterSpecificAgentInstances.getOrDefault(clusterProfileProperties.uuid(), new DockerServices());
-        dockerServices.refreshAll(clusterProfileProperties,forceRefresh);
-        clusterSpecificAgentInstances.put(clusterProfileProperties.uuid(), dockerServices);
+        clusterSpecificAgentInstances.forCluster(clusterProfileProperties).refreshAll(clusterProfileProperties);
     }
 
     @Override
@@ -16,13 +16,11 @@
 
 package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
 
-import com.google.gson.Gson;
 import com.spotify.docker.client.messages.swarm.Secret;
 import com.spotify.docker.client.messages.swarm.SecretBind;
 import com.spotify.docker.client.messages.swarm.SecretFile;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -30,36 +28,17 @@ import java.util.stream.Collectors;
 import static cd.go.contrib.elasticagents.dockerswarm.elasticagent.DockerPlugin.LOG;
 import static cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.Util.splitIntoLinesAndTrimSpaces;
 import static java.text.MessageFormat.format;
-import static java.util.stream.Collectors.toList;
 import static org.apache.commons.lang.StringUtils.*;
 
 public class DockerSecrets extends ArrayList<DockerSecrets.DockerSecret> {
-    private static final Gson GSON = new Gson();
-
     public static DockerSecrets fromString(String content) {
-        final List<Map<String, String>> collect = splitIntoLinesAndTrimSpaces(content).stream()
-                .filter(line -> isNotBlank(line))
-                .map(line -> lineToMap(line))
-                .collect(toList());
-
-        return GSON.fromJson(GSON.toJson(collect), DockerSecrets.class);
-    }
-
-    private static Map<String, String> lineToMap(String content) {
-        final String[] properties = content.split(",");
-        final HashMap<String, String> map = new HashMap<>();
-        for (String property : properties) {
-            if (property.contains("=")) {
-                final String[] parts = property.split("=", 2);
-                map.put(stripToEmpty(parts[0]).toLowerCase(), stripToEmpty(parts[1]));
+        final DockerSecrets secrets = new DockerSecrets();
+        for (String line : splitIntoLinesAndTrimSpaces(content)) {
+            if (isNotBlank(line)) {
+                secrets.add(DockerSecret.parse(line));
             }
         }
-
-        if (isBlank(map.get("src"))) {
-            throw new RuntimeException(format("Invalid secret specification `{0}`. Must specify property `src` with value.", content));
-        }
-
-        return map;
+        return secrets;
     }
 
     public List<SecretBind> toSecretBind(List<Secret> secrets) {
@@ -70,7 +49,7 @@ public class DockerSecrets extends ArrayList<DockerSecrets.DockerSecret> {
             final Secret secret = secretMap.get(dockerSecret.src);
 
             if (secret == null) {
-                throw new RuntimeException(format("Secret with name `{0}` does not exist.", dockerSecret.name()));
+                throw new SwarmResourceNotFoundException(format("Secret with name `{0}` does not exist.", dockerSecret.name()));
             }
 
             LOG.debug(format("Using secret `{0}` with id `{1}`.", dockerSecret.name(), secret.id()));
@@ -98,6 +77,42 @@ public class DockerSecrets extends ArrayList<DockerSecrets.DockerSecret> {
         private String gid;
         private String mode;
 
+        private static DockerSecret parse(String content) {
+            final DockerSecret secret = new DockerSecret();
+            final SpecificationOptions options = new SpecificationOptions(content);
+
+            while (options.next()) {
+                if (!options.hasValue()) {
+                    continue;
+                }
+                final String value = stripToEmpty(options.value());
+                switch (stripToEmpty(options.key()).toLowerCase()) {
+                    case "src":
+                        secret.src = value;
+                        break;
+                    case "target":
+                        secret.target = value;
+                        break;
+                    case "uid":
+                        secret.uid = value;
+                        break;
+                    case "gid":
+                        secret.gid = value;
+                        break;
+                    case "mode":
+                        secret.mode = value;
+                        break;
+                    default:
+                }
+            }
+
+            if (isBlank(secret.src)) {
+                throw new RuntimeException(format("Invalid secret specification `{0}`. Must specify property `src` with value.", content));
+            }
+
+            return secret;
+        }
+
         public String name() {
             return src;
         }
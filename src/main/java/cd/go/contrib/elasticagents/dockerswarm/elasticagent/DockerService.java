@@ -18,11 +18,9 @@ package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
 
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.JobIdentifier;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.requests.CreateAgentRequest;
-import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.Size;
-import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.Util;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.GsonRegistry;
 import com.google.common.collect.ImmutableMap;
 import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
 import com.spotify.docker.client.DockerClient;
 import com.spotify.docker.client.exceptions.DockerException;
 import com.spotify.docker.client.exceptions.ServiceNotFoundException;
@@ -35,25 +33,29 @@ import java.util.*;
 
 import static cd.go.contrib.elasticagents.dockerswarm.elasticagent.Constants.*;
 import static cd.go.contrib.elasticagents.dockerswarm.elasticagent.DockerPlugin.LOG;
-import static cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.Util.dockerApiVersionAtLeast;
-import static cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.Util.splitIntoLinesAndTrimSpaces;
-import static java.text.MessageFormat.format;
-import static org.apache.commons.lang.StringUtils.isBlank;
 
 public class DockerService {
-    private static final Gson GSON = new Gson();
+    private static final Gson GSON = GsonRegistry.PLAIN;
     private final DateTime createdAt;
     private final Map<String, String> properties;
     private final String environment;
     private JobIdentifier jobIdentifier;
     private String name;
+    private final String warmPoolKey;
+    private final boolean reconciled;
 
     public DockerService(String name, Date createdAt, Map<String, String> properties, String environment, JobIdentifier jobIdentifier) {
+        this(name, createdAt, properties, environment, jobIdentifier, warmPoolKeyOf(properties, environment, jobIdentifier), true);
+    }
+
+    private DockerService(String name, Date createdAt, Map<String, String> properties, String environment, JobIdentifier jobIdentifier, String warmPoolKey, boolean reconciled) {
         this.name = name;
         this.createdAt = new DateTime(createdAt);
         this.properties = properties;
         this.environment = environment;
         this.jobIdentifier = jobIdentifier;
+        this.warmPoolKey = warmPoolKey;
+        this.reconciled = reconciled;
     }
 
     public String name() {
@@ -76,6 +78,23 @@ public class DockerService {
         return jobIdentifier;
     }
 
+    /**
+     * The key of the warm pool this service was created for, or <code>null</code> if it was created for a job.
+     *
+     * @see WarmPool#keyFor(Map, String)
+     */
+    public String warmPoolKey() {
+        return warmPoolKey;
+    }
+
+    /**
+     * Whether this service was read back from docker. A service the plugin has just created is not: its creation time
+     * is the time the plugin asked for it, until the service is inspected or listed.
+     */
+    public boolean isReconciled() {
+        return reconciled;
+    }
+
     public void terminate(DockerClient docker) throws DockerException, InterruptedException {
         try {
             LOG.debug("Terminating service " + this.name());
@@ -87,102 +106,56 @@ public class DockerService {
 
     public static DockerService fromService(Service service) {
         Map<String, String> labels = service.spec().labels();
-        final Map<String, String> properties = GSON.fromJson(labels.get(CONFIGURATION_LABEL_KEY), new TypeToken<Map<String, String>>() {
-        }.getType());
+        final Map<String, String> properties = GSON.fromJson(labels.get(CONFIGURATION_LABEL_KEY), GsonRegistry.STRING_MAP_TYPE);
         return new DockerService(service.spec().name(),
                 service.createdAt(),
                 properties,
                 labels.get(ENVIRONMENT_LABEL_KEY),
-                JobIdentifier.fromJson(labels.get(JOB_IDENTIFIER_LABEL_KEY)));
+                JobIdentifier.fromJson(labels.get(JOB_IDENTIFIER_LABEL_KEY)),
+                labels.get(WARM_POOL_LABEL_KEY),
+                true);
     }
 
     public static DockerService create(CreateAgentRequest request, PluginSettings settings, DockerClient docker) throws InterruptedException, DockerException {
+        return create(request, settings, docker, ServiceSpecTemplate.of(request.properties(), docker));
+    }
+
+    /**
+     * Creates a service from a template built for the profile of the request, which may be shared with other
+     * requests for the same profile.
+     */
+    static DockerService create(CreateAgentRequest request, PluginSettings settings, DockerClient docker, ServiceSpecTemplate template) throws InterruptedException, DockerException {
         String serviceName = UUID.randomUUID().toString();
 
         HashMap<String, String> labels = labelsFrom(request);
-        String imageName = image(request.properties());
-        String[] env = environmentFrom(request, settings, serviceName);
-
-        final ContainerSpec.Builder containerSpecBuilder = ContainerSpec.builder()
-                .image(imageName)
-                .env(env);
-
-        if (StringUtils.isNotBlank(request.properties().get("Command"))) {
-            containerSpecBuilder.command(splitIntoLinesAndTrimSpaces(request.properties().get("Command")).toArray(new String[]{}));
-        }
-
-        if (dockerApiVersionAtLeast(docker, "1.26")) {
-            containerSpecBuilder.hosts(new Hosts().hosts(request.properties().get("Hosts")));
-            final DockerMounts dockerMounts = DockerMounts.fromString(request.properties().get("Mounts"));
-            containerSpecBuilder.mounts(dockerMounts.toMount());
-            final DockerSecrets dockerSecrets = DockerSecrets.fromString(request.properties().get("Secrets"));
-            containerSpecBuilder.secrets(dockerSecrets.toSecretBind(docker.listSecrets()));
-        } else {
-            LOG.warn(format("Detected docker version and api version is {0} and {1} respectively. Docker with api version 1.26 or above is required to use volume mounts, secrets and host file entries. Please refer https://docs.docker.com/engine/api/v1.32/#section/Versioning for more information about docker release.", docker.version().version(), docker.version().apiVersion()));
-        }
-
-        Driver.Builder driverBuilder = Driver.builder()
-                .name(request.properties().get("LogDriver"))
-                .options(Util.linesToMap(request.properties().get("LogDriverOptions")));
-
-        TaskSpec taskSpec = TaskSpec.builder()
-                .containerSpec(containerSpecBuilder.build())
-                .resources(resourceRequirements(request))
-                .placement(Placement.create(Util.linesToList(request.properties().get("Constraints"))))
-                .logDriver(StringUtils.isBlank(request.properties().get("LogDriver")) ? null : driverBuilder.build())
-                .build();
-
-        ServiceSpec serviceSpec = ServiceSpec.builder()
-                .name(serviceName)
-                .labels(labels)
-                .taskTemplate(taskSpec)
-                .networks(Networks.fromString(request.properties().get("Networks"), docker.listNetworks()))
-                .build();
+        String[] env = environmentFrom(request, settings, template, serviceName);
+        ServiceSpec serviceSpec = template.serviceSpec(serviceName, labels, env);
 
+        final Date requestedAt = new Date();
         ServiceCreateResponse service = docker.createService(serviceSpec);
 
-        String id = service.id();
-
-        Service serviceInfo = docker.inspectService(id);
-
-        LOG.debug("Created service " + serviceInfo.spec().name());
+        LOG.debug("Created service " + serviceName + " with id " + service.id());
         return new DockerService(serviceName,
-                serviceInfo.createdAt(),
+                requestedAt,
                 request.properties(),
                 request.environment(),
-                request.jobIdentifier());
-    }
-
-    private static ResourceRequirements resourceRequirements(CreateAgentRequest request) {
-        ResourceRequirements.Builder resourceRequirementsBuilder = ResourceRequirements.builder();
-        final String maxMemory = request.properties().get("MaxMemory");
-        if (StringUtils.isNotBlank(maxMemory)) {
-            resourceRequirementsBuilder.limits(
-                    Resources.builder()
-                            .memoryBytes(Size.parse(maxMemory).toBytes())
-                            .build()
-            );
-        }
+                request.jobIdentifier(),
+                labels.get(WARM_POOL_LABEL_KEY),
+                false);
+    }
 
-        final String reservedMemory = request.properties().get("ReservedMemory");
-        if (StringUtils.isNotBlank(reservedMemory)) {
-            resourceRequirementsBuilder.reservations(
-                    Resources.builder()
-                            .memoryBytes(Size.parse(reservedMemory).toBytes())
-                            .build()
-            );
+    private static String warmPoolKeyOf(Map<String, String> properties, String environment, JobIdentifier jobIdentifier) {
+        if (jobIdentifier != null || properties == null || WarmPool.sizeOf(properties) <= 0) {
+            return null;
         }
-
-        return resourceRequirementsBuilder.build();
+        return WarmPool.keyFor(properties, environment);
     }
 
-    private static String[] environmentFrom(CreateAgentRequest request, PluginSettings settings, String containerName) {
+    private static String[] environmentFrom(CreateAgentRequest request, PluginSettings settings, ServiceSpecTemplate template, String containerName) {
         Set<String> env = new HashSet<>();
 
         env.addAll(settings.getEnvironmentVariables());
-        if (StringUtils.isNotBlank(request.properties().get("Environment"))) {
-            env.addAll(splitIntoLinesAndTrimSpaces(request.properties().get("Environment")));
-        }
+        env.addAll(template.environment());
 
         env.addAll(Arrays.asList(
                 "GO_EA_MODE=" + mode(),
@@ -199,7 +172,11 @@ public class DockerService {
         HashMap<String, String> labels = new HashMap<>();
 
         labels.put(CREATED_BY_LABEL_KEY, Constants.PLUGIN_ID);
-        labels.put(JOB_IDENTIFIER_LABEL_KEY, request.jobIdentifier().toJson());
+        if (request.jobIdentifier() != null) {
+            labels.put(JOB_IDENTIFIER_LABEL_KEY, request.jobIdentifier().toJson());
+        } else {
+            labels.put(WARM_POOL_LABEL_KEY, WarmPool.keyFor(request.properties(), request.environment()));
+        }
         if (StringUtils.isNotBlank(request.environment())) {
             labels.put(ENVIRONMENT_LABEL_KEY, request.environment());
         }
@@ -234,17 +211,4 @@ public class DockerService {
         return "";
     }
 
-    private static String image(Map<String, String> properties) {
-        String image = properties.get("Image");
-
-        if (isBlank(image)) {
-            throw new IllegalArgumentException("Must provide `Image` attribute.");
-        }
-
-        if (!image.contains(":")) {
-            return image + ":latest";
-        }
-        return image;
-    }
-
 }
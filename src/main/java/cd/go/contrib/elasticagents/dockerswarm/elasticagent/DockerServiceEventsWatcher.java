@@ -0,0 +1,241 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.EventStream;
+import com.spotify.docker.client.exceptions.ServiceNotFoundException;
+import com.spotify.docker.client.messages.Event;
+import com.spotify.docker.client.messages.swarm.Service;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static cd.go.contrib.elasticagents.dockerswarm.elasticagent.DockerPlugin.LOG;
+import static com.spotify.docker.client.DockerClient.EventsParam.*;
+import static java.text.MessageFormat.format;
+
+/**
+ * Applies docker service create/update/remove events of a cluster to its {@link DockerServices} as they arrive, so
+ * that the services do not have to be listed again on every refresh.
+ * <p>
+ * Events are read in windows of {@link #WINDOW_SECONDS} seconds (shorter than the docker client read timeout), each
+ * window starting where the previous one ended, so no event is missed between two windows. The windows are given in
+ * the time of the docker daemon, which the daemon reports when watching starts and which the timestamps of the events
+ * keep up to date, so a plugin host clock that is off does not make the windows end early. If the stream fails or
+ * ends before its window is over, the watcher stops and {@link #isWatching()} returns false until the services are
+ * resynced with a full listing and {@link #watch(ClusterProfileProperties, long)} is called again.
+ * <p>
+ * Service events do not carry the service labels, so services are inspected once, when first seen, to check whether
+ * they were created by this plugin. The ids of services that were not are remembered until they are removed, so their
+ * later events are ignored without asking docker again. Services the plugin created itself are not inspected when they
+ * are created; they are inspected here instead, when their create event arrives, to pick up the creation time docker
+ * recorded.
+ * <p>
+ * Secret and network events make a docker client that caches the {@link SwarmMetadata} of the swarm forget it.
+ */
+class DockerServiceEventsWatcher {
+    static final long WINDOW_SECONDS = 20;
+    private static final long PREMATURE_END_TOLERANCE_SECONDS = WINDOW_SECONDS / 2;
+
+    private final DockerServices dockerServices;
+    private final DockerClientFactory dockerClientFactory;
+    private final Set<String> otherServiceIds = ConcurrentHashMap.newKeySet();
+    private volatile long daemonClockOffsetSeconds;
+    private volatile boolean watching;
+    private volatile long generation;
+    private volatile EventStream currentStream;
+
+    DockerServiceEventsWatcher(DockerServices dockerServices, DockerClientFactory dockerClientFactory) {
+        this.dockerServices = dockerServices;
+        this.dockerClientFactory = dockerClientFactory;
+    }
+
+    synchronized void watch(ClusterProfileProperties clusterProfileProperties, long sinceEpochSeconds) {
+        if (watching) {
+            return;
+        }
+
+        watching = true;
+        otherServiceIds.clear();
+        final long watchGeneration = ++generation;
+        final Thread thread = new Thread(() -> streamEvents(clusterProfileProperties, sinceEpochSeconds, watchGeneration),
+                "docker-service-events-" + clusterProfileProperties.uuid());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    boolean isWatching() {
+        return watching;
+    }
+
+    synchronized void stop() {
+        watching = false;
+        generation++;
+        final EventStream stream = currentStream;
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (Exception ignore) {
+            }
+        }
+    }
+
+    static long nowInSeconds() {
+        return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+    }
+
+    private long daemonNowInSeconds() {
+        return nowInSeconds() + daemonClockOffsetSeconds;
+    }
+
+    /**
+     * @param sinceEpochSeconds when the services were listed, by the clock of the plugin host
+     */
+    private void streamEvents(ClusterProfileProperties clusterProfileProperties, long sinceEpochSeconds, long watchGeneration) {
+        try {
+            daemonClockOffsetSeconds = daemonClockOffsetSeconds(dockerClientFactory.docker(clusterProfileProperties));
+            long windowStart = sinceEpochSeconds + daemonClockOffsetSeconds;
+            while (isCurrent(watchGeneration)) {
+                final long windowEnd = daemonNowInSeconds() + WINDOW_SECONDS;
+                final DockerClient docker = dockerClientFactory.docker(clusterProfileProperties);
+                try (EventStream events = docker.events(type(Event.Type.SERVICE), type(Event.Type.SECRET), type(Event.Type.NETWORK), since(windowStart), until(windowEnd))) {
+                    currentStream = events;
+                    while (isCurrent(watchGeneration) && events.hasNext()) {
+                        apply(docker, events.next());
+                    }
+                } finally {
+                    currentStream = null;
+                }
+
+                if (isCurrent(watchGeneration) && daemonNowInSeconds() < windowEnd - PREMATURE_END_TOLERANCE_SECONDS) {
+                    throw new IllegalStateException("Docker closed the events stream before the end of the requested window.");
+                }
+                windowStart = windowEnd;
+            }
+        } catch (Exception e) {
+            if (isCurrent(watchGeneration)) {
+                LOG.warn(format("Lost docker service events stream for cluster `{0}`. Services will be resynced on the next refresh.", clusterProfileProperties.uuid()), e);
+            }
+        } finally {
+            synchronized (this) {
+                if (watchGeneration == generation) {
+                    watching = false;
+                }
+            }
+        }
+    }
+
+    private boolean isCurrent(long watchGeneration) {
+        return watching && watchGeneration == generation;
+    }
+
+    private static long daemonClockOffsetSeconds(DockerClient docker) {
+        try {
+            final Date systemTime = docker.info().systemTime();
+            return TimeUnit.MILLISECONDS.toSeconds(systemTime.getTime() - System.currentTimeMillis());
+        } catch (Exception e) {
+            LOG.debug(format("Could not read the clock of the docker daemon, using the clock of the plugin host: {0}", e.getMessage()));
+            return 0;
+        }
+    }
+
+    private void apply(DockerClient docker, Event event) throws Exception {
+        if (event.timeNano() != null) {
+            final long behindSeconds = TimeUnit.NANOSECONDS.toSeconds(event.timeNano()) - daemonNowInSeconds();
+            if (behindSeconds > 0) {
+                daemonClockOffsetSeconds += behindSeconds;
+            }
+        }
+
+        if (event.type() == Event.Type.SECRET || event.type() == Event.Type.NETWORK) {
+            invalidateSwarmMetadata(docker, event.type());
+            return;
+        }
+
+        if (event.actor() == null || event.actor().attributes() == null) {
+            return;
+        }
+
+        final String serviceName = event.actor().attributes().get("name");
+        if (serviceName == null) {
+            return;
+        }
+
+        switch (String.valueOf(event.action())) {
+            case "create":
+            case "update":
+                if (otherServiceIds.contains(event.actor().id())) {
+                    break;
+                }
+                final DockerService instance = dockerServices.find(serviceName);
+                if (instance == null) {
+                    registerIfCreatedByPlugin(docker, event.actor().id());
+                } else if (!instance.isReconciled()) {
+                    reconcile(docker, event.actor().id());
+                }
+                break;
+            case "remove":
+                otherServiceIds.remove(event.actor().id());
+                if (dockerServices.hasInstance(serviceName)) {
+                    LOG.debug(format("Service `{0}` was removed.", serviceName));
+                    dockerServices.remove(serviceName);
+                }
+                break;
+            default:
+        }
+    }
+
+    private static void invalidateSwarmMetadata(DockerClient docker, Event.Type type) {
+        if (!(docker instanceof SwarmMetadata)) {
+            return;
+        }
+
+        if (type == Event.Type.SECRET) {
+            ((SwarmMetadata) docker).invalidateSecrets();
+        } else {
+            ((SwarmMetadata) docker).invalidateNetworks();
+        }
+    }
+
+    private void reconcile(DockerClient docker, String serviceId) throws Exception {
+        try {
+            dockerServices.reconcile(DockerService.fromService(docker.inspectService(serviceId)));
+        } catch (ServiceNotFoundException ignore) {
+        }
+    }
+
+    private void registerIfCreatedByPlugin(DockerClient docker, String serviceId) throws Exception {
+        final Service service;
+        try {
+            service = docker.inspectService(serviceId);
+        } catch (ServiceNotFoundException e) {
+            return;
+        }
+
+        final Map<String, String> labels = service.spec().labels();
+        if (labels != null && Constants.PLUGIN_ID.equals(labels.get(Constants.CREATED_BY_LABEL_KEY))) {
+            LOG.debug(format("Service `{0}` was created.", service.spec().name()));
+            dockerServices.register(DockerService.fromService(service));
+        } else {
+            otherServiceIds.add(serviceId);
+        }
+    }
+}
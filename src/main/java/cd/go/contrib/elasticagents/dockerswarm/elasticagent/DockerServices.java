@@ -18,68 +18,249 @@ package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
 
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.JobIdentifier;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.requests.CreateAgentRequest;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.requests.ShouldAssignWorkRequest;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.Util;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.spotify.docker.client.DockerClient;
-import com.spotify.docker.client.exceptions.ServiceNotFoundException;
 import com.spotify.docker.client.messages.swarm.Service;
-import org.joda.time.DateTime;
 import org.joda.time.Period;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Semaphore;
+import java.util.Set;
+import java.util.concurrent.*;
 
 import static cd.go.contrib.elasticagents.dockerswarm.elasticagent.DockerPlugin.LOG;
+import static java.util.stream.Collectors.toList;
 
 public class DockerServices implements AgentInstances<DockerService> {
 
+    static final int CREATE_WORKERS = 8;
+    static final int CREATE_QUEUE_SIZE = 100;
+
     private final ConcurrentHashMap<String, DockerService> services = new ConcurrentHashMap<>();
-    private boolean refreshed;
-    private List<JobIdentifier> jobsWaitingForAgentCreation = new ArrayList<>();
+    private final ConcurrentHashMap<JobIdentifier, Future<DockerService>> pendingCreations = new ConcurrentHashMap<>();
+    private final Object capacityLock = new Object();
+    private int reservedCapacity;
+    private volatile boolean refreshed;
+    private volatile String clusterUuid;
     public Clock clock = Clock.DEFAULT;
 
-    final Semaphore semaphore = new Semaphore(0, true);
+    private final ExecutorService createExecutor;
+    private final CreationBatches creationBatches;
+    private final DockerClientFactory dockerClientFactory;
+    private final DockerServiceEventsWatcher eventsWatcher;
+    private final WarmPool warmPool;
+    private final ElasticAgentIndex elasticAgentIndex;
+    private final Metrics.Timer createQueueWait = Metrics.instance().timer("create.queue-wait");
+
+    public DockerServices() {
+        this(DockerClientFactory.instance());
+    }
+
+    public DockerServices(DockerClientFactory dockerClientFactory) {
+        this(dockerClientFactory, new WarmPool());
+    }
+
+    DockerServices(DockerClientFactory dockerClientFactory, WarmPool warmPool) {
+        this(dockerClientFactory, warmPool, ElasticAgentIndex.instance());
+    }
+
+    DockerServices(DockerClientFactory dockerClientFactory, WarmPool warmPool, ElasticAgentIndex elasticAgentIndex) {
+        this(dockerClientFactory, warmPool, elasticAgentIndex, newCreateExecutor());
+    }
+
+    DockerServices(DockerClientFactory dockerClientFactory, WarmPool warmPool, ElasticAgentIndex elasticAgentIndex, ExecutorService createExecutor) {
+        this.dockerClientFactory = dockerClientFactory;
+        this.elasticAgentIndex = elasticAgentIndex;
+        this.eventsWatcher = new DockerServiceEventsWatcher(this, dockerClientFactory);
+        this.warmPool = warmPool;
+        this.createExecutor = createExecutor;
+        this.creationBatches = new CreationBatches(createExecutor);
+    }
 
+    /**
+     * Every cluster creates its services on workers of its own, so that a slow or unreachable swarm only holds up
+     * the creations for that swarm. Creations beyond the bounded queue are rejected rather than waiting forever.
+     */
+    private static ExecutorService newCreateExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(CREATE_WORKERS, CREATE_WORKERS, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(CREATE_QUEUE_SIZE),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("create-agent-%d").build(), new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
 
     @Override
     public DockerService create(CreateAgentRequest request, PluginRequest pluginRequest) throws Exception {
+        try {
+            return createAsync(request, pluginRequest).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Creation of a service runs on the bounded pool of workers of the cluster, so that the remote calls involved do
+     * not block other requests. The time a creation waits for a worker is recorded as <code>create.queue-wait</code>,
+     * and a creation the pool has no room for fails like any other. Capacity is reserved up front against the maximum
+     * number of containers, and handed back when the service is registered or its creation fails. A job that already
+     * has a creation in flight gets the pending creation instead of a new one. Creations for the same profile are
+     * batched by {@link CreationBatches}, so that the profile is parsed once per batch. A creation that fails is
+     * reported to the server as a health message, since nothing waits for the outcome of the creation.
+     */
+    @Override
+    public Future<DockerService> createAsync(CreateAgentRequest request, PluginRequest pluginRequest) throws Exception {
+        servesCluster(request.getClusterProfileProperties().uuid());
+        DockerService pooledService = warmPool.claim(services.values(), request.jobIdentifier(), request.properties(), request.environment(), clock.now());
+        if (pooledService != null) {
+            LOG.info("Assigned warm pool agent " + pooledService.name() + " to job " + request.jobIdentifier());
+            warmPool.refill(request, services.values(), this::createPooledAgent);
+            return Futures.immediateFuture(pooledService);
+        }
+
+        final JobIdentifier jobIdentifier = request.jobIdentifier();
+        Future<DockerService> pendingCreation = jobIdentifier == null ? null : pendingCreations.get(jobIdentifier);
+        if (pendingCreation != null) {
+            LOG.debug("An agent is already being created for job " + jobIdentifier);
+            return pendingCreation;
+        }
+
         ClusterProfileProperties clusterProfileProperties = request.getClusterProfileProperties();
-        final Integer maxAllowedContainers = clusterProfileProperties.getMaxDockerContainers();
-        synchronized (services) {
-            if (!jobsWaitingForAgentCreation.contains(request.jobIdentifier())) {
-                jobsWaitingForAgentCreation.add(request.jobIdentifier());
+        List<Map<String, String>> messages = new ArrayList<>();
+        if (!reserveCapacity(clusterProfileProperties.getMaxDockerContainers())) {
+            String maxLimitExceededMessage = "The number of containers currently running is currently at the maximum permissible limit (" + services.size() + "). Not creating any more containers.";
+            Map<String, String> messageToBeAdded = new HashMap<>();
+            messageToBeAdded.put("type", "warning");
+            messageToBeAdded.put("message", maxLimitExceededMessage);
+            messages.add(messageToBeAdded);
+            pluginRequest.addServerHealthMessage(messages);
+            LOG.info(maxLimitExceededMessage);
+            return Futures.immediateFuture(null);
+        }
+        pluginRequest.addServerHealthMessage(messages);
+
+        final long queuedAt = System.nanoTime();
+        final SettableFuture<DockerService> creation = SettableFuture.create();
+        if (jobIdentifier != null) {
+            pendingCreation = pendingCreations.putIfAbsent(jobIdentifier, creation);
+            if (pendingCreation != null) {
+                releaseCapacity();
+                return pendingCreation;
+            }
+            creation.addListener(() -> pendingCreations.remove(jobIdentifier, creation), MoreExecutors.directExecutor());
+        }
+
+        final ListenableFuture<DockerService> submitted = creationBatches.submit(request, () -> ServiceSpecTemplate.of(request.properties(), docker(clusterProfileProperties)), template -> {
+            createQueueWait.recordSince(queuedAt, false);
+            final DockerService dockerService;
+            try {
+                dockerService = DockerService.create(request, clusterProfileProperties, docker(clusterProfileProperties), template.call());
+            } catch (Exception e) {
+                releaseCapacity();
+                LOG.error("Failed to create an agent for job " + jobIdentifier, e);
+                reportCreationFailure(pluginRequest, jobIdentifier, e);
+                throw e;
             }
-            doWithLockOnSemaphore(new SetupSemaphore(maxAllowedContainers, services, semaphore));
-            List<Map<String, String>> messages = new ArrayList<>();
-
-            if (semaphore.tryAcquire()) {
-                pluginRequest.addServerHealthMessage(messages);
-                DockerService dockerService = DockerService.create(request, clusterProfileProperties, docker(clusterProfileProperties));
-                register(dockerService);
-                jobsWaitingForAgentCreation.remove(request.jobIdentifier());
-                return dockerService;
-            } else {
-                String maxLimitExceededMessage = "The number of containers currently running is currently at the maximum permissible limit (" + services.size() + "). Not creating any more containers.";
-                Map<String, String> messageToBeAdded = new HashMap<>();
-                messageToBeAdded.put("type", "warning");
-                messageToBeAdded.put("message", maxLimitExceededMessage);
-                messages.add(messageToBeAdded);
-                pluginRequest.addServerHealthMessage(messages);
-                LOG.info(maxLimitExceededMessage);
-                return null;
+            registerReserved(dockerService);
+            return dockerService;
+        });
+        submitted.addListener(() -> {
+            final RejectedExecutionException rejection = rejectionOf(submitted);
+            if (rejection != null) {
+                releaseCapacity();
+                LOG.error("No worker available to create an agent for job " + jobIdentifier, rejection);
+                reportCreationFailure(pluginRequest, jobIdentifier, rejection);
             }
+        }, MoreExecutors.directExecutor());
+        creation.setFuture(submitted);
+        warmPool.refill(request, services.values(), this::createPooledAgent);
+        return creation;
+    }
+
+    private DockerService createPooledAgent(CreateAgentRequest request) throws Exception {
+        ClusterProfileProperties clusterProfileProperties = request.getClusterProfileProperties();
+        if (!reserveCapacity(clusterProfileProperties.getMaxDockerContainers())) {
+            return null;
+        }
+
+        final DockerService dockerService;
+        try {
+            dockerService = DockerService.create(request, clusterProfileProperties, docker(clusterProfileProperties));
+        } catch (Exception e) {
+            releaseCapacity();
+            throw e;
         }
+        registerReserved(dockerService);
+        return dockerService;
     }
 
-    private void doWithLockOnSemaphore(Runnable runnable) {
-        synchronized (semaphore) {
-            runnable.run();
+    private boolean reserveCapacity(Integer maxAllowedContainers) {
+        synchronized (capacityLock) {
+            if (services.size() + reservedCapacity >= maxAllowedContainers) {
+                return false;
+            }
+            reservedCapacity++;
+            return true;
+        }
+    }
+
+    private void releaseCapacity() {
+        synchronized (capacityLock) {
+            reservedCapacity--;
+        }
+    }
+
+    /**
+     * Registers a service created against a reservation, handing the reservation back at the same time so that the
+     * service is never counted twice.
+     */
+    private void registerReserved(DockerService service) {
+        synchronized (capacityLock) {
+            register(service);
+            reservedCapacity--;
+        }
+    }
+
+    private static RejectedExecutionException rejectionOf(Future<DockerService> creation) {
+        try {
+            Futures.getDone(creation);
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause() instanceof RejectedExecutionException ? (RejectedExecutionException) e.getCause() : null;
+        } catch (CancellationException e) {
+            return null;
+        }
+    }
+
+    private static void reportCreationFailure(PluginRequest pluginRequest, JobIdentifier jobIdentifier, Exception e) {
+        Map<String, String> message = new HashMap<>();
+        message.put("type", "error");
+        message.put("message", "Failed to create an agent for job " + jobIdentifier + ": " + e.getMessage());
+        try {
+            pluginRequest.addServerHealthMessage(Collections.singletonList(message));
+        } catch (Exception healthMessageFailure) {
+            LOG.warn("Could not report the failure to create an agent to the server.", healthMessageFailure);
         }
     }
 
+    @Override
+    public boolean bindPooledAgent(String agentId, ShouldAssignWorkRequest request) {
+        DockerService instance = services.get(agentId);
+        return instance != null && warmPool.bind(instance, request.jobIdentifier(), request.properties(), request.environment(), clock.now());
+    }
+
     @Override
     public void terminate(String agentId, ClusterProfileProperties clusterProfileProperties) throws Exception {
         DockerService instance = services.get(agentId);
@@ -89,31 +270,27 @@ public class DockerServices implements AgentInstances<DockerService> {
             LOG.warn("Requested to terminate an instance that does not exist " + agentId);
         }
 
-        doWithLockOnSemaphore(new Runnable() {
-            @Override
-            public void run() {
-                semaphore.release();
-            }
-        });
-
-        synchronized (services) {
-            services.remove(agentId);
-        }
+        remove(agentId);
     }
 
     @Override
     public void terminateUnregisteredInstances(ClusterProfileProperties clusterProfileProperties, Agents agents) throws Exception {
-        DockerServices toTerminate = unregisteredAfterTimeout(clusterProfileProperties, agents);
-        if (toTerminate.services.isEmpty()) {
+        List<DockerService> toTerminate = unregisteredAfterTimeout(clusterProfileProperties, agents);
+        if (toTerminate.isEmpty()) {
             return;
         }
 
-        LOG.warn("Terminating services that did not register " + toTerminate.services.keySet());
-        for (DockerService dockerService : toTerminate.services.values()) {
-            terminate(dockerService.name(), clusterProfileProperties);
+        LOG.warn("Terminating services that did not register " + toTerminate.stream().map(DockerService::name).collect(toList()));
+        DockerClient docker = docker(clusterProfileProperties);
+        for (DockerService dockerService : toTerminate) {
+            dockerService.terminate(docker);
+            remove(dockerService.name());
         }
     }
 
+    /**
+     * The agents are also passed on to the {@link WarmPool}, which learns from them which pooled agents are idle.
+     */
     @Override
     public Agents instancesCreatedAfterTimeout(PluginSettings settings, Agents agents) {
         ArrayList<Agent> oldAgents = new ArrayList<>();
@@ -123,6 +300,11 @@ public class DockerServices implements AgentInstances<DockerService> {
                 continue;
             }
 
+            warmPool.observe(instance, agent, clock.now());
+            if (warmPool.isProtected(instance, clock.now(), settings.getAutoRegisterPeriod())) {
+                continue;
+            }
+
             if (clock.now().isAfter(instance.createdAt().plus(settings.getAutoRegisterPeriod()))) {
                 oldAgents.add(agent);
             }
@@ -131,63 +313,108 @@ public class DockerServices implements AgentInstances<DockerService> {
     }
 
     private void refreshAgentInstances(ClusterProfileProperties pluginSettings) throws Exception {
+        final long listedAt = DockerServiceEventsWatcher.nowInSeconds();
         DockerClient dockerClient = docker(pluginSettings);
-        List<Service> clusterSpecificServices = dockerClient.listServices();
-        services.clear();
+        List<Service> clusterSpecificServices = dockerClient.listServices(Util.servicesCreatedByPlugin());
+        Map<String, DockerService> listedServices = new HashMap<>();
         for (Service service : clusterSpecificServices) {
             ImmutableMap<String, String> labels = service.spec().labels();
             if (labels != null && Constants.PLUGIN_ID.equals(labels.get(Constants.CREATED_BY_LABEL_KEY))) {
-                register(DockerService.fromService(service));
+                DockerService dockerService = DockerService.fromService(service);
+                listedServices.put(dockerService.name(), dockerService);
+            }
+        }
+        for (String agentId : agentIds()) {
+            if (!listedServices.containsKey(agentId)) {
+                remove(agentId);
             }
         }
+        listedServices.values().forEach(this::register);
         refreshed = true;
+        eventsWatcher.watch(pluginSettings, listedAt);
     }
 
+    /**
+     * A forced refresh lists all services again only if the docker events stream is not being watched, otherwise the
+     * services are already kept up to date by the {@link DockerServiceEventsWatcher}.
+     */
     @Override
     public void refreshAll(ClusterProfileProperties pluginSettings, boolean forceRefresh) throws Exception {
-        if (!refreshed || forceRefresh) {
+        servesCluster(pluginSettings.uuid());
+        if (!refreshed || (forceRefresh && !eventsWatcher.isWatching())) {
             refreshAgentInstances(pluginSettings);
         }
     }
 
     @Override
     public void refreshAll(ClusterProfileProperties pluginSettings) throws Exception {
+        servesCluster(pluginSettings.uuid());
         if (!refreshed) {
             refreshAgentInstances(pluginSettings);
         }
     }
 
+    /**
+     * Records the uuid of the cluster these services belong to, and indexes the agents registered so far under it.
+     * The first uuid is kept, since the services of a cluster are only ever used for that cluster.
+     */
+    public void servesCluster(String uuid) {
+        if (clusterUuid == null) {
+            clusterUuid = uuid;
+            services.keySet().forEach(agentId -> elasticAgentIndex.put(agentId, uuid));
+        }
+    }
+
     public void register(DockerService service) {
         services.put(service.name(), service);
+        final String uuid = clusterUuid;
+        if (uuid != null) {
+            elasticAgentIndex.put(service.name(), uuid);
+        }
+    }
+
+    /**
+     * Replaces a service with the one read back from docker, unless it has been removed in the meantime.
+     */
+    void reconcile(DockerService service) {
+        services.replace(service.name(), service);
+    }
+
+    void remove(String agentId) {
+        services.remove(agentId);
+        warmPool.forget(agentId);
+        final String uuid = clusterUuid;
+        if (uuid != null) {
+            elasticAgentIndex.remove(agentId, uuid);
+        }
     }
 
     private DockerClient docker(ClusterProfileProperties clusterProfileProperties) throws Exception {
-        return DockerClientFactory.instance().docker(clusterProfileProperties);
+        return dockerClientFactory.docker(clusterProfileProperties);
     }
 
-    private DockerServices unregisteredAfterTimeout(ClusterProfileProperties clusterProfileProperties, Agents knownAgents) throws Exception {
+    /**
+     * Uses the creation time recorded when the service was registered; a service that has been removed in the
+     * meantime is simply skipped by {@link DockerService#terminate(DockerClient)}.
+     */
+    private List<DockerService> unregisteredAfterTimeout(ClusterProfileProperties clusterProfileProperties, Agents knownAgents) {
         Period period = clusterProfileProperties.getAutoRegisterPeriod();
-        DockerServices unregisteredContainers = new DockerServices();
+        List<DockerService> unregisteredServices = new ArrayList<>();
 
-        for (String serviceName : services.keySet()) {
-            if (knownAgents.containsServiceWithId(serviceName)) {
+        for (DockerService service : services.values()) {
+            if (knownAgents.containsServiceWithId(service.name())) {
                 continue;
             }
 
-            Service serviceInfo;
-            try {
-                serviceInfo = docker(clusterProfileProperties).inspectService(serviceName);
-            } catch (ServiceNotFoundException e) {
-                LOG.warn("The container " + serviceName + " could not be found.");
-                continue;
-            }
-            DateTime dateTimeCreated = new DateTime(serviceInfo.createdAt());
-
-            if (clock.now().isAfter(dateTimeCreated.plus(period))) {
-                unregisteredContainers.register(DockerService.fromService(serviceInfo));
+            if (clock.now().isAfter(service.createdAt().plus(period))) {
+                unregisteredServices.add(service);
             }
         }
-        return unregisteredContainers;
+        return unregisteredServices;
+    }
+
+    public Set<String> agentIds() {
+        return new HashSet<>(services.keySet());
     }
 
     public boolean hasInstance(String agentId) {
@@ -204,4 +431,9 @@ public class DockerServices implements AgentInstances<DockerService> {
         return services.isEmpty();
     }
 
+    // used by test
+    DockerServiceEventsWatcher eventsWatcher() {
+        return eventsWatcher;
+    }
+
 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * The {@link DockerServices} of every cluster profile, keyed by the cluster profile uuid. The uuid only depends on the
+ * docker URI, so editing the credentials or limits of a cluster profile keeps the agents tracked for the cluster.
+ * Profiles that connect to the same swarm share their services, and the maximum number of containers of a profile
+ * is checked against all the agents of the swarm.
+ * <p>
+ * GoCD may call the plugin from several threads at once, so the services of a cluster are created atomically the
+ * first time the cluster is seen, and every later request for the cluster gets that same instance.
+ */
+public class DockerServicesRegistry {
+    private final ConcurrentHashMap<String, DockerServices> clusterSpecificAgentInstances = new ConcurrentHashMap<>();
+    private final Supplier<DockerServices> dockerServicesSupplier;
+    private final ElasticAgentIndex elasticAgentIndex;
+
+    public DockerServicesRegistry() {
+        this(DockerServices::new);
+    }
+
+    DockerServicesRegistry(Supplier<DockerServices> dockerServicesSupplier) {
+        this(dockerServicesSupplier, ElasticAgentIndex.instance());
+    }
+
+    DockerServicesRegistry(Supplier<DockerServices> dockerServicesSupplier, ElasticAgentIndex elasticAgentIndex) {
+        this.dockerServicesSupplier = dockerServicesSupplier;
+        this.elasticAgentIndex = elasticAgentIndex;
+    }
+
+    public DockerServices forCluster(ClusterProfileProperties clusterProfileProperties) {
+        return clusterSpecificAgentInstances.computeIfAbsent(clusterProfileProperties.uuid(), uuid -> {
+            final DockerServices dockerServices = dockerServicesSupplier.get();
+            dockerServices.servesCluster(uuid);
+            return dockerServices;
+        });
+    }
+
+    /**
+     * @return the services of the cluster the agent runs on according to the {@link ElasticAgentIndex}, or those of the
+     * given cluster profile if no cluster knows of the agent
+     */
+    public DockerServices forAgent(String agentId, ClusterProfileProperties clusterProfileProperties) {
+        final String clusterUuid = agentId == null ? null : elasticAgentIndex.clusterOf(agentId);
+        final DockerServices dockerServices = clusterUuid == null ? null : clusterSpecificAgentInstances.get(clusterUuid);
+        return dockerServices != null ? dockerServices : forCluster(clusterProfileProperties);
+    }
+
+    public Map<String, DockerServices> asMap() {
+        return Collections.unmodifiableMap(clusterSpecificAgentInstances);
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps the id of every elastic agent known to the plugin to the uuid of the cluster it runs on, see
+ * {@link ClusterProfileProperties#uuid()}, so that finding the cluster of an agent does not require asking every
+ * cluster in turn.
+ * <p>
+ * The index is kept up to date by {@link DockerServices} as services are registered, terminated, removed or listed
+ * again on refresh.
+ */
+public class ElasticAgentIndex {
+    private static final ElasticAgentIndex ELASTIC_AGENT_INDEX = new ElasticAgentIndex();
+
+    private final ConcurrentHashMap<String, String> clusterUuids = new ConcurrentHashMap<>();
+
+    ElasticAgentIndex() {
+    }
+
+    public static ElasticAgentIndex instance() {
+        return ELASTIC_AGENT_INDEX;
+    }
+
+    /**
+     * @return the uuid of the cluster the agent runs on, or <code>null</code> if no cluster knows of the agent
+     */
+    public String clusterOf(String agentId) {
+        return clusterUuids.get(agentId);
+    }
+
+    void put(String agentId, String clusterUuid) {
+        clusterUuids.put(agentId, clusterUuid);
+    }
+
+    void remove(String agentId, String clusterUuid) {
+        clusterUuids.remove(agentId, clusterUuid);
+    }
+
+    // used by test
+    int size() {
+        return clusterUuids.size();
+    }
+}
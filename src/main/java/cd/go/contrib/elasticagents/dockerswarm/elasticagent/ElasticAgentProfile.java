@@ -1,8 +1,7 @@
 package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
 
-import com.google.gson.FieldNamingPolicy;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.GsonRegistry;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.annotations.Expose;
 import com.google.gson.annotations.SerializedName;
 
@@ -10,10 +9,7 @@ import java.util.HashMap;
 import java.util.Objects;
 
 public class ElasticAgentProfile {
-    public static final Gson GSON = new GsonBuilder()
-            .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
-            .excludeFieldsWithoutExposeAnnotation()
-            .create();
+    public static final Gson GSON = GsonRegistry.EXPOSED_SNAKE_CASE;
 
     @Expose
     @SerializedName("id")
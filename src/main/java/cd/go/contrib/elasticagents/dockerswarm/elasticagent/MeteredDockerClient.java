@@ -0,0 +1,77 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
+
+import com.spotify.docker.client.DockerClient;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Times every call made through a {@link DockerClient}, both per API call (<code>docker.listServices</code>) and for
+ * the cluster the client talks to (<code>cluster.&lt;uuid&gt;</code>). Calls that return a stream, like
+ * <code>events</code> or <code>serviceLogs</code>, are timed until the stream is opened. A client that caches the
+ * {@link SwarmMetadata} of its swarm still does so through the proxy.
+ */
+class MeteredDockerClient implements InvocationHandler {
+    private final DockerClient docker;
+    private final Metrics.Timer clusterTimer;
+    private final Metrics metrics;
+
+    private MeteredDockerClient(DockerClient docker, String clusterUUID, Metrics metrics) {
+        this.docker = docker;
+        this.clusterTimer = metrics.timer("cluster." + clusterUUID);
+        this.metrics = metrics;
+    }
+
+    static DockerClient wrap(DockerClient docker, String clusterUUID, Metrics metrics) {
+        final Class<?>[] interfaces = docker instanceof SwarmMetadata
+                ? new Class<?>[]{DockerClient.class, SwarmMetadata.class}
+                : new Class<?>[]{DockerClient.class};
+        return (DockerClient) Proxy.newProxyInstance(MeteredDockerClient.class.getClassLoader(), interfaces,
+                new MeteredDockerClient(docker, clusterUUID, metrics));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() != DockerClient.class || "close".equals(method.getName())) {
+            return invokeUnmetered(method, args);
+        }
+
+        final long startedAt = System.nanoTime();
+        boolean failed = true;
+        try {
+            final Object result = invokeUnmetered(method, args);
+            failed = false;
+            return result;
+        } finally {
+            final long elapsed = System.nanoTime() - startedAt;
+            metrics.timer("docker." + method.getName()).record(elapsed, failed);
+            clusterTimer.record(elapsed, failed);
+        }
+    }
+
+    private Object invokeUnmetered(Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(docker, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import static cd.go.contrib.elasticagents.dockerswarm.elasticagent.DockerPlugin.LOG;
+import static java.text.MessageFormat.format;
+
+/**
+ * Counts and times what the plugin does: every request from the server (<code>request.*</code>), every docker API
+ * call (<code>docker.*</code>), the docker API calls made to each cluster (<code>cluster.&lt;uuid&gt;</code>) and the
+ * time an agent creation waits for a create worker (<code>create.queue-wait</code>).
+ * <p>
+ * Recording only touches striped {@link LongAdder}s, so timers can be shared by all request threads. Latencies go into
+ * buckets that double in width, which is precise enough to tell a 2ms call from a 200ms one. The numbers are shown in
+ * the cluster status report and logged every {@link #LOG_INTERVAL_MINUTES} minutes.
+ */
+public class Metrics {
+    static final long LOG_INTERVAL_MINUTES = 5;
+    private static final Metrics METRICS = new Metrics(true);
+
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    Metrics() {
+        this(false);
+    }
+
+    private Metrics(boolean logPeriodically) {
+        if (logPeriodically) {
+            final ScheduledExecutorService logger = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setDaemon(true).setNameFormat("metrics-logger").build());
+            logger.scheduleAtFixedRate(this::log, LOG_INTERVAL_MINUTES, LOG_INTERVAL_MINUTES, TimeUnit.MINUTES);
+        }
+    }
+
+    public static Metrics instance() {
+        return METRICS;
+    }
+
+    public Timer timer(String name) {
+        return timers.computeIfAbsent(name, Timer::new);
+    }
+
+    /**
+     * @return a snapshot of every timer, ordered by name
+     */
+    public List<Snapshot> snapshot() {
+        List<Snapshot> snapshots = new ArrayList<>();
+        for (Timer timer : timers.values()) {
+            snapshots.add(timer.snapshot());
+        }
+        snapshots.sort((snapshot1, snapshot2) -> snapshot1.getName().compareTo(snapshot2.getName()));
+        return snapshots;
+    }
+
+    void log() {
+        final List<Snapshot> snapshots = snapshot();
+        if (snapshots.isEmpty()) {
+            return;
+        }
+
+        StringBuilder line = new StringBuilder("[metrics]");
+        for (Snapshot snapshot : snapshots) {
+            line.append(format(" {0}='{'count={1,number,#}, errors={2,number,#}, mean_ms={3,number,0.##}, p50_ms={4,number,0.##}, p99_ms={5,number,0.##}, max_ms={6,number,0.##}'}'",
+                    snapshot.getName(), snapshot.getCount(), snapshot.getErrors(), snapshot.getMeanMillis(), snapshot.getP50Millis(), snapshot.getP99Millis(), snapshot.getMaxMillis()));
+        }
+        LOG.info(line.toString());
+    }
+
+    public static class Timer {
+        // bucket i holds latencies below 2^i microseconds, the last one everything from about 9 minutes up
+        private static final int BUCKETS = 31;
+
+        private final String name;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+        Timer(String name) {
+            this.name = name;
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public void record(long nanos, boolean failed) {
+            count.increment();
+            if (failed) {
+                errors.increment();
+            }
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+            buckets[bucket(nanos)].increment();
+        }
+
+        /**
+         * Records the time elapsed since <code>startedAt</code>, a value of {@link System#nanoTime()}.
+         */
+        public void recordSince(long startedAt, boolean failed) {
+            record(System.nanoTime() - startedAt, failed);
+        }
+
+        private static int bucket(long nanos) {
+            final long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+            return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        }
+
+        Snapshot snapshot() {
+            final long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets[i].sum();
+                total += counts[i];
+            }
+            final long max = maxNanos.get();
+            return new Snapshot(name, count.sum(), errors.sum(), count.sum() == 0 ? 0 : totalNanos.sum() / count.sum(),
+                    percentile(counts, total, 0.5, max), percentile(counts, total, 0.99, max), max);
+        }
+
+        // the upper bound of the bucket the percentile falls in, but never more than the slowest recorded latency
+        private static long percentile(long[] counts, long total, double percentile, long max) {
+            final long rank = (long) Math.ceil(percentile * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(TimeUnit.MICROSECONDS.toNanos(1L << i), max);
+                }
+            }
+            return max;
+        }
+    }
+
+    public static class Snapshot {
+        private final String name;
+        private final long count;
+        private final long errors;
+        private final long meanNanos;
+        private final long p50Nanos;
+        private final long p99Nanos;
+        private final long maxNanos;
+
+        Snapshot(String name, long count, long errors, long meanNanos, long p50Nanos, long p99Nanos, long maxNanos) {
+            this.name = name;
+            this.count = count;
+            this.errors = errors;
+            this.meanNanos = meanNanos;
+            this.p50Nanos = p50Nanos;
+            this.p99Nanos = p99Nanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public double getMeanMillis() {
+            return millis(meanNanos);
+        }
+
+        public double getP50Millis() {
+            return millis(p50Nanos);
+        }
+
+        public double getP99Millis() {
+            return millis(p99Nanos);
+        }
+
+        public double getMaxMillis() {
+            return millis(maxNanos);
+        }
+
+        private static double millis(long nanos) {
+            return nanos / 1e6;
+        }
+    }
+}
@@ -29,7 +29,7 @@ public class Networks {
             final Network availableNetwork = availableNetworks.get(networkEntry);
 
             if (availableNetwork == null) {
-                throw new RuntimeException(format("Network with name `{0}` does not exist.", networkEntry));
+                throw new SwarmResourceNotFoundException(format("Network with name `{0}` does not exist.", networkEntry));
             }
 
             LOG.debug(format("Using network `{0}` with id `{1}`.", networkEntry, availableNetwork.id()));
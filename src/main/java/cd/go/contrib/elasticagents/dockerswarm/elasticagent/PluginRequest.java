@@ -16,7 +16,7 @@
 
 package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
 
-import com.google.gson.Gson;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.GsonRegistry;
 import com.thoughtworks.go.plugin.api.GoApplicationAccessor;
 import com.thoughtworks.go.plugin.api.request.DefaultGoApiRequest;
 import com.thoughtworks.go.plugin.api.response.GoApiResponse;
@@ -81,11 +81,9 @@ public class PluginRequest {
     }
 
     public void addServerHealthMessage(List<Map<String, String>> messages) {
-        Gson gson = new Gson();
-
         DefaultGoApiRequest request = new DefaultGoApiRequest(Constants.REQUEST_SERVER_SERVER_HEALTH_ADD_MESSAGES, PROCESSOR_API_VERSION, PLUGIN_IDENTIFIER);
 
-        request.setRequestBody(gson.toJson(messages));
+        request.setRequestBody(GsonRegistry.PLAIN.toJson(messages));
 
         // submit the request
         GoApiResponse response = accessor.submit(request);
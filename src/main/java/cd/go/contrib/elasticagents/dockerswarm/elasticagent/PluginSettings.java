@@ -17,21 +17,25 @@
 package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
 
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.Util;
-import com.google.gson.FieldNamingPolicy;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.GsonRegistry;
+import com.google.common.collect.ImmutableSet;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
 import com.google.gson.annotations.Expose;
 import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import com.spotify.docker.client.messages.RegistryAuth;
 import org.joda.time.Period;
 
+import java.io.IOException;
 import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
 
 public class PluginSettings {
-    public static final Gson GSON = new GsonBuilder()
-            .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
-            .excludeFieldsWithoutExposeAnnotation()
-            .create();
+    public static final Gson GSON = GsonRegistry.EXPOSED_SNAKE_CASE;
 
     @Expose
     @SerializedName("go_server_url")
@@ -131,26 +135,32 @@ public class PluginSettings {
 
     public void setDockerCACert(String dockerCACert) {
         this.dockerCACert = dockerCACert;
+        changed();
     }
 
     public void setDockerClientCert(String dockerClientCert) {
         this.dockerClientCert = dockerClientCert;
+        changed();
     }
 
     public void setDockerClientKey(String dockerClientKey) {
         this.dockerClientKey = dockerClientKey;
+        changed();
     }
 
     public void setDockerURI(String dockerURI) {
         this.dockerURI = dockerURI;
+        changed();
     }
 
     public void setEnvironmentVariables(String environmentVariables) {
         this.environmentVariables = environmentVariables;
+        changed();
     }
 
     public void setMaxDockerContainers(Integer maxDockerContainers) {
         this.maxDockerContainers = String.valueOf(maxDockerContainers);
+        changed();
     }
 
     public boolean useDockerAuthInfo() {
@@ -234,9 +244,131 @@ public class PluginSettings {
 
     public void setGoServerUrl(String goServerUrl) {
         this.goServerUrl = goServerUrl;
+        changed();
     }
 
     public void setAutoRegisterTimeout(String autoRegisterTimeout) {
         this.autoRegisterTimeout = autoRegisterTimeout;
+        changed();
+    }
+
+    /**
+     * Reads and writes the exposed properties of plugin settings and cluster profiles, in the same shape the reflective
+     * Gson adapter used: fields in declaration order, nulls left out, and strings accepted for numbers and booleans.
+     */
+    public static class JsonAdapter<T extends PluginSettings> extends TypeAdapter<T> {
+        private static final Set<String> PROPERTIES = ImmutableSet.of("go_server_url", "environment_variables", "max_docker_containers",
+                "docker_uri", "auto_register_timeout", "docker_ca_cert", "docker_client_cert", "docker_client_key", "private_registry_server",
+                "private_registry_username", "private_registry_password", "enable_private_registry_authentication");
+
+        private final Supplier<T> constructor;
+
+        public JsonAdapter(Supplier<T> constructor) {
+            this.constructor = constructor;
+        }
+
+        /**
+         * Builds settings from a configuration map like the cluster profile properties GoCD sends, without going
+         * through JSON.
+         */
+        public T fromConfiguration(Map<String, String> configuration) {
+            if (configuration == null) {
+                return null;
+            }
+            final T settings = constructor.get();
+            for (Map.Entry<String, String> property : configuration.entrySet()) {
+                if (property.getValue() != null) {
+                    ((PluginSettings) settings).set(property.getKey(), property.getValue());
+                }
+            }
+            return settings;
+        }
+
+        @Override
+        public void write(JsonWriter out, T settings) throws IOException {
+            final PluginSettings values = settings;
+            out.beginObject();
+            out.name("go_server_url").value(values.goServerUrl);
+            out.name("environment_variables").value(values.environmentVariables);
+            out.name("max_docker_containers").value(values.maxDockerContainers);
+            out.name("docker_uri").value(values.dockerURI);
+            out.name("auto_register_timeout").value(values.autoRegisterTimeout);
+            out.name("docker_ca_cert").value(values.dockerCACert);
+            out.name("docker_client_cert").value(values.dockerClientCert);
+            out.name("docker_client_key").value(values.dockerClientKey);
+            out.name("private_registry_server").value(values.privateRegistryServer);
+            out.name("private_registry_username").value(values.privateRegistryUsername);
+            out.name("private_registry_password").value(values.privateRegistryPassword);
+            out.name("enable_private_registry_authentication").value(values.useDockerAuthInfo);
+            out.endObject();
+        }
+
+        @Override
+        public T read(JsonReader in) throws IOException {
+            final T settings = constructor.get();
+            in.beginObject();
+            while (in.hasNext()) {
+                final String name = in.nextName();
+                if (PROPERTIES.contains(name)) {
+                    ((PluginSettings) settings).set(name, GsonRegistry.nextString(in));
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return settings;
+        }
+    }
+
+    /**
+     * Called whenever a property changes, to drop anything derived from the properties.
+     */
+    protected void changed() {
+        autoRegisterPeriod = null;
+    }
+
+    private void set(String property, String value) {
+        changed();
+        switch (property) {
+            case "go_server_url":
+                goServerUrl = value;
+                break;
+            case "environment_variables":
+                environmentVariables = value;
+                break;
+            case "max_docker_containers":
+                maxDockerContainers = value;
+                break;
+            case "docker_uri":
+                dockerURI = value;
+                break;
+            case "auto_register_timeout":
+                autoRegisterTimeout = value;
+                break;
+            case "docker_ca_cert":
+                dockerCACert = value;
+                break;
+            case "docker_client_cert":
+                dockerClientCert = value;
+                break;
+            case "docker_client_key":
+                dockerClientKey = value;
+                break;
+            case "private_registry_server":
+                privateRegistryServer = value;
+                break;
+            case "private_registry_username":
+                privateRegistryUsername = value;
+                break;
+            case "private_registry_password":
+                privateRegistryPassword = value;
+                break;
+            case "enable_private_registry_authentication":
+                if (value != null) {
+                    useDockerAuthInfo = Boolean.parseBoolean(value);
+                }
+                break;
+            default:
+        }
     }
 }
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.messages.Version;
+import com.spotify.docker.client.messages.mount.Mount;
+import com.spotify.docker.client.messages.swarm.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static cd.go.contrib.elasticagents.dockerswarm.elasticagent.DockerPlugin.LOG;
+import static cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.Util.dockerApiVersionAtLeast;
+import static java.text.MessageFormat.format;
+import static org.apache.commons.lang.StringUtils.isBlank;
+
+/**
+ * The parts of a service spec that depend only on an elastic agent profile and the swarm it is created on: the
+ * image, command, mounts, secrets, resources, placement, log driver and networks. Building it resolves the secrets and
+ * networks of the {@link CompiledProfile} against the swarm, so agents created for the same profile share one
+ * template.
+ */
+class ServiceSpecTemplate {
+    private final String image;
+    private final List<String> command;
+    private final List<String> environment;
+    private final boolean hostFileEntriesSupported;
+    private final List<String> hosts;
+    private final List<Mount> mounts;
+    private final List<SecretBind> secrets;
+    private final ResourceRequirements resources;
+    private final Placement placement;
+    private final Driver logDriver;
+    private final List<NetworkAttachmentConfig> networks;
+
+    private ServiceSpecTemplate(CompiledProfile profile, DockerClient docker) throws DockerException, InterruptedException {
+        image = profile.image();
+        command = profile.command();
+        environment = profile.environment();
+
+        hostFileEntriesSupported = dockerApiVersionAtLeast(docker, "1.26");
+        if (hostFileEntriesSupported) {
+            hosts = profile.hosts();
+            mounts = profile.mounts();
+            secrets = profile.hasSecrets() ? SwarmMetadata.resolve(docker, () -> profile.secretBinds(docker.listSecrets()))
+                    : Collections.emptyList();
+        } else {
+            hosts = null;
+            mounts = null;
+            secrets = null;
+            final Version version = docker.version();
+            LOG.warn(format("Detected docker version and api version is {0} and {1} respectively. Docker with api version 1.26 or above is required to use volume mounts, secrets and host file entries. Please refer https://docs.docker.com/engine/api/v1.32/#section/Versioning for more information about docker release.", version.version(), version.apiVersion()));
+        }
+
+        resources = profile.resources();
+        placement = Placement.create(profile.constraints());
+        logDriver = profile.logDriver();
+        networks = networks(profile.networks(), docker);
+    }
+
+    static ServiceSpecTemplate of(Map<String, String> properties, DockerClient docker) throws DockerException, InterruptedException {
+        return new ServiceSpecTemplate(CompiledProfile.of(properties), docker);
+    }
+
+    List<String> environment() {
+        return environment;
+    }
+
+    ServiceSpec serviceSpec(String serviceName, Map<String, String> labels, String[] env) {
+        final ContainerSpec.Builder containerSpecBuilder = ContainerSpec.builder()
+                .image(image)
+                .env(env);
+
+        if (command != null) {
+            containerSpecBuilder.command(command.toArray(new String[]{}));
+        }
+
+        if (hostFileEntriesSupported) {
+            containerSpecBuilder.hosts(hosts);
+            containerSpecBuilder.mounts(mounts);
+            containerSpecBuilder.secrets(secrets);
+        }
+
+        TaskSpec taskSpec = TaskSpec.builder()
+                .containerSpec(containerSpecBuilder.build())
+                .resources(resources)
+                .placement(placement)
+                .logDriver(logDriver)
+                .build();
+
+        return ServiceSpec.builder()
+                .name(serviceName)
+                .labels(labels)
+                .taskTemplate(taskSpec)
+                .networks(networks)
+                .build();
+    }
+
+    private static List<NetworkAttachmentConfig> networks(String networkConfig, DockerClient docker) throws DockerException, InterruptedException {
+        if (isBlank(networkConfig)) {
+            return Collections.emptyList();
+        }
+        return SwarmMetadata.resolve(docker, () -> Networks.fromString(networkConfig, docker.listNetworks()));
+    }
+}
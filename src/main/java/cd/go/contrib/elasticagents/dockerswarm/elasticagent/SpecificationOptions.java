@@ -0,0 +1,80 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
+
+/**
+ * Walks the comma separated options of one line of a mount or secret specification, like
+ * <code>type=bind, source=/var/run/docker.sock, target=/var/run/docker.sock, readonly</code>, without splitting the
+ * line up front. Options are found exactly as <code>line.split(",")</code> would: empty options in the middle of the
+ * line are kept, trailing ones are not.
+ */
+class SpecificationOptions {
+    private final String line;
+    private final int end;
+    private int position;
+    private String option;
+    private int equals;
+
+    SpecificationOptions(String line) {
+        int end = line.length();
+        while (end > 0 && line.charAt(end - 1) == ',') {
+            end--;
+        }
+        this.line = line;
+        this.end = end;
+    }
+
+    /**
+     * Moves to the next option.
+     *
+     * @return false once all options have been read
+     */
+    boolean next() {
+        if (position >= end) {
+            return false;
+        }
+
+        int comma = line.indexOf(',', position);
+        if (comma < 0 || comma > end) {
+            comma = end;
+        }
+        option = line.substring(position, comma);
+        equals = option.indexOf('=');
+        position = comma + 1;
+        return true;
+    }
+
+    String option() {
+        return option;
+    }
+
+    /**
+     * @return whether the option has a <code>key=value</code> form
+     */
+    boolean hasValue() {
+        return equals >= 0;
+    }
+
+    String key() {
+        return option.substring(0, equals);
+    }
+
+    String value() {
+        return option.substring(equals + 1);
+    }
+}
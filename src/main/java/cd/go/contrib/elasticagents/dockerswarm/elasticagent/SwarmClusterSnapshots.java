@@ -0,0 +1,87 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
+
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.reports.SwarmCluster;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.util.concurrent.*;
+
+/**
+ * Keeps a snapshot of the nodes and tasks of each swarm for the cluster status report, so that viewers refreshing the
+ * report do not each list every node, service and task of the swarm.
+ * <p>
+ * A snapshot is never older than {@link #MAX_AGE_SECONDS} seconds. Once it is half that age, the next viewer gets it
+ * as it is while a fresh one is listed in the background. Viewers asking for a cluster without a usable snapshot wait
+ * for a single listing between them.
+ */
+public class SwarmClusterSnapshots {
+    static final long MAX_AGE_SECONDS = 30;
+
+    private static final SwarmClusterSnapshots SWARM_CLUSTER_SNAPSHOTS = new SwarmClusterSnapshots();
+
+    private final ConcurrentHashMap<String, Callable<SwarmCluster>> listings = new ConcurrentHashMap<>();
+    private final LoadingCache<String, SwarmCluster> snapshots;
+
+    private SwarmClusterSnapshots() {
+        this(MAX_AGE_SECONDS, TimeUnit.SECONDS, Ticker.systemTicker(), Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("cluster-snapshots-%d").build()));
+    }
+
+    SwarmClusterSnapshots(long maxAge, TimeUnit maxAgeUnit, Ticker ticker, Executor refreshExecutor) {
+        final CacheLoader<String, SwarmCluster> loader = new CacheLoader<String, SwarmCluster>() {
+            @Override
+            public SwarmCluster load(String uuid) throws Exception {
+                return listings.get(uuid).call();
+            }
+        };
+        this.snapshots = CacheBuilder.newBuilder()
+                .expireAfterWrite(maxAge, maxAgeUnit)
+                .refreshAfterWrite(maxAgeUnit.toNanos(maxAge) / 2, TimeUnit.NANOSECONDS)
+                .ticker(ticker)
+                .build(CacheLoader.asyncReloading(loader, refreshExecutor));
+    }
+
+    public static SwarmClusterSnapshots instance() {
+        return SWARM_CLUSTER_SNAPSHOTS;
+    }
+
+    public SwarmCluster snapshot(ClusterProfileProperties clusterProfile, DockerClientFactory dockerClientFactory) throws Exception {
+        return snapshot(clusterProfile.uuid(), () -> new SwarmCluster(dockerClientFactory.docker(clusterProfile), true));
+    }
+
+    /**
+     * @param listing lists the nodes and tasks of the swarm, when there is no snapshot of it or it is time to refresh
+     *                the snapshot
+     */
+    SwarmCluster snapshot(String uuid, Callable<SwarmCluster> listing) throws Exception {
+        listings.put(uuid, listing);
+        try {
+            return snapshots.get(uuid);
+        } catch (ExecutionException | UncheckedExecutionException | ExecutionError e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
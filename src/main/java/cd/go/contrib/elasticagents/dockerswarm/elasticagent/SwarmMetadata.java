@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.exceptions.DockerException;
+
+/**
+ * Implemented by docker clients that cache the secrets and networks of their swarm.
+ */
+public interface SwarmMetadata {
+    void invalidateSecrets();
+
+    void invalidateNetworks();
+
+    /**
+     * Resolves the secrets or networks an agent profile refers to. If one of them is missing and the client caches
+     * the metadata of the swarm, it may have been added since the cache was filled, so the lookup is tried once more
+     * with a fresh list. Any other failure, such as a profile that does not parse, is passed on as it is.
+     */
+    static <T> T resolve(DockerClient docker, Lookup<T> lookup) throws DockerException, InterruptedException {
+        try {
+            return lookup.resolve();
+        } catch (SwarmResourceNotFoundException e) {
+            if (!(docker instanceof SwarmMetadata)) {
+                throw e;
+            }
+            ((SwarmMetadata) docker).invalidateSecrets();
+            ((SwarmMetadata) docker).invalidateNetworks();
+            return lookup.resolve();
+        }
+    }
+
+    interface Lookup<T> {
+        T resolve() throws DockerException, InterruptedException;
+    }
+}
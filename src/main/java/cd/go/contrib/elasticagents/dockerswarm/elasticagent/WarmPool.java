@@ -0,0 +1,279 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
+
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.JobIdentifier;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.requests.CreateAgentRequest;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.GsonRegistry;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import org.apache.commons.lang.StringUtils;
+import org.joda.time.DateTime;
+import org.joda.time.Period;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static cd.go.contrib.elasticagents.dockerswarm.elasticagent.DockerPlugin.LOG;
+import static java.text.MessageFormat.format;
+
+/**
+ * Agents that are created ahead of time for an elastic agent profile (with a {@link #SIZE} greater than zero) and
+ * environment, and handed out to jobs instead of creating a new service for every job.
+ * <p>
+ * A pooled agent is a service created without a job identifier, labelled with the key of its profile and
+ * environment. It is bound to a job either when a create agent request comes in for the job, or when the server asks
+ * to assign a job with the same profile and environment to it.
+ * <p>
+ * Bindings are kept in memory. A create agent request is only handed a pooled agent that this plugin created, or
+ * that the server has reported as idle since, so that an agent found in the swarm after a restart is not handed out
+ * while it may still be building a job. A pooled agent the server reports as building without a binding is bound to
+ * that unknown job instead. The pool is refilled in the background on every create agent request, on workers of its
+ * own so that refills never hold up the creation of agents for jobs. An unbound agent that stays idle for longer than
+ * {@link #IDLE_TIMEOUT} is no longer protected from the idle agent cleanup done on server ping.
+ */
+class WarmPool {
+    static final String SIZE = "WarmPoolSize";
+    static final String IDLE_TIMEOUT = "WarmPoolIdleTimeout";
+    static final int DEFAULT_IDLE_TIMEOUT_MINUTES = 30;
+    static final int REFILL_WORKERS = 2;
+    static final int REFILL_QUEUE_SIZE = 50;
+
+    private static final Gson GSON = GsonRegistry.PLAIN;
+
+    private final ConcurrentHashMap<String, Claim> claims = new ConcurrentHashMap<>();
+    private final Set<String> idleAgents = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<String, AtomicInteger> pendingRefills = new ConcurrentHashMap<>();
+    private final ExecutorService refillExecutor;
+
+    WarmPool() {
+        this(newRefillExecutor());
+    }
+
+    /**
+     * @param refillExecutor the executor pooled agents are created on
+     */
+    WarmPool(ExecutorService refillExecutor) {
+        this.refillExecutor = refillExecutor;
+    }
+
+    // refills beyond the bounded queue are rejected, and simply left to the next create agent request
+    private static ExecutorService newRefillExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(REFILL_WORKERS, REFILL_WORKERS, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(REFILL_QUEUE_SIZE),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("refill-warm-pool-%d").build(), new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    static String keyFor(Map<String, String> properties, String environment) {
+        final String profile = GSON.toJson(new TreeMap<>(properties)) + "\n" + StringUtils.defaultString(environment);
+        return Hashing.sha256().hashString(profile, StandardCharsets.UTF_8).toString();
+    }
+
+    static int sizeOf(Map<String, String> properties) {
+        return parse(properties, SIZE, 0);
+    }
+
+    static Period idleTimeoutOf(Map<String, String> properties) {
+        return Period.minutes(parse(properties, IDLE_TIMEOUT, DEFAULT_IDLE_TIMEOUT_MINUTES));
+    }
+
+    boolean isPooled(DockerService service) {
+        return service.warmPoolKey() != null && service.jobIdentifier() == null;
+    }
+
+    JobIdentifier boundJob(String agentId) {
+        final Claim claim = claims.get(agentId);
+        return claim == null ? null : claim.jobIdentifier;
+    }
+
+    /**
+     * Binds an unbound pooled agent with the same profile and environment to the job.
+     *
+     * @return the bound agent, or <code>null</code> if the pool has no agent available for the job
+     */
+    DockerService claim(Collection<DockerService> services, JobIdentifier jobIdentifier, Map<String, String> properties, String environment, DateTime now) {
+        if (jobIdentifier == null || sizeOf(properties) <= 0) {
+            return null;
+        }
+
+        final String key = keyFor(properties, environment);
+        for (DockerService service : services) {
+            if (isPooled(service) && isBoundTo(service.name(), jobIdentifier)) {
+                return service;
+            }
+        }
+
+        for (DockerService service : services) {
+            if (isPooled(service) && key.equals(service.warmPoolKey()) && idleAgents.remove(service.name())
+                    && claims.putIfAbsent(service.name(), new Claim(jobIdentifier, now)) == null) {
+                return service;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the service is a pooled agent bound to the job, or could be bound to it because it is unbound
+     * and has the same profile and environment as the job
+     */
+    boolean bind(DockerService service, JobIdentifier jobIdentifier, Map<String, String> properties, String environment, DateTime now) {
+        if (jobIdentifier == null || !isPooled(service)) {
+            return false;
+        }
+
+        if (!claims.containsKey(service.name())) {
+            if (properties == null || !keyFor(properties, environment).equals(service.warmPoolKey())) {
+                return false;
+            }
+            idleAgents.remove(service.name());
+            claims.putIfAbsent(service.name(), new Claim(jobIdentifier, now));
+        }
+        return isBoundTo(service.name(), jobIdentifier);
+    }
+
+    /**
+     * @return true if the service must not be treated as an idle agent yet: an unbound pooled agent that has not
+     * exceeded its idle timeout, or a pooled agent that was bound to a job less than the auto register period ago
+     */
+    boolean isProtected(DockerService service, DateTime now, Period autoRegisterPeriod) {
+        final Claim claim = claims.get(service.name());
+        if (claim != null) {
+            return now.isBefore(claim.claimedAt.plus(autoRegisterPeriod));
+        }
+        return isPooled(service) && now.isBefore(service.createdAt().plus(idleTimeoutOf(service.properties())));
+    }
+
+    /**
+     * Records the state the server reports for a pooled agent. An unbound agent that is idle may be handed out by
+     * {@link #claim}; one that is building was bound to a job before a restart, and is bound to it again.
+     */
+    void observe(DockerService service, Agent agent, DateTime now) {
+        if (!isPooled(service) || claims.containsKey(service.name())) {
+            return;
+        }
+
+        if (agent.buildState() == Agent.BuildState.Idle) {
+            idleAgents.add(service.name());
+        } else if (agent.buildState() == Agent.BuildState.Building) {
+            idleAgents.remove(service.name());
+            if (claims.putIfAbsent(service.name(), new Claim(null, now)) == null) {
+                LOG.info(format("Warm pool agent `{0}` is building a job it was bound to before a restart.", service.name()));
+            }
+        }
+    }
+
+    void forget(String agentId) {
+        claims.remove(agentId);
+        idleAgents.remove(agentId);
+    }
+
+    /**
+     * Creates, in the background, as many pooled agents as needed to bring the number of unbound agents for the
+     * profile and environment of the request back to its {@link #SIZE}.
+     */
+    void refill(CreateAgentRequest request, Collection<DockerService> services, AgentCreator creator) {
+        final int size = sizeOf(request.properties());
+        if (size <= 0) {
+            return;
+        }
+
+        final String key = keyFor(request.properties(), request.environment());
+        final CreateAgentRequest poolRequest = new CreateAgentRequest(request.autoRegisterKey(), request.properties(), request.environment(), null, request.getClusterProfileProperties());
+        final AtomicInteger pending = pendingRefills.computeIfAbsent(key, k -> new AtomicInteger());
+
+        synchronized (pending) {
+            final int missing = size - unboundAgents(services, key) - pending.get();
+            for (int i = 0; i < missing; i++) {
+                pending.incrementAndGet();
+                try {
+                    refillExecutor.execute(() -> {
+                        try {
+                            final DockerService created = creator.create(poolRequest);
+                            if (created == null) {
+                                LOG.debug(format("Not adding an agent to the warm pool `{0}`, the cluster is at its maximum number of containers.", key));
+                            } else {
+                                idleAgents.add(created.name());
+                            }
+                        } catch (Exception e) {
+                            LOG.warn(format("Failed to add an agent to the warm pool `{0}`.", key), e);
+                        } finally {
+                            pending.decrementAndGet();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    pending.decrementAndGet();
+                    LOG.warn(format("Not adding an agent to the warm pool `{0}`, no worker is available.", key));
+                    return;
+                }
+            }
+        }
+    }
+
+    private int unboundAgents(Collection<DockerService> services, String key) {
+        int count = 0;
+        for (DockerService service : services) {
+            if (isPooled(service) && !claims.containsKey(service.name()) && key.equals(service.warmPoolKey())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private boolean isBoundTo(String agentId, JobIdentifier jobIdentifier) {
+        final Claim claim = claims.get(agentId);
+        return claim != null && claim.jobIdentifier != null && Objects.equals(claim.jobIdentifier.getJobId(), jobIdentifier.getJobId());
+    }
+
+    private static int parse(Map<String, String> properties, String key, int defaultValue) {
+        final String value = properties.get(key);
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    interface AgentCreator {
+        DockerService create(CreateAgentRequest request) throws Exception;
+    }
+
+    private static class Claim {
+        private final JobIdentifier jobIdentifier;
+        private final DateTime claimedAt;
+
+        Claim(JobIdentifier jobIdentifier, DateTime claimedAt) {
+            this.jobIdentifier = jobIdentifier;
+            this.claimedAt = claimedAt;
+        }
+    }
+}
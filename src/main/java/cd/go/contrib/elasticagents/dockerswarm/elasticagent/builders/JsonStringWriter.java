@@ -0,0 +1,89 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent.builders;
+
+import java.io.Writer;
+
+/**
+ * Appends what is written to it as the contents of a JSON string, escaped the way Gson escapes strings.
+ */
+class JsonStringWriter extends Writer {
+    private static final String[] REPLACEMENTS = new String[128];
+
+    static {
+        for (int c = 0; c < 0x20; c++) {
+            REPLACEMENTS[c] = String.format("\\u%04x", c);
+        }
+        REPLACEMENTS['"'] = "\\\"";
+        REPLACEMENTS['\\'] = "\\\\";
+        REPLACEMENTS['\t'] = "\\t";
+        REPLACEMENTS['\b'] = "\\b";
+        REPLACEMENTS['\n'] = "\\n";
+        REPLACEMENTS['\r'] = "\\r";
+        REPLACEMENTS['\f'] = "\\f";
+    }
+
+    private final StringBuilder json;
+
+    JsonStringWriter(StringBuilder json) {
+        this.json = json;
+    }
+
+    @Override
+    public void write(int c) {
+        escape((char) c);
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            escape(chars[i]);
+        }
+    }
+
+    @Override
+    public void write(String string, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            escape(string.charAt(i));
+        }
+    }
+
+    private void escape(char c) {
+        if (c < 128) {
+            final String replacement = REPLACEMENTS[c];
+            if (replacement == null) {
+                json.append(c);
+            } else {
+                json.append(replacement);
+            }
+        } else if (c == '\u2028') {
+            json.append("\\u2028");
+        } else if (c == '\u2029') {
+            json.append("\\u2029");
+        } else {
+            json.append(c);
+        }
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -16,6 +16,7 @@
 
 package cd.go.contrib.elasticagents.dockerswarm.elasticagent.builders;
 
+import com.google.common.collect.ImmutableMap;
 import freemarker.cache.ClassTemplateLoader;
 import freemarker.template.Configuration;
 import freemarker.template.Template;
@@ -24,23 +25,41 @@ import freemarker.template.TemplateExceptionHandler;
 
 import java.io.IOException;
 import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Renders the status report views. The templates of the plugin are loaded once, when the builder is first used, and
+ * the builder is safe to share between the threads handling requests.
+ */
 public class PluginStatusReportViewBuilder {
-    private static PluginStatusReportViewBuilder builder;
+    static final String[] TEMPLATES = {"status-report.template.ftlh", "agent-status-report.template.ftlh", "node-status-report.template.ftlh", "error.template.ftlh"};
+    private static final int INITIAL_VIEW_SIZE = 16 * 1024;
+
     private final Configuration configuration;
+    private final Map<String, Template> templates;
+    private final ConcurrentHashMap<String, Integer> viewSizes = new ConcurrentHashMap<>();
 
-    private PluginStatusReportViewBuilder() {
+    private PluginStatusReportViewBuilder() throws IOException {
         configuration = new Configuration(Configuration.VERSION_2_3_23);
         configuration.setTemplateLoader(new ClassTemplateLoader(getClass(), "/"));
         configuration.setDefaultEncoding("UTF-8");
         configuration.setTemplateExceptionHandler(TemplateExceptionHandler.RETHROW_HANDLER);
         configuration.setLogTemplateExceptions(false);
         configuration.setDateTimeFormat("iso");
+
+        final ImmutableMap.Builder<String, Template> templates = ImmutableMap.builder();
+        for (String template : TEMPLATES) {
+            templates.put(template, configuration.getTemplate(template));
+        }
+        this.templates = templates.build();
     }
 
     public Template getTemplate(String template) throws IOException {
-        return configuration.getTemplate(template);
+        final Template loaded = templates.get(template);
+        return loaded != null ? loaded : configuration.getTemplate(template);
     }
 
     public String build(Template template, Object cluster) throws IOException, TemplateException {
@@ -49,10 +68,34 @@ public class PluginStatusReportViewBuilder {
         return writer.toString();
     }
 
-    public static PluginStatusReportViewBuilder instance() throws IOException {
-        if (builder == null) {
-            builder = new PluginStatusReportViewBuilder();
+    /**
+     * Renders a view straight into the JSON object GoCD expects in response to a status report request,
+     * {@code {"view": "..."}}. The view is escaped as the template writes it. The buffer is sized after the last view
+     * rendered from the same template.
+     */
+    public String buildView(Template template, Object model) throws IOException, TemplateException {
+        final StringBuilder json = new StringBuilder(viewSizes.getOrDefault(template.getName(), INITIAL_VIEW_SIZE));
+        json.append("{\"view\":\"");
+        template.process(model, new JsonStringWriter(json));
+        json.append("\"}");
+
+        viewSizes.put(template.getName(), json.length() + json.length() / 8);
+        return json.toString();
+    }
+
+    public static PluginStatusReportViewBuilder instance() {
+        return Holder.BUILDER;
+    }
+
+    private static class Holder {
+        private static final PluginStatusReportViewBuilder BUILDER;
+
+        static {
+            try {
+                BUILDER = new PluginStatusReportViewBuilder();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not load the status report templates.", e);
+            }
         }
-        return builder;
     }
 }
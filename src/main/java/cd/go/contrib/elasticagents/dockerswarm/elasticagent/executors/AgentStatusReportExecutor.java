@@ -19,18 +19,26 @@ package cd.go.contrib.elasticagents.dockerswarm.elasticagent.executors;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.*;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.builders.PluginStatusReportViewBuilder;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.JobIdentifier;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.reports.DockerNode;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.reports.NodeReservations;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.reports.NodeStatusReport;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.reports.SwarmCluster;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.reports.agent.DockerServiceElasticAgent;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.reports.agent.ServiceLogs;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.reports.StatusReportGenerationErrorHandler;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.reports.StatusReportGenerationException;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.requests.AgentStatusReportRequest;
-import com.google.gson.JsonObject;
 import com.spotify.docker.client.DockerClient;
 import com.spotify.docker.client.messages.swarm.Service;
+import com.spotify.docker.client.messages.swarm.Task;
 import com.thoughtworks.go.plugin.api.response.DefaultGoPluginApiResponse;
 import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 import org.apache.commons.lang.StringUtils;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import static cd.go.contrib.elasticagents.dockerswarm.elasticagent.DockerPlugin.LOG;
 
@@ -40,17 +48,23 @@ public class AgentStatusReportExecutor {
     private final AgentInstances<DockerService> agentInstances;
     private final DockerClientFactory dockerClientFactory;
     private final PluginStatusReportViewBuilder builder;
+    private final SwarmClusterSnapshots swarmClusterSnapshots;
 
     public AgentStatusReportExecutor(AgentStatusReportRequest request, PluginRequest pluginRequest, AgentInstances<DockerService> agentInstances) throws IOException {
         this(request, pluginRequest, agentInstances, DockerClientFactory.instance(), PluginStatusReportViewBuilder.instance());
     }
 
     public AgentStatusReportExecutor(AgentStatusReportRequest request, PluginRequest pluginRequest, AgentInstances<DockerService> agentInstances, DockerClientFactory dockerClientFactory, PluginStatusReportViewBuilder builder) {
+        this(request, pluginRequest, agentInstances, dockerClientFactory, builder, SwarmClusterSnapshots.instance());
+    }
+
+    public AgentStatusReportExecutor(AgentStatusReportRequest request, PluginRequest pluginRequest, AgentInstances<DockerService> agentInstances, DockerClientFactory dockerClientFactory, PluginStatusReportViewBuilder builder, SwarmClusterSnapshots swarmClusterSnapshots) {
         this.request = request;
         this.pluginRequest = pluginRequest;
         this.agentInstances = agentInstances;
         this.dockerClientFactory = dockerClientFactory;
         this.builder = builder;
+        this.swarmClusterSnapshots = swarmClusterSnapshots;
     }
 
     public GoPluginApiResponse execute() throws Exception {
@@ -59,21 +73,41 @@ public class AgentStatusReportExecutor {
         LOG.info(String.format("[status-report] Generating status report for agent: %s with job: %s", elasticAgentId, jobIdentifier));
 
         try {
+            if (StringUtils.startsWith(elasticAgentId, DockerNode.STATUS_REPORT_ID_PREFIX)) {
+                return DefaultGoPluginApiResponse.success(builder.buildView(builder.getTemplate("node-status-report.template.ftlh"), nodeStatusReport(elasticAgentId.substring(DockerNode.STATUS_REPORT_ID_PREFIX.length()))));
+            }
+
             final DockerClient dockerClient = dockerClientFactory.docker(request.getClusterProfileProperties());
+            if (StringUtils.startsWith(elasticAgentId, ServiceLogs.STATUS_REPORT_ID_PREFIX)) {
+                Service dockerService = findServiceUsingElasticAgentId(ServiceLogs.serviceIdOf(elasticAgentId), dockerClient);
+                DockerServiceElasticAgent elasticAgent = DockerServiceElasticAgent.fromService(dockerService, dockerClient, ServiceLogs.pageOf(elasticAgentId));
+                return DefaultGoPluginApiResponse.success(builder.buildView(builder.getTemplate("agent-status-report.template.ftlh"), elasticAgent));
+            }
+
             Service dockerService = findService(elasticAgentId, jobIdentifier, dockerClient);
 
             DockerServiceElasticAgent elasticAgent = DockerServiceElasticAgent.fromService(dockerService, dockerClient);
-            final String statusReportView = builder.build(builder.getTemplate("agent-status-report.template.ftlh"), elasticAgent);
-
-            JsonObject responseJSON = new JsonObject();
-            responseJSON.addProperty("view", statusReportView);
-
-            return DefaultGoPluginApiResponse.success(responseJSON.toString());
+            return DefaultGoPluginApiResponse.success(builder.buildView(builder.getTemplate("agent-status-report.template.ftlh"), elasticAgent));
         } catch (Exception e) {
             return StatusReportGenerationErrorHandler.handle(builder, e);
         }
     }
 
+    private NodeStatusReport nodeStatusReport(String nodeId) throws Exception {
+        final SwarmCluster swarmCluster = swarmClusterSnapshots.snapshot(request.getClusterProfileProperties(), dockerClientFactory);
+        final DockerNode node = swarmCluster.getNode(nodeId);
+        if (node == null) {
+            throw StatusReportGenerationException.noNode(nodeId);
+        }
+
+        final NodeReservations reservations = node.newReservations();
+        final DockerClient dockerClient = dockerClientFactory.docker(request.getClusterProfileProperties());
+        for (Task task : dockerClient.listTasks(Task.Criteria.builder().nodeId(nodeId).desiredState("running").build())) {
+            reservations.add(task);
+        }
+        return new NodeStatusReport(node, reservations, swarmCluster.getSnapshotAgeSeconds());
+    }
+
     private Service findService(String elasticAgentId, JobIdentifier jobIdentifier, DockerClient dockerClient) throws Exception {
         Service dockerService;
         if (StringUtils.isNotBlank(elasticAgentId)) {
@@ -92,10 +126,16 @@ public class AgentStatusReportExecutor {
         }
     }
 
+    // an agent known to the cluster is the service of the same name, any other id may also be a service id
     private Service findServiceUsingElasticAgentId(String elasticAgentId, DockerClient client) throws Exception {
-        for (Service service : client.listServices()) {
-            if (service.spec().name().equals(elasticAgentId) || service.id().equals(elasticAgentId)) {
-                return service;
+        final List<Service.Criteria> criteriaToTry = agentInstances.find(elasticAgentId) != null
+                ? Collections.singletonList(Service.Criteria.builder().serviceName(elasticAgentId).build())
+                : Arrays.asList(Service.Criteria.builder().serviceName(elasticAgentId).build(), Service.Criteria.builder().serviceId(elasticAgentId).build());
+        for (Service.Criteria criteria : criteriaToTry) {
+            for (Service service : client.listServices(criteria)) {
+                if (service.spec().name().equals(elasticAgentId) || service.id().equals(elasticAgentId)) {
+                    return service;
+                }
             }
         }
         throw StatusReportGenerationException.noRunningService(elasticAgentId);
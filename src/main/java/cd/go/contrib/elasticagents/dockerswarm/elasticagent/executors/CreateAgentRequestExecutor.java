@@ -17,6 +17,7 @@
 package cd.go.contrib.elasticagents.dockerswarm.elasticagent.executors;
 
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.AgentInstances;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.DockerClientFactory;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.DockerService;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.PluginRequest;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.RequestExecutor;
@@ -43,11 +44,15 @@ public class CreateAgentRequestExecutor implements RequestExecutor {
     private List<Validatable> validators = new ArrayList<>();
 
     public CreateAgentRequestExecutor(CreateAgentRequest request, AgentInstances<DockerService> agentInstances, PluginRequest pluginRequest) {
+        this(request, agentInstances, pluginRequest, DockerClientFactory.instance());
+    }
+
+    public CreateAgentRequestExecutor(CreateAgentRequest request, AgentInstances<DockerService> agentInstances, PluginRequest pluginRequest, DockerClientFactory dockerClientFactory) {
         this.request = request;
         this.agentInstances = agentInstances;
         this.pluginRequest = pluginRequest;
-        validators.add(new DockerSecretValidator(request));
-        validators.add(new DockerMountsValidator(request));
+        validators.add(new DockerSecretValidator(request, dockerClientFactory));
+        validators.add(new DockerMountsValidator(request, dockerClientFactory));
     }
 
     @Override
@@ -72,9 +77,9 @@ public class CreateAgentRequestExecutor implements RequestExecutor {
         }
         LOG.debug(format("[create-agent] Creating agent with profile: {0}", request.properties()));
 
-        agentInstances.create(request, pluginRequest);
+        agentInstances.createAsync(request, pluginRequest);
 
-        LOG.debug(format("[create-agent] Done creating agent for profile: {0}", request.properties()));
+        LOG.debug(format("[create-agent] Scheduled creation of agent for profile: {0}", request.properties()));
         return new DefaultGoPluginApiResponse(200);
     }
 
@@ -16,8 +16,8 @@
 
 package cd.go.contrib.elasticagents.dockerswarm.elasticagent.executors;
 
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.GsonRegistry;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.thoughtworks.go.plugin.api.response.DefaultGoPluginApiResponse;
 import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 
@@ -26,7 +26,7 @@ import java.util.Map;
 
 public class GetCapabilitiesExecutor {
 
-    private static final Gson GSON = new GsonBuilder().excludeFieldsWithoutExposeAnnotation().create();
+    private static final Gson GSON = GsonRegistry.EXPOSED;
 
     private static final Map<String, Boolean> CAPABILITIES_RESPONSE = new LinkedHashMap<>();
 
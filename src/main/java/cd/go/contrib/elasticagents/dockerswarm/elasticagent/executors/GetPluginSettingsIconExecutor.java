@@ -17,6 +17,7 @@
 package cd.go.contrib.elasticagents.dockerswarm.elasticagent.executors;
 
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.RequestExecutor;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.GsonRegistry;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.Util;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
@@ -25,7 +26,7 @@ import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 import org.apache.commons.codec.binary.Base64;
 
 public class GetPluginSettingsIconExecutor implements RequestExecutor {
-    private static final Gson GSON = new Gson();
+    private static final Gson GSON = GsonRegistry.PLAIN;
 
     @Override
     public GoPluginApiResponse execute() throws Exception {
@@ -18,8 +18,8 @@ package cd.go.contrib.elasticagents.dockerswarm.elasticagent.executors;
 
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.RequestExecutor;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.metadata.HostMetadata;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.GsonRegistry;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.thoughtworks.go.plugin.api.response.DefaultGoPluginApiResponse;
 import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 
@@ -27,7 +27,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class GetProfileMetadataExecutor implements RequestExecutor {
-    private static final Gson GSON = new GsonBuilder().excludeFieldsWithoutExposeAnnotation().create();
+    private static final Gson GSON = GsonRegistry.EXPOSED;
 
     public static final Metadata IMAGE = new Metadata("Image", true, false);
     public static final Metadata COMMAND = new Metadata("Command", false, false);
@@ -41,6 +41,8 @@ public class GetProfileMetadataExecutor implements RequestExecutor {
     public static final Metadata CONSTRAINTS = new Metadata("Constraints", false, false);
     public static final Metadata LOG_DRIVER = new Metadata("LogDriver", false, false);
     public static final Metadata LOG_DRIVER_OPTIONS = new Metadata("LogDriverOptions", false, false);
+    public static final Metadata WARM_POOL_SIZE = new NumberMetadata("WarmPoolSize", true);
+    public static final Metadata WARM_POOL_IDLE_TIMEOUT = new NumberMetadata("WarmPoolIdleTimeout", false);
 
     public static final List<Metadata> FIELDS = new ArrayList<>();
 
@@ -57,6 +59,8 @@ public class GetProfileMetadataExecutor implements RequestExecutor {
         FIELDS.add(CONSTRAINTS);
         FIELDS.add(LOG_DRIVER);
         FIELDS.add(LOG_DRIVER_OPTIONS);
+        FIELDS.add(WARM_POOL_SIZE);
+        FIELDS.add(WARM_POOL_IDLE_TIMEOUT);
     }
 
     @Override
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent.executors;
+
+import org.apache.commons.lang.StringUtils;
+
+public class NumberMetadata extends Metadata {
+    private final boolean allowZero;
+
+    public NumberMetadata(String key, boolean allowZero) {
+        super(key, false, false);
+        this.allowZero = allowZero;
+    }
+
+    @Override
+    protected String doValidate(String input) {
+        if (StringUtils.isBlank(input)) {
+            return null;
+        }
+
+        final String errorMessage = getKey() + (allowZero ? " must be a non-negative integer." : " must be a positive integer.");
+        try {
+            final int value = Integer.parseInt(input.trim());
+            if (value < 0 || (value == 0 && !allowZero)) {
+                return errorMessage;
+            }
+        } catch (NumberFormatException e) {
+            return errorMessage;
+        }
+        return null;
+    }
+}
@@ -22,6 +22,7 @@ import com.thoughtworks.go.plugin.api.response.DefaultGoPluginApiResponse;
 import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.stream.Collectors;
 
 import static cd.go.contrib.elasticagents.dockerswarm.elasticagent.DockerPlugin.LOG;
@@ -32,50 +33,151 @@ public class ServerPingRequestExecutor implements RequestExecutor {
     private final ServerPingRequest serverPingRequest;
     private final Map<String, DockerServices> clusterSpecificAgentInstances;
     private final PluginRequest pluginRequest;
+    private final boolean refreshClusters;
+    private final ElasticAgentIndex elasticAgentIndex;
+    private final ClusterTasks clusterTasks;
 
     public ServerPingRequestExecutor(ServerPingRequest serverPingRequest, Map<String, DockerServices> clusterSpecificAgentInstances, PluginRequest pluginRequest) {
+        this(serverPingRequest, clusterSpecificAgentInstances, pluginRequest, false);
+    }
+
+    public ServerPingRequestExecutor(ServerPingRequest serverPingRequest, Map<String, DockerServices> clusterSpecificAgentInstances, PluginRequest pluginRequest, boolean refreshClusters) {
+        this(serverPingRequest, clusterSpecificAgentInstances, pluginRequest, refreshClusters, ElasticAgentIndex.instance(), ClusterTasks.instance());
+    }
+
+    public ServerPingRequestExecutor(ServerPingRequest serverPingRequest, Map<String, DockerServices> clusterSpecificAgentInstances, PluginRequest pluginRequest, boolean refreshClusters, ElasticAgentIndex elasticAgentIndex, ClusterTasks clusterTasks) {
         this.serverPingRequest = serverPingRequest;
         this.clusterSpecificAgentInstances = clusterSpecificAgentInstances;
         this.pluginRequest = pluginRequest;
+        this.refreshClusters = refreshClusters;
+        this.elasticAgentIndex = elasticAgentIndex;
+        this.clusterTasks = clusterTasks;
+        clusterSpecificAgentInstances.forEach((uuid, dockerServices) -> dockerServices.servesCluster(uuid));
     }
 
+    /**
+     * Clusters are refreshed, then cleaned up, concurrently through {@link ClusterTasks}, with one deadline for both;
+     * a cluster that fails or is too slow is skipped without holding up the others.
+     * <p>
+     * The agents are listed from the server once per ping. The snapshot is split by the cluster owning each agent and
+     * kept up to date locally as agents are disabled and deleted, instead of being listed again for every cluster.
+     * Agents that no cluster knows of are only removed when every cluster could be processed, since the agents of a
+     * cluster that could not be reached would otherwise look missing.
+     * <p>
+     * Cluster profiles that connect to the same swarm share one {@link ClusterProfileProperties#uuid()}, and with it
+     * their {@link DockerServices} and agents, so only the first profile of each swarm is processed. Profiles of the
+     * same swarm with other settings are reported as a warning on the server health page.
+     */
     @Override
     public GoPluginApiResponse execute() throws Exception {
         LOG.info("[server-ping] Starting execute server ping request.");
-        List<ClusterProfileProperties> allClusterProfileProperties = serverPingRequest.allClusterProfileProperties();
+        List<ClusterProfileProperties> allClusterProfileProperties = onePerSwarm(serverPingRequest.allClusterProfileProperties());
+        Set<String> failedClusters = new HashSet<>();
+        ClusterTasks.Run run = clusterTasks.newRun();
+        if (refreshClusters) {
+            failedClusters.addAll(run.runForEach("server-ping refresh", allClusterProfileProperties,
+                    clusterProfileProperties -> instancesFor(clusterProfileProperties).refreshAll(clusterProfileProperties, true)));
+        }
 
+        Agents allAgents = pluginRequest.listAgents();
+        Map<String, Agents> agentsByCluster = partitionByCluster(allAgents);
+        Queue<Agent> deletedAgents = new ConcurrentLinkedQueue<>();
+
+        List<ClusterProfileProperties> clustersToCleanUp = allClusterProfileProperties.stream()
+                .filter(clusterProfileProperties -> !failedClusters.contains(clusterProfileProperties.uuid()))
+                .collect(Collectors.toList());
+        failedClusters.addAll(run.runForEach("server-ping cleanup", clustersToCleanUp, clusterProfileProperties -> {
+            Agents clusterAgents = agentsByCluster.getOrDefault(clusterProfileProperties.uuid(), new Agents());
+            deletedAgents.addAll(performCleanupForACluster(clusterProfileProperties, instancesFor(clusterProfileProperties), clusterAgents));
+        }));
+        allAgents.removeAll(deletedAgents);
+
+        if (failedClusters.isEmpty()) {
+            CheckForPossiblyMissingAgents(allAgents);
+        } else {
+            LOG.warn("[server-ping] Not looking for missing agents, clusters " + failedClusters + " could not be processed.");
+        }
+        return DefaultGoPluginApiResponse.success("");
+    }
+
+    /**
+     * Keeps the first profile of every swarm, and warns on the server health page about later profiles of the same
+     * swarm whose settings differ, since those settings are not used to clean up the agents of the swarm.
+     */
+    private List<ClusterProfileProperties> onePerSwarm(List<ClusterProfileProperties> allClusterProfileProperties) {
+        Map<String, ClusterProfileProperties> clusters = new LinkedHashMap<>();
+        List<Map<String, String>> warnings = new ArrayList<>();
         for (ClusterProfileProperties clusterProfileProperties : allClusterProfileProperties) {
-            performCleanupForACluster(clusterProfileProperties, clusterSpecificAgentInstances.get(clusterProfileProperties.uuid()));
+            ClusterProfileProperties first = clusters.putIfAbsent(clusterProfileProperties.uuid(), clusterProfileProperties);
+            if (first != null && !sameSettings(first, clusterProfileProperties)) {
+                String warning = "Cluster profiles for the docker URI " + first.getDockerURI() + " have different auto-register timeouts, maximum containers"
+                        + " or credentials. They share the agents of the swarm, which are cleaned up with the settings of the first profile only.";
+                LOG.warn("[server-ping] " + warning);
+                Map<String, String> message = new HashMap<>();
+                message.put("type", "warning");
+                message.put("message", warning);
+                warnings.add(message);
+            }
+        }
+        if (!warnings.isEmpty()) {
+            pluginRequest.addServerHealthMessage(warnings);
         }
+        return new ArrayList<>(clusters.values());
+    }
 
-        CheckForPossiblyMissingAgents();
-        return DefaultGoPluginApiResponse.success("");
+    private static boolean sameSettings(ClusterProfileProperties first, ClusterProfileProperties other) {
+        return Objects.equals(first.getAutoRegisterPeriod(), other.getAutoRegisterPeriod())
+                && Objects.equals(first.getMaxDockerContainers(), other.getMaxDockerContainers())
+                && first.credentialsDigest().equals(other.credentialsDigest());
     }
 
-    private void performCleanupForACluster(ClusterProfileProperties clusterProfileProperties, DockerServices dockerServices) throws Exception {
-        Agents allAgents = pluginRequest.listAgents();
-        Agents agentsToDisable = dockerServices.instancesCreatedAfterTimeout(clusterProfileProperties, allAgents);
-        disableIdleAgents(agentsToDisable);
+    private DockerServices instancesFor(ClusterProfileProperties clusterProfileProperties) {
+        DockerServices dockerServices = clusterSpecificAgentInstances.get(clusterProfileProperties.uuid());
+        if (dockerServices == null) {
+            throw new IllegalStateException("No agent instances for cluster " + clusterProfileProperties.uuid());
+        }
+        return dockerServices;
+    }
+
+    private Map<String, Agents> partitionByCluster(Agents allAgents) {
+        Map<String, Agents> agentsByCluster = new HashMap<>();
+        for (Agent agent : allAgents.agents()) {
+            String clusterUuid = clusterOf(agent);
+            if (clusterUuid != null) {
+                agentsByCluster.computeIfAbsent(clusterUuid, uuid -> new Agents()).add(agent);
+            }
+        }
+        return agentsByCluster;
+    }
+
+    private String clusterOf(Agent agent) {
+        String clusterUuid = elasticAgentIndex.clusterOf(agent.elasticAgentId());
+        return clusterUuid != null && clusterSpecificAgentInstances.containsKey(clusterUuid) ? clusterUuid : null;
+    }
+
+    private Collection<Agent> performCleanupForACluster(ClusterProfileProperties clusterProfileProperties, DockerServices dockerServices, Agents clusterAgents) throws Exception {
+        Agents agentsToDisable = dockerServices.instancesCreatedAfterTimeout(clusterProfileProperties, clusterAgents);
+        clusterAgents.markDisabled(disableIdleAgents(agentsToDisable));
 
-        allAgents = pluginRequest.listAgents();
-        terminateDisabledAgents(allAgents, clusterProfileProperties, dockerServices);
+        Collection<Agent> deletedAgents = terminateDisabledAgents(clusterAgents, clusterProfileProperties, dockerServices);
 
-        dockerServices.terminateUnregisteredInstances(clusterProfileProperties, allAgents);
+        dockerServices.terminateUnregisteredInstances(clusterProfileProperties, clusterAgents);
+        return deletedAgents;
     }
 
-    private void terminateDisabledAgents(Agents agents, ClusterProfileProperties clusterProfileProperties, DockerServices dockerServices) throws Exception {
+    private Collection<Agent> terminateDisabledAgents(Agents agents, ClusterProfileProperties clusterProfileProperties, DockerServices dockerServices) throws Exception {
         Collection<Agent> toBeDeleted = agents.findInstancesToTerminate();
 
         for (Agent agent : toBeDeleted) {
             dockerServices.terminate(agent.elasticAgentId(), clusterProfileProperties);
         }
         pluginRequest.deleteAgents(toBeDeleted);
+        agents.removeAll(toBeDeleted);
+        return toBeDeleted;
     }
 
-    private void CheckForPossiblyMissingAgents() throws Exception {
-        Collection<Agent> allAgents = pluginRequest.listAgents().agents();
-        List<Agent> missingAgents = allAgents.stream().filter(agent -> clusterSpecificAgentInstances.values().stream()
-                .noneMatch(instances -> instances.hasInstance(agent.elasticAgentId()))).collect(Collectors.toList());
+    private void CheckForPossiblyMissingAgents(Agents allAgents) throws Exception {
+        List<Agent> missingAgents = allAgents.agents().stream().filter(agent -> clusterOf(agent) == null).collect(Collectors.toList());
 
         if (!missingAgents.isEmpty()) {
             List<String> missingAgentIds = missingAgents.stream().map(Agent::elasticAgentId).collect(Collectors.toList());
@@ -85,8 +187,10 @@ public class ServerPingRequestExecutor implements RequestExecutor {
         }
     }
 
-    private void disableIdleAgents(Agents agents) throws ServerRequestFailedException {
-        pluginRequest.disableAgents(agents.findInstancesToDisable());
+    private Collection<Agent> disableIdleAgents(Agents agents) throws ServerRequestFailedException {
+        Collection<Agent> toBeDisabled = agents.findInstancesToDisable();
+        pluginRequest.disableAgents(toBeDisabled);
+        return toBeDisabled;
     }
 
 }
@@ -45,11 +45,16 @@ public class ShouldAssignWorkRequestExecutor implements RequestExecutor {
             return DefaultGoPluginApiResponse.success("false");
         }
 
-        if (request.jobIdentifier() != null && request.jobIdentifier().getJobId().equals(instance.jobIdentifier().getJobId())) {
+        if (request.jobIdentifier() != null && instance.jobIdentifier() != null && request.jobIdentifier().getJobId().equals(instance.jobIdentifier().getJobId())) {
             LOG.info(format("[should-assign-work] Job with identifier {0} can be assigned to an agent {1}.", request.jobIdentifier(), instance.name()));
             return DefaultGoPluginApiResponse.success("true");
         }
 
+        if (request.jobIdentifier() != null && agentInstances.bindPooledAgent(instance.name(), request)) {
+            LOG.info(format("[should-assign-work] Job with identifier {0} can be assigned to warm pool agent {1}.", request.jobIdentifier(), instance.name()));
+            return DefaultGoPluginApiResponse.success("true");
+        }
+
         LOG.info(format("[should-assign-work] Job with identifier {0} can not be assigned to an agent {1}.", request.jobIdentifier(), instance.name()));
         return DefaultGoPluginApiResponse.success("false");
     }
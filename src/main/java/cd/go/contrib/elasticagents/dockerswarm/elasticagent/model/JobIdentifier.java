@@ -1,7 +1,13 @@
 package cd.go.contrib.elasticagents.dockerswarm.elasticagent.model;
 
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.GsonRegistry;
+import com.google.gson.TypeAdapter;
 import com.google.gson.annotations.Expose;
 import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
 
 import static cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.Util.GSON;
 import static java.lang.String.format;
@@ -149,4 +155,58 @@ public class JobIdentifier {
     public static JobIdentifier fromJson(String json) {
         return GSON.fromJson(json, JobIdentifier.class);
     }
+
+    /**
+     * Reads and writes job identifiers without reflection. The JSON written is the one the services of this plugin
+     * are labelled and filtered with, so the properties keep their declaration order.
+     */
+    public static class JsonAdapter extends TypeAdapter<JobIdentifier> {
+        @Override
+        public void write(JsonWriter out, JobIdentifier jobIdentifier) throws IOException {
+            out.beginObject();
+            out.name("pipeline_name").value(jobIdentifier.pipelineName);
+            out.name("pipeline_counter").value(jobIdentifier.pipelineCounter);
+            out.name("pipeline_label").value(jobIdentifier.pipelineLabel);
+            out.name("stage_name").value(jobIdentifier.stageName);
+            out.name("stage_counter").value(jobIdentifier.stageCounter);
+            out.name("job_name").value(jobIdentifier.jobName);
+            out.name("job_id").value(jobIdentifier.jobId);
+            out.endObject();
+        }
+
+        @Override
+        public JobIdentifier read(JsonReader in) throws IOException {
+            final JobIdentifier jobIdentifier = new JobIdentifier();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "pipeline_name":
+                        jobIdentifier.pipelineName = GsonRegistry.nextString(in);
+                        break;
+                    case "pipeline_counter":
+                        jobIdentifier.pipelineCounter = GsonRegistry.nextLong(in);
+                        break;
+                    case "pipeline_label":
+                        jobIdentifier.pipelineLabel = GsonRegistry.nextString(in);
+                        break;
+                    case "stage_name":
+                        jobIdentifier.stageName = GsonRegistry.nextString(in);
+                        break;
+                    case "stage_counter":
+                        jobIdentifier.stageCounter = GsonRegistry.nextString(in);
+                        break;
+                    case "job_name":
+                        jobIdentifier.jobName = GsonRegistry.nextString(in);
+                        break;
+                    case "job_id":
+                        jobIdentifier.jobId = GsonRegistry.nextLong(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return jobIdentifier;
+        }
+    }
 }
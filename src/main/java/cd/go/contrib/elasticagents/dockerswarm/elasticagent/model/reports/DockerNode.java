@@ -19,15 +19,20 @@ package cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.reports;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.Util;
 import com.spotify.docker.client.messages.swarm.ManagerStatus;
 import com.spotify.docker.client.messages.swarm.Node;
+import com.spotify.docker.client.messages.swarm.Task;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.*;
 
 import static org.apache.commons.lang.StringUtils.capitalize;
 import static org.apache.commons.lang.StringUtils.equalsIgnoreCase;
 
 public class DockerNode {
+    /**
+     * Prefixes the id of a node to make the elastic agent id of an agent status report request that asks for the
+     * tasks of the node, as linked to from the cluster status report.
+     */
+    public static final String STATUS_REPORT_ID_PREFIX = "node:";
+
     private final String id;
     private final String hostname;
     private final String role;
@@ -38,10 +43,14 @@ public class DockerNode {
     private final String architecture;
     private final String memory;
     private final Long cpus;
+    private final long memoryBytes;
+    private final long nanoCpus;
     private final String state;
     private final String nodeIP;
     private final String managerStatus;
     private final List<DockerTask> tasks = new ArrayList<>();
+    private final SortedMap<String, Integer> taskCountsByState = new TreeMap<>();
+    private final NodeReservations agentReservations;
 
     public DockerNode(Node node) {
         id = node.id();
@@ -58,8 +67,11 @@ public class DockerNode {
         architecture = node.description().platform().architecture();
         os = node.description().platform().os();
 
-        memory = Util.readableSize(node.description().resources().memoryBytes());
-        cpus = node.description().resources().nanoCpus() / 1000000000;
+        memoryBytes = node.description().resources().memoryBytes();
+        nanoCpus = node.description().resources().nanoCpus();
+        memory = Util.readableSize(memoryBytes);
+        cpus = nanoCpus / 1000000000;
+        agentReservations = newReservations();
     }
 
     private String getManagerStatus(ManagerStatus managerStatus) {
@@ -133,8 +145,42 @@ public class DockerNode {
         return managerStatus;
     }
 
+    public String getStatusReportId() {
+        return STATUS_REPORT_ID_PREFIX + id;
+    }
+
     public void add(DockerTask dockerTask) {
         this.tasks.add(dockerTask);
+        taskCountsByState.merge(dockerTask.getState() == null ? "Unknown" : dockerTask.getState(), 1, Integer::sum);
+    }
+
+    /**
+     * Adds the resources reserved by a task of the plugin to those reserved by the agents on the node.
+     */
+    public void reserve(Task task) {
+        agentReservations.add(task);
+    }
+
+    /**
+     * @return empty reservations against the resources of this node, to add up the tasks of all services on it
+     */
+    public NodeReservations newReservations() {
+        return new NodeReservations(memoryBytes, nanoCpus);
+    }
+
+    public int getTaskCount() {
+        return tasks.size();
+    }
+
+    public SortedMap<String, Integer> getTaskCountsByState() {
+        return Collections.unmodifiableSortedMap(taskCountsByState);
+    }
+
+    /**
+     * @return the resources reserved by the running agents of the plugin on the node
+     */
+    public NodeReservations getAgentReservations() {
+        return agentReservations;
     }
 
     public List<DockerTask> getTasks() {
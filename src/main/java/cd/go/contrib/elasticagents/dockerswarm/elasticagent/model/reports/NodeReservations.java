@@ -0,0 +1,71 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.reports;
+
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.Util;
+import com.spotify.docker.client.messages.swarm.Resources;
+import com.spotify.docker.client.messages.swarm.Task;
+
+/**
+ * The memory and CPUs reserved on a node by the tasks added to it, and the share of the resources of the node they
+ * take up, which the swarm will not schedule other tasks on.
+ */
+public class NodeReservations {
+    private final long availableMemoryBytes;
+    private final long availableNanoCpus;
+    private long memoryBytes;
+    private long nanoCpus;
+
+    NodeReservations(long availableMemoryBytes, long availableNanoCpus) {
+        this.availableMemoryBytes = availableMemoryBytes;
+        this.availableNanoCpus = availableNanoCpus;
+    }
+
+    /**
+     * Adds the resources reserved by the task, if it is meant to be running on the node.
+     */
+    public void add(Task task) {
+        if (!"running".equals(task.desiredState()) || task.spec().resources() == null) {
+            return;
+        }
+        final Resources reservations = task.spec().resources().reservations();
+        if (reservations != null) {
+            memoryBytes += reservations.memoryBytes() == null ? 0 : reservations.memoryBytes();
+            nanoCpus += reservations.nanoCpus() == null ? 0 : reservations.nanoCpus();
+        }
+    }
+
+    public String getMemory() {
+        return Util.readableSize(memoryBytes);
+    }
+
+    public int getMemoryPercent() {
+        return percent(memoryBytes, availableMemoryBytes);
+    }
+
+    public double getCpus() {
+        return nanoCpus / 1e9;
+    }
+
+    public int getCpusPercent() {
+        return percent(nanoCpus, availableNanoCpus);
+    }
+
+    private static int percent(long reserved, long available) {
+        return available <= 0 ? 0 : (int) Math.round(100.0 * reserved / available);
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.reports;
+
+/**
+ * The tasks of one node of a swarm, as the cluster status report drills down into them, from the same snapshot of the
+ * swarm as the cluster status report, along with the resources reserved by the running tasks of all services on the
+ * node.
+ */
+public class NodeStatusReport {
+    private final DockerNode node;
+    private final NodeReservations reservations;
+    private final long snapshotAgeSeconds;
+
+    public NodeStatusReport(DockerNode node, NodeReservations reservations, long snapshotAgeSeconds) {
+        this.node = node;
+        this.reservations = reservations;
+        this.snapshotAgeSeconds = snapshotAgeSeconds;
+    }
+
+    public DockerNode getNode() {
+        return node;
+    }
+
+    public NodeReservations getReservations() {
+        return reservations;
+    }
+
+    public long getSnapshotAgeSeconds() {
+        return snapshotAgeSeconds;
+    }
+}
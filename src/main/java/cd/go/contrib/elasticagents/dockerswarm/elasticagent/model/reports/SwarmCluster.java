@@ -17,6 +17,10 @@
 package cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.reports;
 
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.Constants;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.Metrics;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.Util;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.spotify.docker.client.DockerClient;
 import com.spotify.docker.client.exceptions.DockerException;
 import com.spotify.docker.client.messages.swarm.Service;
@@ -24,24 +28,49 @@ import com.spotify.docker.client.messages.swarm.Task;
 import org.apache.commons.lang.StringUtils;
 
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static cd.go.contrib.elasticagents.dockerswarm.elasticagent.DockerPlugin.LOG;
 import static java.util.stream.Collectors.toList;
-import static java.util.stream.Collectors.toMap;
 
 public class SwarmCluster {
+    /**
+     * How many nodes the cluster status report lists on each of its pages. The report summarises each node on one
+     * row, the tasks of a node are listed by its own report.
+     */
+    public static final int NODES_PER_PAGE = 50;
+
     private final List<DockerNode> nodes;
+    private final Date fetchedAt;
+    private final List<Metrics.Snapshot> metrics;
 
     public SwarmCluster(DockerClient dockerClient) throws DockerException, InterruptedException {
+        this(dockerClient, false);
+    }
+
+    /**
+     * @param runningTasksOnly whether to leave out the tasks that docker keeps as the history of a service, whose
+     *                         desired state is no longer running
+     */
+    public SwarmCluster(DockerClient dockerClient, boolean runningTasksOnly) throws DockerException, InterruptedException {
+        fetchedAt = new Date();
         nodes = dockerClient.listNodes().stream().map(node -> new DockerNode(node)).collect(toList());
+        metrics = Collections.emptyList();
         LOG.info("Running docker swarm nodes " + nodes.size());
-        fetchTasks(dockerClient);
+        fetchTasks(dockerClient, runningTasksOnly);
         sortNodes();
     }
 
+    private SwarmCluster(SwarmCluster swarmCluster, List<Metrics.Snapshot> metrics) {
+        this.nodes = swarmCluster.nodes;
+        this.fetchedAt = swarmCluster.fetchedAt;
+        this.metrics = metrics;
+    }
+
     private void sortNodes() {
         nodes.sort((node1, node2) -> {
             final int leaderCompareResult = Boolean.compare(node2.isLeader(), node1.isLeader());
@@ -56,28 +85,44 @@ public class SwarmCluster {
         });
     }
 
-    private void fetchTasks(DockerClient dockerClient) throws DockerException, InterruptedException {
-        final Map<String, DockerNode> dockerNodeMap = nodes.stream().distinct().collect(toMap(DockerNode::getId, node -> node));
-        final List<Task> tasks = dockerClient.listTasks();
-        LOG.info("Running tasks " + tasks.size());
-        final Map<String, Service> serviceIdToService = serviceIdToServiceMap(dockerClient);
+    /**
+     * Lists the tasks of the services of the plugin with a single request, filtered by the label of those services
+     * rather than sent once per service, so the tasks of other services of a shared swarm are never fetched. The
+     * reservations of a node only add up the running tasks of the plugin; the node status report adds up those of all
+     * services on its one node.
+     */
+    private void fetchTasks(DockerClient dockerClient, boolean runningTasksOnly) throws DockerException, InterruptedException {
+        final Map<String, DockerNode> dockerNodeMap = Maps.newHashMapWithExpectedSize(nodes.size());
+        for (DockerNode node : nodes) {
+            dockerNodeMap.putIfAbsent(node.getId(), node);
+        }
+        final List<Service> services = dockerClient.listServices(Util.servicesCreatedByPlugin());
+        final Map<String, Service> pluginServices = new HashMap<>();
+        for (Service service : services == null ? Collections.<Service>emptyList() : services) {
+            if (createdByPlugin(service)) {
+                pluginServices.put(service.id(), service);
+            }
+        }
 
+        final List<Task> tasks = dockerClient.listTasks(Util.tasksCreatedByPlugin(runningTasksOnly));
+        int taskCount = 0;
         for (Task task : tasks) {
-            final Service service = serviceIdToService.get(task.serviceId());
-            if (service == null || !createdByPlugin(service)) {
+            final Service service = pluginServices.get(task.serviceId());
+            if (service == null) {
                 continue;
             }
-
-            final DockerTask dockerTask = new DockerTask(task, service);
-            final DockerNode dockerNode = dockerNodeMap.get(dockerTask.getNodeId());
+            final DockerNode dockerNode = dockerNodeMap.get(task.nodeId());
             if (dockerNode != null) {
-                dockerNode.add(dockerTask);
+                dockerNode.add(new DockerTask(task, service));
+                dockerNode.reserve(task);
             }
+            taskCount++;
         }
+        LOG.info("Running tasks " + taskCount);
     }
 
     private boolean createdByPlugin(Service service) {
-        final String createdBy = service.spec().labels().get(Constants.CREATED_BY_LABEL_KEY);
+        final String createdBy = service.spec().labels() == null ? null : service.spec().labels().get(Constants.CREATED_BY_LABEL_KEY);
         if (StringUtils.isBlank(createdBy)) {
             return false;
         }
@@ -85,20 +130,50 @@ public class SwarmCluster {
         return createdBy.equals(Constants.PLUGIN_ID);
     }
 
-    private Map<String, Service> serviceIdToServiceMap(DockerClient dockerClient) throws DockerException, InterruptedException {
-        final List<Service> services = dockerClient.listServices();
-        if (services == null || services.isEmpty()) {
-            return Collections.emptyMap();
-        }
+    public List<DockerNode> getNodes() {
+        return nodes;
+    }
 
-        final HashMap<String, Service> serviceIdToService = new HashMap<>();
-        for (Service service : services) {
-            serviceIdToService.put(service.id(), service);
+    public List<List<DockerNode>> getNodePages() {
+        return Lists.partition(nodes, NODES_PER_PAGE);
+    }
+
+    /**
+     * @return the node with the given id, or null if the swarm had no such node when it was listed
+     */
+    public DockerNode getNode(String id) {
+        for (DockerNode node : nodes) {
+            if (node.getId().equals(id)) {
+                return node;
+            }
         }
-        return serviceIdToService;
+        return null;
     }
 
-    public List<DockerNode> getNodes() {
-        return nodes;
+    public int getTaskCount() {
+        return nodes.stream().mapToInt(DockerNode::getTaskCount).sum();
+    }
+
+    public List<Metrics.Snapshot> getMetrics() {
+        return metrics;
+    }
+
+    public Date getFetchedAt() {
+        return fetchedAt;
+    }
+
+    /**
+     * @return how many seconds ago the nodes and tasks of the swarm were listed
+     */
+    public long getSnapshotAgeSeconds() {
+        return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - fetchedAt.getTime());
+    }
+
+    /**
+     * @return this snapshot of the swarm with the given plugin metrics, leaving this one, which may be shared by
+     * several reports, untouched
+     */
+    public SwarmCluster withMetrics(List<Metrics.Snapshot> metrics) {
+        return new SwarmCluster(this, metrics);
     }
 }
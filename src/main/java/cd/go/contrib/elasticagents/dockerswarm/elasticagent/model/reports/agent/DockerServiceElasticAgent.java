@@ -3,7 +3,6 @@ package cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.reports.agent
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.JobIdentifier;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.Util;
 import com.spotify.docker.client.DockerClient;
-import com.spotify.docker.client.LogStream;
 import com.spotify.docker.client.exceptions.DockerException;
 import com.spotify.docker.client.messages.swarm.Resources;
 import com.spotify.docker.client.messages.swarm.Service;
@@ -19,7 +18,7 @@ public class DockerServiceElasticAgent {
     private String id;
     private String name;
     private Date createdAt;
-    private String logs;
+    private ServiceLogs logs;
     private String limits;
     private String reservations;
     private String image;
@@ -45,6 +44,10 @@ public class DockerServiceElasticAgent {
     }
 
     public String getLogs() {
+        return logs.getText();
+    }
+
+    public ServiceLogs getServiceLogs() {
         return logs;
     }
 
@@ -93,6 +96,13 @@ public class DockerServiceElasticAgent {
     }
 
     public static DockerServiceElasticAgent fromService(Service service, DockerClient client) throws DockerException, InterruptedException {
+        return fromService(service, client, null);
+    }
+
+    /**
+     * @param logsPage the page of the logs to show, or null for the most recent one
+     */
+    public static DockerServiceElasticAgent fromService(Service service, DockerClient client, ServiceLogs.Page logsPage) throws DockerException, InterruptedException {
         DockerServiceElasticAgent agent = new DockerServiceElasticAgent();
 
         agent.id = service.id();
@@ -100,9 +110,7 @@ public class DockerServiceElasticAgent {
         agent.createdAt = service.createdAt();
         agent.jobIdentifier = JobIdentifier.fromJson(service.spec().labels().get(JOB_IDENTIFIER_LABEL_KEY));
 
-        LogStream logStream = client.serviceLogs(service.id(), DockerClient.LogsParam.stdout(), DockerClient.LogsParam.stderr());
-        agent.logs = logStream.readFully();
-        logStream.close();
+        agent.logs = logsPage == null ? ServiceLogs.read(client, service.id()) : ServiceLogs.read(client, service.id(), logsPage);
 
         TaskSpec taskSpec = service.spec().taskTemplate();
 
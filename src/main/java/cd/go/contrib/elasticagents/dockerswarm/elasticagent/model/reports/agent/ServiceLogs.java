@@ -0,0 +1,271 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.reports.agent;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.LogMessage;
+import com.spotify.docker.client.LogStream;
+import com.spotify.docker.client.exceptions.DockerException;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A page of the logs of a service, read as a stream into a ring buffer bounded by a number of lines and of bytes, so
+ * that the status report of a chatty agent does not have to hold everything it ever logged.
+ * <p>
+ * The first page has the most recent lines logged within the time window. {@link #more()} is the page of the lines
+ * logged before those, until the start of the logs or of the window is reached. Docker can only be asked for the last
+ * lines of a service, so reading the page {@code n} streams the last {@code (n + 1)} pages, plus one line that only
+ * tells whether there are more, and drops the newest {@code n} pages; a page that grows past its byte limit loses its
+ * oldest lines first, and a line cut to the limit is cut before its last whole character. Only the first
+ * {@link #MAX_PAGES} pages can be read, which bounds what a single request streams and holds in memory.
+ * <p>
+ * The agent status report links to the older page with {@link #getMoreStatusReportId()}, which is read back by
+ * {@link #serviceIdOf(String)} and {@link #pageOf(String)}.
+ */
+public class ServiceLogs {
+    public static final int PAGE_LINES = 1000;
+    public static final int PAGE_BYTES = 1024 * 1024;
+    public static final long WINDOW_HOURS = 24;
+    public static final int MAX_PAGES = 5;
+    public static final String STATUS_REPORT_ID_PREFIX = "logs:";
+
+    private final String serviceId;
+    private final Page page;
+    private final String text;
+    private final boolean truncated;
+    private final boolean hasMore;
+
+    private ServiceLogs(String serviceId, Page page, String text, boolean truncated, boolean hasMore) {
+        this.serviceId = serviceId;
+        this.page = page;
+        this.text = text;
+        this.truncated = truncated;
+        this.hasMore = hasMore;
+    }
+
+    public static ServiceLogs read(DockerClient client, String serviceId) throws DockerException, InterruptedException {
+        return read(client, serviceId, Page.first(PAGE_LINES, PAGE_BYTES, System.currentTimeMillis() - TimeUnit.HOURS.toMillis(WINDOW_HOURS)));
+    }
+
+    public static ServiceLogs read(DockerClient client, String serviceId, Page page) throws DockerException, InterruptedException {
+        final int tail = (page.number + 1) * page.lines;
+        try (LogStream logStream = client.serviceLogs(serviceId,
+                DockerClient.LogsParam.stdout(),
+                DockerClient.LogsParam.stderr(),
+                DockerClient.LogsParam.tail(tail + 1),
+                DockerClient.LogsParam.since((int) TimeUnit.MILLISECONDS.toSeconds(page.sinceMillis)))) {
+            final RingBuffer buffer = new RingBuffer(tail, (page.number + 1) * page.bytes, page.bytes);
+            buffer.read(logStream);
+
+            final int newerLines = page.number * page.lines;
+            return new ServiceLogs(serviceId, page, buffer.text(newerLines), buffer.truncated, buffer.linesRead > tail);
+        }
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return whether lines of this page were left out or cut short to keep it within its byte limit
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    public Page getPage() {
+        return page;
+    }
+
+    /**
+     * @return the page of the lines logged before those of this page, or null if there are none or it would be past
+     * the last page that can be read
+     */
+    public Page more() {
+        return hasMore && page.number + 1 < MAX_PAGES ? page.next() : null;
+    }
+
+    /**
+     * @return the id of the agent status report of the page returned by {@link #more()}, or null if there is none
+     */
+    public String getMoreStatusReportId() {
+        final Page more = more();
+        return more == null ? null : STATUS_REPORT_ID_PREFIX + more.number + ":" + more.sinceMillis + ":" + serviceId;
+    }
+
+    public static String serviceIdOf(String statusReportId) {
+        return parse(statusReportId)[2];
+    }
+
+    public static Page pageOf(String statusReportId) {
+        final String[] parts = parse(statusReportId);
+        final int number;
+        final long sinceMillis;
+        try {
+            number = Integer.parseInt(parts[0]);
+            sinceMillis = Long.parseLong(parts[1]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid logs status report id `" + statusReportId + "`.", e);
+        }
+        if (number < 0 || number >= MAX_PAGES) {
+            throw new IllegalArgumentException("Invalid logs status report id `" + statusReportId + "`. Only the first " + MAX_PAGES + " pages of logs can be shown.");
+        }
+        return new Page(number, PAGE_LINES, PAGE_BYTES, sinceMillis);
+    }
+
+    private static String[] parse(String statusReportId) {
+        final String[] parts = StringUtils.removeStart(statusReportId, STATUS_REPORT_ID_PREFIX).split(":", 3);
+        if (!StringUtils.startsWith(statusReportId, STATUS_REPORT_ID_PREFIX) || parts.length != 3 || parts[2].isEmpty()) {
+            throw new IllegalArgumentException("Invalid logs status report id `" + statusReportId + "`.");
+        }
+        return parts;
+    }
+
+    public static class Page {
+        private final int number;
+        private final int lines;
+        private final int bytes;
+        private final long sinceMillis;
+
+        private Page(int number, int lines, int bytes, long sinceMillis) {
+            this.number = number;
+            this.lines = lines;
+            this.bytes = bytes;
+            this.sinceMillis = sinceMillis;
+        }
+
+        public static Page first(int lines, int bytes, long sinceMillis) {
+            return new Page(0, lines, bytes, sinceMillis);
+        }
+
+        public Page next() {
+            return new Page(number + 1, lines, bytes, sinceMillis);
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        public int getLines() {
+            return lines;
+        }
+    }
+
+    private static class RingBuffer {
+        private final ArrayDeque<byte[]> lines = new ArrayDeque<>();
+        private final int maxLines;
+        private final long maxBytes;
+        private final int maxLineBytes;
+        private final ByteArrayOutputStream partialLine = new ByteArrayOutputStream();
+        private long bytes;
+        private int linesRead;
+        private boolean truncated;
+        private boolean lineCut;
+
+        private RingBuffer(int maxLines, long maxBytes, int maxLineBytes) {
+            this.maxLines = maxLines;
+            this.maxBytes = maxBytes;
+            this.maxLineBytes = maxLineBytes;
+        }
+
+        private void read(Iterator<LogMessage> logStream) {
+            while (logStream.hasNext()) {
+                final ByteBuffer content = logStream.next().content();
+                while (content.hasRemaining()) {
+                    final byte b = content.get();
+                    if (b == '\n') {
+                        partialLine.write(b);
+                        endLine();
+                    } else if (partialLine.size() < maxLineBytes - 1) {
+                        partialLine.write(b);
+                    } else {
+                        truncated = true;
+                        lineCut = true;
+                    }
+                }
+            }
+            if (partialLine.size() > 0) {
+                endLine();
+            }
+        }
+
+        private void endLine() {
+            final byte[] line = lineCut ? withoutCutCharacter(partialLine.toByteArray()) : partialLine.toByteArray();
+            partialLine.reset();
+            lineCut = false;
+            linesRead++;
+
+            lines.addLast(line);
+            bytes += line.length;
+            while (lines.size() > maxLines || bytes > maxBytes) {
+                if (lines.size() <= maxLines) {
+                    truncated = true;
+                }
+                bytes -= lines.removeFirst().length;
+            }
+        }
+
+        // drops the bytes of a UTF-8 character left incomplete at the end of a cut line, keeping its line break
+        private static byte[] withoutCutCharacter(byte[] line) {
+            final int end = line.length > 0 && line[line.length - 1] == '\n' ? line.length - 1 : line.length;
+            int start = end - 1;
+            while (start > 0 && (line[start] & 0xC0) == 0x80) {
+                start--;
+            }
+            if (start < 0 || end - start >= utf8Length(line[start])) {
+                return line;
+            }
+            final byte[] whole = new byte[start + line.length - end];
+            System.arraycopy(line, 0, whole, 0, start);
+            System.arraycopy(line, end, whole, start, line.length - end);
+            return whole;
+        }
+
+        private static int utf8Length(byte lead) {
+            if ((lead & 0xE0) == 0xC0) {
+                return 2;
+            } else if ((lead & 0xF0) == 0xE0) {
+                return 3;
+            } else if ((lead & 0xF8) == 0xF0) {
+                return 4;
+            }
+            return 1;
+        }
+
+        private String text(int newerLines) {
+            final int count = Math.max(0, lines.size() - newerLines);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final Iterator<byte[]> iterator = lines.iterator();
+            for (int i = 0; i < count; i++) {
+                final byte[] line = iterator.next();
+                out.write(line, 0, line.length);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
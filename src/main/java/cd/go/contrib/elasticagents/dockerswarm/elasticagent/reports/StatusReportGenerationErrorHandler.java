@@ -18,7 +18,6 @@ package cd.go.contrib.elasticagents.dockerswarm.elasticagent.reports;
 
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.builders.PluginStatusReportViewBuilder;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.reports.StatusReportGenerationError;
-import com.google.gson.JsonObject;
 import com.thoughtworks.go.plugin.api.response.DefaultGoPluginApiResponse;
 import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 import freemarker.template.Template;
@@ -32,12 +31,7 @@ public class StatusReportGenerationErrorHandler {
         try {
             LOG.error(format("Error while generating status report: {0}", e.getMessage()), e);
             final Template template = builder.getTemplate("error.template.ftlh");
-            final String errorView = builder.build(template, new StatusReportGenerationError(e));
-
-            final JsonObject responseJSON = new JsonObject();
-            responseJSON.addProperty("view", errorView);
-
-            return DefaultGoPluginApiResponse.success(responseJSON.toString());
+            return DefaultGoPluginApiResponse.success(builder.buildView(template, new StatusReportGenerationError(e)));
         } catch (Exception ex) {
             LOG.error(format("Failed to generate error report: {0}", e.getMessage()), e);
             return DefaultGoPluginApiResponse.error(format("Failed to generate error report: {0}.", e.toString()));
@@ -49,4 +49,8 @@ public class StatusReportGenerationException extends RuntimeException {
     public static StatusReportGenerationException noRunningService(String elasticAgentId) {
         return new StatusReportGenerationException("Service is not running.", format(MISSING_SERVICE, "elastic agent id", elasticAgentId));
     }
+
+    public static StatusReportGenerationException noNode(String nodeId) {
+        return new StatusReportGenerationException("Node is not in the swarm.", format("Can not find a node with the id '%s' in the swarm", nodeId));
+    }
 }
@@ -2,8 +2,10 @@ package cd.go.contrib.elasticagents.dockerswarm.elasticagent.requests;
 
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.AgentInstances;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.ClusterProfileProperties;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.DockerClientFactory;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.DockerService;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.PluginRequest;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.builders.PluginStatusReportViewBuilder;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.executors.AgentStatusReportExecutor;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.JobIdentifier;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.Util;
@@ -56,6 +58,10 @@ public class AgentStatusReportRequest {
         return new AgentStatusReportExecutor(this, pluginRequest, agentInstances);
     }
 
+    public AgentStatusReportExecutor executor(PluginRequest pluginRequest, AgentInstances<DockerService> agentInstances, DockerClientFactory dockerClientFactory) throws IOException {
+        return new AgentStatusReportExecutor(this, pluginRequest, agentInstances, dockerClientFactory, PluginStatusReportViewBuilder.instance());
+    }
+
     @Override
     public String toString() {
         return "AgentStatusReportRequest{" +
@@ -2,17 +2,14 @@ package cd.go.contrib.elasticagents.dockerswarm.elasticagent.requests;
 
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.RequestExecutor;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.executors.ClusterProfileValidateRequestExecutor;
-import com.google.common.reflect.TypeToken;
-import com.google.gson.FieldNamingPolicy;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.GsonRegistry;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 
-import java.lang.reflect.Type;
 import java.util.HashMap;
 import java.util.Map;
 
 public class ClusterProfileValidateRequest extends HashMap<String, String>{
-    public static final Gson GSON = new GsonBuilder().setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES).create();
+    public static final Gson GSON = GsonRegistry.SNAKE_CASE;
     private Map<String, String> properties;
 
     public ClusterProfileValidateRequest(Map<String, String> properties) {
@@ -24,9 +21,7 @@ public class ClusterProfileValidateRequest extends HashMap<String, String>{
     }
 
     public static ClusterProfileValidateRequest fromJSON(String json) {
-        final Type type = new TypeToken<Map<String, String>>() {
-        }.getType();
-        final Map<String, String> properties = GSON.fromJson(json, type);
+        final Map<String, String> properties = GSON.fromJson(json, GsonRegistry.STRING_MAP_TYPE);
         return new ClusterProfileValidateRequest(properties);
     }
 
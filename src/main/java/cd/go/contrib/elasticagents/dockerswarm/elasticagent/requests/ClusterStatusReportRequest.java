@@ -1,11 +1,12 @@
 package cd.go.contrib.elasticagents.dockerswarm.elasticagent.requests;
 
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.ClusterProfileProperties;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.DockerClientFactory;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.DockerServices;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.builders.PluginStatusReportViewBuilder;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.executors.ClusterStatusReportExecutor;
-import com.google.gson.FieldNamingPolicy;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.GsonRegistry;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.annotations.Expose;
 import com.google.gson.annotations.SerializedName;
 
@@ -14,9 +15,7 @@ import java.util.Map;
 import java.util.Objects;
 
 public class ClusterStatusReportRequest {
-    private static final Gson GSON = new GsonBuilder().excludeFieldsWithoutExposeAnnotation()
-            .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
-            .create();
+    private static final Gson GSON = GsonRegistry.EXPOSED_SNAKE_CASE;
 
     @Expose
     @SerializedName("cluster_profile_properties")
@@ -41,6 +40,10 @@ public class ClusterStatusReportRequest {
         return new ClusterStatusReportExecutor(this, dockerServices);
     }
 
+    public ClusterStatusReportExecutor executor(DockerServices dockerServices, DockerClientFactory dockerClientFactory) throws IOException {
+        return new ClusterStatusReportExecutor(this, dockerServices, dockerClientFactory, PluginStatusReportViewBuilder.instance());
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -19,9 +19,8 @@ package cd.go.contrib.elasticagents.dockerswarm.elasticagent.requests;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.*;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.executors.CreateAgentRequestExecutor;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.JobIdentifier;
-import com.google.gson.FieldNamingPolicy;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.GsonRegistry;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -30,7 +29,7 @@ import java.util.Map;
 import static org.apache.commons.lang.StringUtils.isNotBlank;
 
 public class CreateAgentRequest {
-    private static final Gson GSON = new GsonBuilder().setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES).create();
+    private static final Gson GSON = GsonRegistry.SNAKE_CASE;
     private String autoRegisterKey;
     private Map<String, String> elasticAgentProfileProperties;
     private String environment;
@@ -80,6 +79,10 @@ public class CreateAgentRequest {
         return new CreateAgentRequestExecutor(this, agentInstances, pluginRequest);
     }
 
+    public RequestExecutor executor(AgentInstances<DockerService> agentInstances, PluginRequest pluginRequest, DockerClientFactory dockerClientFactory) {
+        return new CreateAgentRequestExecutor(this, agentInstances, pluginRequest, dockerClientFactory);
+    }
+
     public Collection<String> autoregisterPropertiesAsEnvironmentVars(String elasticAgentId) {
         ArrayList<String> vars = new ArrayList<>();
         if (isNotBlank(autoRegisterKey)) {
@@ -4,9 +4,8 @@ import cd.go.contrib.elasticagents.dockerswarm.elasticagent.ClusterProfile;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.ElasticAgentProfile;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.PluginSettings;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.executors.MigrateConfigurationRequestExecutor;
-import com.google.gson.FieldNamingPolicy;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.GsonRegistry;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.annotations.Expose;
 import com.google.gson.annotations.SerializedName;
 
@@ -14,9 +13,7 @@ import java.util.List;
 import java.util.Objects;
 
 public class MigrateConfigurationRequest {
-    public static final Gson GSON = new GsonBuilder()
-            .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
-            .create();
+    public static final Gson GSON = GsonRegistry.SNAKE_CASE;
 
     @Expose
     @SerializedName("plugin_settings")
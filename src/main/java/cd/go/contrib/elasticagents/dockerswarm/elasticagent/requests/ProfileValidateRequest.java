@@ -19,14 +19,14 @@ package cd.go.contrib.elasticagents.dockerswarm.elasticagent.requests;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.PluginRequest;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.RequestExecutor;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.executors.ProfileValidateRequestExecutor;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.GsonRegistry;
 import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
 
 import java.util.Map;
 
 public class ProfileValidateRequest {
 
-    private static final Gson GSON = new Gson();
+    private static final Gson GSON = GsonRegistry.PLAIN;
     private Map<String, String> properties;
 
     public ProfileValidateRequest(Map<String, String> properties) {
@@ -39,8 +39,7 @@ public class ProfileValidateRequest {
     }
 
     public static ProfileValidateRequest fromJSON(String json) {
-        return new ProfileValidateRequest(GSON.fromJson(json, new TypeToken<Map<String, String>>() {
-        }.getType()));
+        return new ProfileValidateRequest(GSON.fromJson(json, GsonRegistry.STRING_MAP_TYPE));
     }
 
     public RequestExecutor executor() {
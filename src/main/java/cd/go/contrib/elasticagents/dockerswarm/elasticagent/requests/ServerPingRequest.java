@@ -4,9 +4,8 @@ import cd.go.contrib.elasticagents.dockerswarm.elasticagent.ClusterProfileProper
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.DockerServices;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.PluginRequest;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.executors.ServerPingRequestExecutor;
-import com.google.gson.FieldNamingPolicy;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.GsonRegistry;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -14,7 +13,7 @@ import java.util.Map;
 import java.util.stream.Collectors;
 
 public class ServerPingRequest {
-    private static final Gson GSON = new GsonBuilder().setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES).create();
+    private static final Gson GSON = GsonRegistry.SNAKE_CASE;
     private List<ClusterProfileProperties> allClusterProfileProperties = new ArrayList<>();
 
     public ServerPingRequest() {
@@ -42,7 +41,7 @@ public class ServerPingRequest {
     }
 
     public ServerPingRequestExecutor executor(Map<String, DockerServices> clusterSpecificAgentInstances, PluginRequest pluginRequest) {
-        return new ServerPingRequestExecutor(this, clusterSpecificAgentInstances, pluginRequest);
+        return new ServerPingRequestExecutor(this, clusterSpecificAgentInstances, pluginRequest, true);
     }
 
 }
@@ -19,9 +19,8 @@ package cd.go.contrib.elasticagents.dockerswarm.elasticagent.requests;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.*;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.executors.ShouldAssignWorkRequestExecutor;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.JobIdentifier;
-import com.google.gson.FieldNamingPolicy;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.GsonRegistry;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 
 import java.util.Map;
 
@@ -29,7 +28,7 @@ import java.util.Map;
  * Represents the {@link Request#REQUEST_SHOULD_ASSIGN_WORK} message.
  */
 public class ShouldAssignWorkRequest {
-    public static final Gson GSON = new GsonBuilder().setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES).create();
+    public static final Gson GSON = GsonRegistry.SNAKE_CASE;
     private Agent agent;
     private String environment;
     private Map<String, String> properties;
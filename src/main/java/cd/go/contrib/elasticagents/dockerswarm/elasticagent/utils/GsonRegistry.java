@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils;
+
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.Agent;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.ClusterProfileProperties;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.PluginSettings;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.JobIdentifier;
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Map;
+
+/**
+ * The {@link Gson} instances shared by the plugin, one per configuration in use. Gson is thread safe and caches the
+ * type adapters it builds, so creating one per call throws that cache away every time.
+ * <p>
+ * Each instance registers the hand-written streaming adapters of the types read and written on every server ping:
+ * {@link Agent}, {@link JobIdentifier}, {@link PluginSettings} and {@link ClusterProfileProperties}. The request
+ * classes holding them are still bound reflectively, and delegate to these adapters for their fields.
+ */
+public class GsonRegistry {
+    public static final Type STRING_MAP_TYPE = new TypeToken<Map<String, String>>() {
+    }.getType();
+
+    public static final Gson PLAIN = builder().create();
+
+    public static final Gson SNAKE_CASE = builder()
+            .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+            .create();
+
+    public static final Gson EXPOSED = builder()
+            .excludeFieldsWithoutExposeAnnotation()
+            .create();
+
+    public static final Gson EXPOSED_SNAKE_CASE = builder()
+            .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+            .excludeFieldsWithoutExposeAnnotation()
+            .create();
+
+    private static GsonBuilder builder() {
+        return new GsonBuilder()
+                .registerTypeAdapter(Agent.class, new Agent.JsonAdapter().nullSafe())
+                .registerTypeAdapter(JobIdentifier.class, new JobIdentifier.JsonAdapter().nullSafe())
+                .registerTypeAdapter(PluginSettings.class, new PluginSettings.JsonAdapter<>(PluginSettings::new).nullSafe())
+                .registerTypeAdapter(ClusterProfileProperties.class, new PluginSettings.JsonAdapter<>(ClusterProfileProperties::new).nullSafe());
+    }
+
+    /**
+     * Reads a string the way Gson does for a {@code String} field: numbers and booleans are read as their text.
+     */
+    public static String nextString(JsonReader in) throws IOException {
+        switch (in.peek()) {
+            case NULL:
+                in.nextNull();
+                return null;
+            case BOOLEAN:
+                return Boolean.toString(in.nextBoolean());
+            default:
+                return in.nextString();
+        }
+    }
+
+    public static Long nextLong(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextLong();
+    }
+
+    /**
+     * Reads an enum constant by name, or null for a name the enum does not have, like Gson does.
+     */
+    public static <E extends Enum<E>> E nextEnum(JsonReader in, Class<E> type) throws IOException {
+        final String name = nextString(in);
+        if (name == null) {
+            return null;
+        }
+        try {
+            return Enum.valueOf(type, name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -16,14 +16,16 @@
 
 package cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils;
 
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.Constants;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.executors.GetClusterProfileViewRequestExecutor;
 import com.google.common.collect.Collections2;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.CharStreams;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.spotify.docker.client.DockerClient;
 import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.messages.swarm.Service;
+import com.spotify.docker.client.messages.swarm.Task;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -39,7 +41,7 @@ import static org.apache.commons.lang.StringUtils.isBlank;
 
 
 public class Util {
-    public static final Gson GSON = new GsonBuilder().excludeFieldsWithoutExposeAnnotation().create();
+    public static final Gson GSON = GsonRegistry.EXPOSED;
 
     public static String readResource(String resourceFile) {
         try (InputStreamReader reader = new InputStreamReader(GetClusterProfileViewRequestExecutor.class.getResourceAsStream(resourceFile), StandardCharsets.UTF_8)) {
@@ -90,6 +92,25 @@ public class Util {
         return compareVersion(docker.version().apiVersion(), expected) >= 0;
     }
 
+    /**
+     * Lets docker filter the services by the label the plugin puts on every service it creates, instead of listing
+     * every service of a (possibly shared) swarm and filtering them here.
+     */
+    public static Service.Criteria servicesCreatedByPlugin() {
+        return Service.Criteria.builder().addLabel(Constants.CREATED_BY_LABEL_KEY, Constants.PLUGIN_ID).build();
+    }
+
+    /**
+     * Docker matches the labels of a task against those of its service, so this lists the tasks of the services
+     * created by the plugin.
+     *
+     * @param runningOnly whether to only list the tasks that are meant to be running
+     */
+    public static Task.Criteria tasksCreatedByPlugin(boolean runningOnly) {
+        final Task.Criteria.Builder criteria = Task.Criteria.builder().label(Constants.CREATED_BY_LABEL_KEY + "=" + Constants.PLUGIN_ID);
+        return runningOnly ? criteria.desiredState("running").build() : criteria.build();
+    }
+
     public static String readableSize(long size) {
         if (size <= 0) return "0";
         final String[] units = new String[]{"B", "KB", "MB", "GB", "TB", "PB", "EB"};
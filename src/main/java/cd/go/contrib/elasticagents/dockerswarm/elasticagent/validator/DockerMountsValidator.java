@@ -16,12 +16,14 @@
 
 package cd.go.contrib.elasticagents.dockerswarm.elasticagent.validator;
 
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.CompiledProfile;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.DockerClientFactory;
-import cd.go.contrib.elasticagents.dockerswarm.elasticagent.DockerMounts;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.ValidationResult;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.requests.CreateAgentRequest;
 import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.messages.mount.Mount;
 
+import java.util.List;
 import java.util.Map;
 
 import static cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.Util.dockerApiVersionAtLeast;
@@ -34,7 +36,7 @@ public class DockerMountsValidator implements Validatable {
         this(createAgentRequest, DockerClientFactory.instance());
     }
 
-    DockerMountsValidator(CreateAgentRequest createAgentRequest, DockerClientFactory dockerClientFactory) {
+    public DockerMountsValidator(CreateAgentRequest createAgentRequest, DockerClientFactory dockerClientFactory) {
         this.createAgentRequest = createAgentRequest;
         this.dockerClientFactory = dockerClientFactory;
     }
@@ -44,16 +46,14 @@ public class DockerMountsValidator implements Validatable {
         final ValidationResult validationResult = new ValidationResult();
 
         try {
-            final DockerMounts dockerMounts = DockerMounts.fromString(elasticProfile.get("Mounts"));
+            final List<Mount> mounts = CompiledProfile.of(elasticProfile).mounts();
 
-            if (!dockerMounts.isEmpty()) {
+            if (!mounts.isEmpty()) {
                 DockerClient dockerClient = dockerClientFactory.docker(createAgentRequest.getClusterProfileProperties());
 
                 if (!dockerApiVersionAtLeast(dockerClient, "1.26")) {
                     throw new RuntimeException("Docker volume mount requires api version 1.26 or higher.");
                 }
-
-                dockerMounts.toMount();
             }
         } catch (Exception e) {
             validationResult.addError("Mounts", e.getMessage());
@@ -16,8 +16,9 @@
 
 package cd.go.contrib.elasticagents.dockerswarm.elasticagent.validator;
 
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.CompiledProfile;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.DockerClientFactory;
-import cd.go.contrib.elasticagents.dockerswarm.elasticagent.DockerSecrets;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.SwarmMetadata;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.ValidationResult;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.requests.CreateAgentRequest;
 import com.spotify.docker.client.DockerClient;
@@ -34,7 +35,7 @@ public class DockerSecretValidator implements Validatable {
         this(createAgentRequest, DockerClientFactory.instance());
     }
 
-    DockerSecretValidator(CreateAgentRequest createAgentRequest, DockerClientFactory dockerClientFactory) {
+    public DockerSecretValidator(CreateAgentRequest createAgentRequest, DockerClientFactory dockerClientFactory) {
         this.createAgentRequest = createAgentRequest;
         this.dockerClientFactory = dockerClientFactory;
     }
@@ -43,13 +44,13 @@ public class DockerSecretValidator implements Validatable {
     public ValidationResult validate(Map<String, String> elasticProfile) {
         final ValidationResult validationResult = new ValidationResult();
         try {
-            final DockerSecrets dockerSecrets = DockerSecrets.fromString(elasticProfile.get("Secrets"));
-            if (!dockerSecrets.isEmpty()) {
+            final CompiledProfile profile = CompiledProfile.of(elasticProfile);
+            if (profile.hasSecrets()) {
                 DockerClient dockerClient = dockerClientFactory.docker(createAgentRequest.getClusterProfileProperties());
                 if (!dockerApiVersionAtLeast(dockerClient, "1.26")) {
                     throw new RuntimeException("Docker secret requires api version 1.26 or higher.");
                 }
-                dockerSecrets.toSecretBind(dockerClient.listSecrets());
+                SwarmMetadata.resolve(dockerClient, () -> profile.secretBinds(dockerClient.listSecrets()));
             }
         } catch (Exception e) {
             validationResult.addError("Secrets", e.getMessage());
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
+
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.JobIdentifier;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.requests.CreateAgentRequest;
+import com.google.common.base.Ticker;
+import com.spotify.docker.client.DefaultDockerClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class CachingDockerClientTest {
+    private FakeSwarmServer server;
+    private FakeTicker ticker;
+    private CachingDockerClient docker;
+    private PluginSettings settings;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeSwarmServer();
+        server.addSecret("Username");
+        ticker = new FakeTicker();
+        docker = new CachingDockerClient(DefaultDockerClient.builder().uri(server.uri()), 5, TimeUnit.MINUTES, ticker);
+        settings = new PluginSettings();
+        settings.setGoServerUrl("https://gocd.example.com:8154/go");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        docker.close();
+        server.stop();
+    }
+
+    @Test
+    public void shouldLookUpTheVersionSecretsAndNetworksOnceForManyAgents() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            DockerService.create(request("src=Username", "ingress"), settings, docker);
+        }
+
+        assertThat(server.requests("POST /services/create"), is(3));
+        assertThat(server.requests("GET /services/{id}"), is(0));
+        assertThat(server.requests("GET /version"), is(1));
+        assertThat(server.requests("GET /secrets"), is(1));
+        assertThat(server.requests("GET /networks"), is(1));
+    }
+
+    @Test
+    public void shouldLookUpTheMetadataAgainOnceItExpires() throws Exception {
+        DockerService.create(request("src=Username", "ingress"), settings, docker);
+
+        ticker.advance(5, TimeUnit.MINUTES);
+        DockerService.create(request("src=Username", "ingress"), settings, docker);
+
+        assertThat(server.requests("GET /version"), is(2));
+        assertThat(server.requests("GET /secrets"), is(2));
+        assertThat(server.requests("GET /networks"), is(2));
+    }
+
+    @Test
+    public void shouldLookUpTheSecretsAgainWhenAProfileRefersToAnUnknownSecret() throws Exception {
+        DockerService.create(request("src=Username", ""), settings, docker);
+
+        server.addSecret("Password");
+        DockerService.create(request("src=Password", ""), settings, docker);
+
+        assertThat(server.requests("POST /services/create"), is(2));
+        assertThat(server.requests("GET /secrets"), is(2));
+    }
+
+    @Test
+    public void shouldNotLookUpTheSecretsAgainWhenTheProfileIsInvalid() throws Exception {
+        DockerService.create(request("src=Username", ""), settings, docker);
+
+        try {
+            DockerService.create(request("src=Username\nsrc=Username,mode=abc", ""), settings, docker);
+            fail("Should have thrown exception");
+        } catch (RuntimeException e) {
+            assertThat(e.getMessage(), containsString("Mode value must be provided in octal."));
+        }
+
+        assertThat(server.requests("GET /secrets"), is(1));
+        assertThat(server.requests("GET /networks"), is(0));
+    }
+
+    @Test
+    public void shouldLookUpTheSecretsAgainOnceInvalidated() throws Exception {
+        docker.listSecrets();
+        docker.listSecrets();
+
+        docker.invalidateSecrets();
+        docker.listSecrets();
+
+        assertThat(server.requests("GET /secrets"), is(2));
+        assertThat(server.requests("GET /networks"), is(0));
+    }
+
+    private static CreateAgentRequest request(String secrets, String networks) {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("Image", "alpine:latest");
+        properties.put("Secrets", secrets);
+        properties.put("Networks", networks);
+        return new CreateAgentRequest("key", properties, "prod", new JobIdentifier(100L), new HashMap<>());
+    }
+
+    private static class FakeTicker extends Ticker {
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long duration, TimeUnit unit) {
+            nanos += unit.toNanos(duration);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+public class ClusterProfilePropertiesTest {
+
+    @Test
+    public void shouldIdentifyTheClusterByItsDockerURIOnly() {
+        Map<String, String> configuration = configuration("https://swarm-manager:2376");
+        ClusterProfileProperties cluster = ClusterProfileProperties.fromConfiguration(configuration);
+
+        configuration.put("max_docker_containers", "20");
+        configuration.put("docker_client_key", "rotated-key");
+        configuration.put("private_registry_password", "rotated-password");
+        ClusterProfileProperties editedCluster = ClusterProfileProperties.fromConfiguration(configuration);
+
+        assertThat(editedCluster.uuid(), is(cluster.uuid()));
+        assertThat(cluster.uuid().length(), is(64));
+    }
+
+    @Test
+    public void shouldNormalizeTheDockerURI() {
+        String uuid = ClusterProfileProperties.fromConfiguration(configuration("https://swarm-manager:2376")).uuid();
+
+        assertThat(ClusterProfileProperties.fromConfiguration(configuration(" HTTPS://Swarm-Manager:2376/ ")).uuid(), is(uuid));
+        assertThat(ClusterProfileProperties.fromConfiguration(configuration("https://swarm-manager:2377")).uuid(), is(not(uuid)));
+        assertThat(ClusterProfileProperties.fromConfiguration(configuration("unix:///var/run/docker.sock")).uuid(), is(not(uuid)));
+    }
+
+    @Test
+    public void shouldChangeTheIdentityWhenTheDockerURIIsSet() {
+        ClusterProfileProperties cluster = ClusterProfileProperties.fromConfiguration(configuration("http://swarm-1:2375"));
+        String uuid = cluster.uuid();
+
+        cluster.setDockerURI("http://swarm-2:2375");
+
+        assertThat(cluster.uuid(), is(not(uuid)));
+    }
+
+    @Test
+    public void shouldChangeTheCredentialsDigestWhenAnyCredentialChanges() {
+        Map<String, String> configuration = configuration("https://swarm-manager:2376");
+        String digest = ClusterProfileProperties.fromConfiguration(configuration).credentialsDigest();
+
+        configuration.put("max_docker_containers", "20");
+        assertThat(ClusterProfileProperties.fromConfiguration(configuration).credentialsDigest(), is(digest));
+
+        configuration.put("private_registry_password", "rotated-password");
+        assertThat(ClusterProfileProperties.fromConfiguration(configuration).credentialsDigest(), is(not(digest)));
+
+        ClusterProfileProperties cluster = ClusterProfileProperties.fromConfiguration(configuration("https://swarm-manager:2376"));
+        cluster.setDockerCACert("rotated-ca-cert");
+        assertThat(cluster.credentialsDigest(), is(not(digest)));
+    }
+
+    @Test
+    public void shouldComputeTheIdentityAndCredentialsDigestAgainAfterAnEdit() {
+        ClusterProfileProperties cluster = ClusterProfileProperties.fromConfiguration(configuration("https://swarm-manager:2376"));
+        cluster.uuid();
+        cluster.credentialsDigest();
+
+        cluster.setDockerURI("https://other-swarm-manager:2376");
+        cluster.setDockerClientKey("rotated-client-key");
+
+        Map<String, String> edited = configuration("https://other-swarm-manager:2376");
+        edited.put("docker_client_key", "rotated-client-key");
+        ClusterProfileProperties expected = ClusterProfileProperties.fromConfiguration(edited);
+        assertThat(cluster.uuid(), is(expected.uuid()));
+        assertThat(cluster.credentialsDigest(), is(expected.credentialsDigest()));
+    }
+
+    private static Map<String, String> configuration(String dockerURI) {
+        Map<String, String> configuration = new HashMap<>();
+        configuration.put("docker_uri", dockerURI);
+        configuration.put("max_docker_containers", "10");
+        configuration.put("go_server_url", "https://gocd.example.com:8154/go");
+        configuration.put("docker_ca_cert", "ca-cert");
+        configuration.put("docker_client_cert", "client-cert");
+        configuration.put("docker_client_key", "client-key");
+        configuration.put("enable_private_registry_authentication", "true");
+        configuration.put("private_registry_server", "registry.example.com");
+        configuration.put("private_registry_username", "bob");
+        configuration.put("private_registry_password", "password");
+        return configuration;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class ClusterTasksTest {
+    private ExecutorService executor;
+    private ClusterTasks clusterTasks;
+    private ClusterProfileProperties fast;
+    private ClusterProfileProperties slow;
+    private ClusterProfileProperties broken;
+
+    @Before
+    public void setUp() throws Exception {
+        executor = Executors.newCachedThreadPool();
+        clusterTasks = new ClusterTasks(executor, 500, TimeUnit.MILLISECONDS);
+        fast = cluster("http://fast:2375");
+        slow = cluster("http://slow:2375");
+        broken = cluster("http://broken:2375");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    @Test(timeout = 10000)
+    public void shouldRunTheTaskForEveryClusterConcurrently() throws Exception {
+        List<ClusterProfileProperties> clusters = Arrays.asList(fast, slow, broken);
+        CountDownLatch allStarted = new CountDownLatch(clusters.size());
+
+        Set<String> failedClusters = clusterTasks.runForEach("test", clusters, clusterProfileProperties -> {
+            allStarted.countDown();
+            assertTrue(allStarted.await(5, TimeUnit.SECONDS));
+        });
+
+        assertThat(failedClusters, is(empty()));
+    }
+
+    @Test(timeout = 10000)
+    public void shouldIsolateClustersThatFailOrMissTheirDeadline() throws Exception {
+        List<ClusterProfileProperties> done = new CopyOnWriteArrayList<>();
+
+        long startedAt = System.nanoTime();
+        Set<String> failedClusters = clusterTasks.runForEach("test", Arrays.asList(slow, broken, fast), clusterProfileProperties -> {
+            if (clusterProfileProperties == slow) {
+                Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+            } else if (clusterProfileProperties == broken) {
+                throw new IllegalStateException("unreachable");
+            }
+            done.add(clusterProfileProperties);
+        });
+
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt), is(lessThan(5000L)));
+        assertThat(failedClusters, containsInAnyOrder(slow.uuid(), broken.uuid()));
+        assertThat(done, contains(fast));
+    }
+
+    @Test(timeout = 10000)
+    public void shouldCountTheDeadlineOfAClusterFromWhenItsWorkStarts() throws Exception {
+        ExecutorService singleThread = Executors.newSingleThreadExecutor();
+        try {
+            ClusterTasks queued = new ClusterTasks(singleThread, 500, TimeUnit.MILLISECONDS);
+
+            Set<String> failedClusters = queued.runForEach("test", Arrays.asList(fast, slow), clusterProfileProperties -> Thread.sleep(300));
+
+            assertThat(failedClusters, is(empty()));
+        } finally {
+            singleThread.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void shouldGiveAllTheWorkOfARunForAClusterOneDeadline() throws Exception {
+        ClusterTasks.Run run = clusterTasks.newRun();
+
+        assertThat(run.runForEach("first", Arrays.asList(slow), clusterProfileProperties -> Thread.sleep(300)), is(empty()));
+        assertThat(run.runForEach("second", Arrays.asList(slow), clusterProfileProperties -> Thread.sleep(300)), contains(slow.uuid()));
+        assertThat(clusterTasks.runForEach("next", Arrays.asList(slow), clusterProfileProperties -> Thread.sleep(300)), is(empty()));
+    }
+
+    @Test(timeout = 10000)
+    public void shouldNotRunMoreWorkForAClusterWhoseWorkIsStillRunning() throws Exception {
+        CountDownLatch hung = new CountDownLatch(1);
+        List<ClusterProfileProperties> ran = new CopyOnWriteArrayList<>();
+        try {
+            assertThat(clusterTasks.runForEach("first", Arrays.asList(slow), clusterProfileProperties -> {
+                while (hung.getCount() > 0) {
+                    try {
+                        hung.await();
+                    } catch (InterruptedException ignored) {
+                        // like a blocking docker call, which does not give way to an interrupt
+                    }
+                }
+            }), contains(slow.uuid()));
+
+            assertThat(clusterTasks.runForEach("second", Arrays.asList(slow, fast), ran::add), contains(slow.uuid()));
+            assertThat(ran, contains(fast));
+        } finally {
+            hung.countDown();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void shouldReportClustersThatNoThreadIsAvailableForAsFailed() throws Exception {
+        ExecutorService oneThread = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new SynchronousQueue<>());
+        try {
+            ClusterTasks bounded = new ClusterTasks(oneThread, 5, TimeUnit.SECONDS);
+            List<ClusterProfileProperties> done = new CopyOnWriteArrayList<>();
+
+            Set<String> failedClusters = bounded.runForEach("test", Arrays.asList(slow, fast), clusterProfileProperties -> {
+                Thread.sleep(200);
+                done.add(clusterProfileProperties);
+            });
+
+            assertThat(failedClusters, contains(fast.uuid()));
+            assertThat(done, contains(slow));
+        } finally {
+            oneThread.shutdownNow();
+        }
+    }
+
+    private static ClusterProfileProperties cluster(String dockerUri) {
+        ClusterProfileProperties clusterProfileProperties = new ClusterProfileProperties();
+        clusterProfileProperties.setDockerURI(dockerUri);
+        return clusterProfileProperties;
+    }
+}
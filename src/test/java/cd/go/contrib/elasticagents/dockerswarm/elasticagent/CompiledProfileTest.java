@@ -0,0 +1,109 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class CompiledProfileTest {
+
+    @Test
+    public void shouldCompileEqualProfilesOnce() {
+        Map<String, String> properties = profile();
+        CompiledProfile compiledProfile = CompiledProfile.of(properties);
+
+        assertThat(CompiledProfile.of(new TreeMap<>(properties)), is(sameInstance(compiledProfile)));
+
+        properties.put("MaxMemory", "2G");
+        assertThat(CompiledProfile.of(properties), is(not(sameInstance(compiledProfile))));
+    }
+
+    @Test
+    public void shouldCompileProfilesWithoutPropertiesOrWithNullValues() {
+        Map<String, String> properties = new HashMap<>();
+        assertThat(CompiledProfile.of(properties), is(sameInstance(CompiledProfile.of(new HashMap<>()))));
+
+        properties.put("Image", null);
+        CompiledProfile compiledProfile = CompiledProfile.of(properties);
+        assertThat(CompiledProfile.of(new HashMap<>(properties)), is(sameInstance(compiledProfile)));
+
+        properties.put("Image", "null");
+        assertThat(CompiledProfile.of(properties), is(not(sameInstance(compiledProfile))));
+    }
+
+    @Test
+    public void shouldParseTheMultilineProperties() {
+        CompiledProfile compiledProfile = CompiledProfile.of(profile());
+
+        assertThat(compiledProfile.image(), is("alpine:latest"));
+        assertThat(compiledProfile.command(), contains("/bin/sh", "-c", "sleep 60"));
+        assertThat(compiledProfile.environment(), contains("A=B", "C=D"));
+        assertThat(compiledProfile.hosts(), contains("10.0.0.1 host-1", "10.0.0.1 host-2"));
+        assertThat(compiledProfile.mounts(), hasSize(1));
+        assertThat(compiledProfile.mounts().get(0).target(), is("/cache"));
+        assertThat(compiledProfile.hasSecrets(), is(true));
+        assertThat(compiledProfile.constraints(), contains("node.role == worker"));
+        assertThat(compiledProfile.logDriver().options(), hasEntry("max-size", "10m"));
+        assertThat(compiledProfile.resources().limits().memoryBytes(), is(1024L * 1024 * 1024));
+    }
+
+    @Test
+    public void shouldFailWithTheSameMessageEachTimeAnInvalidPropertyIsUsed() {
+        Map<String, String> properties = profile();
+        properties.put("Mounts", "source=cache,target=/cache,foo=bar");
+        CompiledProfile compiledProfile = CompiledProfile.of(properties);
+
+        RuntimeException previous = null;
+        for (int i = 0; i < 2; i++) {
+            try {
+                compiledProfile.mounts();
+                fail("Expected the mounts to be invalid");
+            } catch (RuntimeException e) {
+                assertThat(e.getMessage(), is("Invalid mount specification `source=cache,target=/cache,foo=bar`. Option `foo` not implemented."));
+                assertThat(e, is(not(sameInstance(previous))));
+                assertThat(e.getCause(), is(notNullValue()));
+                if (previous != null) {
+                    assertThat(e.getCause(), is(sameInstance(previous.getCause())));
+                }
+                previous = e;
+            }
+        }
+        assertThat(compiledProfile.hasSecrets(), is(true));
+    }
+
+    private static Map<String, String> profile() {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("Image", "alpine");
+        properties.put("Command", "/bin/sh\n-c\nsleep 60");
+        properties.put("Environment", "A=B\nC=D");
+        properties.put("Hosts", "10.0.0.1 host-1 host-2");
+        properties.put("Mounts", "source=cache,target=/cache");
+        properties.put("Secrets", "src=Username");
+        properties.put("Constraints", "node.role == worker");
+        properties.put("LogDriver", "json-file");
+        properties.put("LogDriverOptions", "max-size=10m");
+        properties.put("MaxMemory", "1G");
+        return properties;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
+
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.JobIdentifier;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.requests.CreateAgentRequest;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class CreationBatchesTest {
+    private ExecutorService executor;
+    private CreationBatches creationBatches;
+    private ClusterProfileProperties clusterProfileProperties;
+    private AtomicInteger templatesBuilt;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+        creationBatches = new CreationBatches(executor, 200);
+        clusterProfileProperties = new ClusterProfileProperties();
+        clusterProfileProperties.setDockerURI("http://swarm-manager:2375");
+        templatesBuilt = new AtomicInteger();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shouldBuildTheTemplateOnceForRequestsWithTheSameProfile() throws Exception {
+        List<ListenableFuture<DockerService>> creations = new ArrayList<>();
+        for (long jobId = 1; jobId <= 5; jobId++) {
+            creations.add(submit(request("alpine:latest", jobId), () -> {
+                templatesBuilt.incrementAndGet();
+                return null;
+            }));
+        }
+
+        for (ListenableFuture<DockerService> creation : creations) {
+            creation.get(5, TimeUnit.SECONDS);
+        }
+        assertThat(templatesBuilt.get(), is(1));
+    }
+
+    @Test
+    public void shouldBuildATemplatePerProfile() throws Exception {
+        Callable<ServiceSpecTemplate> template = () -> {
+            templatesBuilt.incrementAndGet();
+            return null;
+        };
+
+        ListenableFuture<DockerService> alpine = submit(request("alpine:latest", 1L), template);
+        ListenableFuture<DockerService> ubuntu = submit(request("ubuntu:latest", 2L), template);
+
+        assertThat(alpine.get(5, TimeUnit.SECONDS).jobIdentifier().getJobId(), is(1L));
+        assertThat(ubuntu.get(5, TimeUnit.SECONDS).jobIdentifier().getJobId(), is(2L));
+        assertThat(templatesBuilt.get(), is(2));
+    }
+
+    @Test
+    public void shouldFailEveryCreationOfTheBatchWhenTheTemplateCannotBeBuilt() throws Exception {
+        Callable<ServiceSpecTemplate> template = () -> {
+            templatesBuilt.incrementAndGet();
+            throw new IllegalArgumentException("Must provide `Image` attribute.");
+        };
+
+        List<ListenableFuture<DockerService>> creations = new ArrayList<>();
+        creations.add(submit(request("", 1L), template));
+        creations.add(submit(request("", 2L), template));
+
+        List<Throwable> failures = new ArrayList<>();
+        for (ListenableFuture<DockerService> creation : creations) {
+            try {
+                creation.get(5, TimeUnit.SECONDS);
+                fail("Expected the creation to fail");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause(), instanceOf(ExecutionException.class));
+                assertThat(e.getCause().getMessage(), is("Must provide `Image` attribute."));
+                assertThat(e.getCause().getCause(), instanceOf(IllegalArgumentException.class));
+                failures.add(e.getCause());
+            }
+        }
+        assertThat(failures.get(0), not(sameInstance(failures.get(1))));
+        assertThat(failures.get(0).getCause(), sameInstance(failures.get(1).getCause()));
+        assertThat(templatesBuilt.get(), is(1));
+    }
+
+    @Test
+    public void shouldCreateWithoutWaitingForTheBatchToClose() throws Exception {
+        creationBatches = new CreationBatches(executor, TimeUnit.MINUTES.toMillis(1));
+
+        ListenableFuture<DockerService> creation = submit(request("alpine:latest", 1L), () -> {
+            templatesBuilt.incrementAndGet();
+            return null;
+        });
+
+        assertThat(creation.get(5, TimeUnit.SECONDS).jobIdentifier().getJobId(), is(1L));
+    }
+
+    private ListenableFuture<DockerService> submit(CreateAgentRequest request, Callable<ServiceSpecTemplate> template) {
+        return creationBatches.submit(request, template, batchTemplate -> {
+            batchTemplate.call();
+            return new DockerService("agent-" + request.jobIdentifier().getJobId(), new Date(), request.properties(), request.environment(), request.jobIdentifier());
+        });
+    }
+
+    private CreateAgentRequest request(String image, Long jobId) {
+        return new CreateAgentRequest("key", Collections.singletonMap("Image", image), "prod", new JobIdentifier(jobId), clusterProfileProperties);
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
+
+import com.google.common.base.Ticker;
+import com.spotify.docker.client.DefaultDockerClient;
+import com.spotify.docker.client.DockerClient;
+import org.junit.Test;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.*;
+
+public class DockerClientFactoryTest {
+    private final FakeTicker ticker = new FakeTicker();
+    private final AtomicInteger clientsCreated = new AtomicInteger();
+
+    @Test
+    public void shouldKeepOneClientPerClusterWhenRequestsAlternateBetweenClusters() throws Exception {
+        DockerClientFactory factory = new DockerClientFactory(this::newClient, 10, 30, TimeUnit.MINUTES, ticker);
+        ClusterProfileProperties cluster1 = clusterProfile("http://swarm-1:2375");
+        ClusterProfileProperties cluster2 = clusterProfile("http://swarm-2:2375");
+
+        DockerClient client1 = factory.docker(cluster1);
+        DockerClient client2 = factory.docker(cluster2);
+
+        assertThat(factory.docker(cluster1), is(sameInstance(client1)));
+        assertThat(factory.docker(cluster2), is(sameInstance(client2)));
+        assertThat(client1, is(not(sameInstance(client2))));
+        assertThat(clientsCreated.get(), is(2));
+    }
+
+    @Test
+    public void shouldCloseClientsThatAreIdleForLongerThanTheTimeout() throws Exception {
+        DockerClientFactory factory = new DockerClientFactory(this::newClient, 10, 30, TimeUnit.MINUTES, ticker);
+        ClusterProfileProperties cluster = clusterProfile("http://swarm-1:2375");
+
+        DefaultDockerClient client = (DefaultDockerClient) factory.docker(cluster);
+        ticker.advance(31, TimeUnit.MINUTES);
+
+        assertThat(factory.size(), is(0L));
+        verify(client).close();
+        assertThat(factory.docker(cluster), is(not(sameInstance(client))));
+    }
+
+    @Test
+    public void shouldCloseLeastRecentlyUsedClientWhenPoolIsFull() throws Exception {
+        DockerClientFactory factory = new DockerClientFactory(this::newClient, 1, 30, TimeUnit.MINUTES, ticker);
+
+        DefaultDockerClient client1 = (DefaultDockerClient) factory.docker(clusterProfile("http://swarm-1:2375"));
+        DefaultDockerClient client2 = (DefaultDockerClient) factory.docker(clusterProfile("http://swarm-2:2375"));
+
+        verify(client1).close();
+        verify(client2, never()).close();
+        assertThat(factory.size(), is(1L));
+    }
+
+    @Test
+    public void shouldPropagateFailureToConnectToTheCluster() throws Exception {
+        DockerClientFactory factory = new DockerClientFactory(clusterProfileProperties -> {
+            throw new IllegalStateException("Could not ping the docker server");
+        }, 10, 30, TimeUnit.MINUTES, ticker);
+
+        try {
+            factory.docker(clusterProfile("http://swarm-1:2375"));
+            fail("Should have thrown exception");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("Could not ping the docker server"));
+        }
+        assertThat(factory.size(), is(0L));
+    }
+
+    @Test(timeout = 10000)
+    public void shouldNotBlockOtherClustersWhileAClientIsBeingBuilt() throws Exception {
+        CountDownLatch slowClusterConnecting = new CountDownLatch(1);
+        CountDownLatch releaseSlowCluster = new CountDownLatch(1);
+        ClusterProfileProperties slowCluster = clusterProfile("http://slow-swarm:2375");
+        ClusterProfileProperties fastCluster = clusterProfile("http://fast-swarm:2375");
+
+        DockerClientFactory factory = new DockerClientFactory(clusterProfileProperties -> {
+            if (clusterProfileProperties == slowCluster) {
+                slowClusterConnecting.countDown();
+                releaseSlowCluster.await();
+            }
+            return newClient(clusterProfileProperties);
+        }, 10, 30, TimeUnit.MINUTES, ticker);
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            Future<DockerClient> slowClient = executorService.submit(() -> factory.docker(slowCluster));
+            slowClusterConnecting.await();
+
+            assertThat(factory.docker(fastCluster), is(notNullValue()));
+            assertThat(slowClient.isDone(), is(false));
+
+            releaseSlowCluster.countDown();
+            assertThat(slowClient.get(), is(notNullValue()));
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldBuildAnotherClientWhenTheCredentialsOfTheClusterChange() throws Exception {
+        DockerClientFactory factory = new DockerClientFactory(this::newClient, 10, 30, TimeUnit.MINUTES, ticker);
+        ClusterProfileProperties cluster = clusterProfile("https://swarm-1:2376");
+        cluster.setDockerClientKey("old-key");
+        DefaultDockerClient oldClient = (DefaultDockerClient) factory.docker(cluster);
+
+        ClusterProfileProperties editedCluster = clusterProfile("https://swarm-1:2376");
+        editedCluster.setDockerClientKey("new-key");
+        DockerClient newClient = factory.docker(editedCluster);
+
+        assertThat(newClient, is(not(sameInstance(oldClient))));
+        assertThat(factory.docker(editedCluster), is(sameInstance(newClient)));
+        verify(oldClient, never()).close();
+    }
+
+    @Test
+    public void shouldKeepAClientPerCredentialsOfProfilesOfTheSameSwarm() throws Exception {
+        DockerClientFactory factory = new DockerClientFactory(this::newClient, 10, 30, TimeUnit.MINUTES, ticker);
+        ClusterProfileProperties cluster = clusterProfile("https://swarm-1:2376");
+        cluster.setDockerClientKey("key-1");
+        ClusterProfileProperties otherCluster = clusterProfile("https://swarm-1:2376");
+        otherCluster.setDockerClientKey("key-2");
+
+        DefaultDockerClient client = (DefaultDockerClient) factory.docker(cluster);
+        DefaultDockerClient otherClient = (DefaultDockerClient) factory.docker(otherCluster);
+
+        assertThat(factory.docker(cluster), is(sameInstance(client)));
+        assertThat(factory.docker(otherCluster), is(sameInstance(otherClient)));
+        assertThat(clientsCreated.get(), is(2));
+        verify(client, never()).close();
+        verify(otherClient, never()).close();
+    }
+
+    @Test
+    public void shouldKeepTheClientWhenOtherPropertiesOfTheClusterChange() throws Exception {
+        DockerClientFactory factory = new DockerClientFactory(this::newClient, 10, 30, TimeUnit.MINUTES, ticker);
+        DockerClient client = factory.docker(clusterProfile("http://swarm-1:2375"));
+
+        ClusterProfileProperties editedCluster = clusterProfile("http://swarm-1:2375");
+        editedCluster.setMaxDockerContainers(20);
+        editedCluster.setAutoRegisterTimeout("15");
+
+        assertThat(factory.docker(editedCluster), is(sameInstance(client)));
+        assertThat(clientsCreated.get(), is(1));
+    }
+
+    private DefaultDockerClient newClient(ClusterProfileProperties clusterProfileProperties) {
+        clientsCreated.incrementAndGet();
+        return mock(DefaultDockerClient.class);
+    }
+
+    private ClusterProfileProperties clusterProfile(String dockerUri) {
+        ClusterProfileProperties clusterProfileProperties = new ClusterProfileProperties();
+        clusterProfileProperties.setDockerURI(dockerUri);
+        clusterProfileProperties.setMaxDockerContainers(10);
+        return clusterProfileProperties;
+    }
+
+    private static class FakeTicker extends Ticker {
+        private final AtomicLong nanos = new AtomicLong();
+
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+
+        void advance(long time, TimeUnit unit) {
+            nanos.addAndGet(unit.toNanos(time));
+        }
+    }
+}
@@ -92,4 +92,45 @@ public class DockerMountsTest {
         assertThat(mounts.get(1).target(), is("/path/in/container2"));
         assertThat(mounts.get(1).readOnly(), is(true));
     }
+
+    @Test
+    public void shouldIgnoreTrailingCommas() throws Exception {
+        final DockerMounts mounts = DockerMounts.fromString("source=namedVolume, target=/path/in/container, readonly,,");
+
+        assertThat(mounts, hasSize(1));
+        assertThat(mounts.get(0).target(), is("/path/in/container"));
+        assertThat(mounts.get(0).readOnly(), is(true));
+    }
+
+    @Test
+    public void shouldErrorOutOnAnEmptyOption() throws Exception {
+        thrown.expect(RuntimeException.class);
+        thrown.expectMessage("Invalid mount specification `source=namedVolume,,target=/path/in/container`. Option `` not implemented.");
+
+        DockerMounts.fromString("source=namedVolume,,target=/path/in/container");
+    }
+
+    @Test
+    public void shouldErrorOutOnAnUnknownOption() throws Exception {
+        thrown.expect(RuntimeException.class);
+        thrown.expectMessage("Invalid mount specification `source=namedVolume, target=/path/in/container, consistency=cached`. Option ` consistency` not implemented.");
+
+        DockerMounts.fromString("source=namedVolume, target=/path/in/container, consistency=cached");
+    }
+
+    @Test
+    public void shouldErrorOutOnAnUnknownMountType() throws Exception {
+        thrown.expect(RuntimeException.class);
+        thrown.expectMessage("Invalid mount type specification `type=tmpfs, target=/path/in/container`. Available options are `[bind, volume]`.");
+
+        DockerMounts.fromString("type=tmpfs, target=/path/in/container");
+    }
+
+    @Test
+    public void shouldErrorOutWhenABindMountHasNoSource() throws Exception {
+        thrown.expect(RuntimeException.class);
+        thrown.expectMessage("Invalid mount source specification `type=bind, target=/path/in/container`. Bind mounts have to specify `source`.");
+
+        DockerMounts.fromString("type=bind, target=/path/in/container");
+    }
 }
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.messages.swarm.Service;
+import com.thoughtworks.go.plugin.api.GoApplicationAccessor;
+import com.thoughtworks.go.plugin.api.request.DefaultGoPluginApiRequest;
+import com.thoughtworks.go.plugin.api.request.GoApiRequest;
+import com.thoughtworks.go.plugin.api.response.DefaultGoApiResponse;
+import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DockerPluginTest {
+    private static final int THREADS = 16;
+    private static final String CREATE_AGENT_REQUEST_BODY = "{" +
+            "\"auto_register_key\":\"secret-key\"," +
+            "\"elastic_agent_profile_properties\":{\"Image\":\"alpine:latest\"}," +
+            "\"environment\":\"prod\"," +
+            "\"cluster_profile_properties\":{\"docker_uri\":\"http://swarm-manager:2375\",\"max_docker_containers\":\"0\",\"go_server_url\":\"https://gocd:8154/go\"}" +
+            "}";
+
+    private final CountDownLatch releaseListServices = new CountDownLatch(1);
+    private final AtomicInteger dockerServicesCreated = new AtomicInteger();
+    private ExecutorService executor;
+    private DockerServicesRegistry registry;
+    private DockerPlugin plugin;
+
+    @Before
+    public void setUp() throws Exception {
+        DockerClient docker = mock(DockerClient.class);
+        when(docker.listServices(any(Service.Criteria.class))).thenAnswer(invocation -> {
+            releaseListServices.await();
+            return Collections.emptyList();
+        });
+        DockerClientFactory dockerClientFactory = mock(DockerClientFactory.class);
+        when(dockerClientFactory.docker(any(ClusterProfileProperties.class))).thenReturn(docker);
+
+        registry = new DockerServicesRegistry(() -> {
+            dockerServicesCreated.incrementAndGet();
+            return new DockerServices(dockerClientFactory);
+        });
+        plugin = new DockerPlugin(registry, dockerClientFactory);
+        GoApplicationAccessor accessor = mock(GoApplicationAccessor.class);
+        when(accessor.submit(any(GoApiRequest.class))).thenReturn(DefaultGoApiResponse.success("[]"));
+        plugin.initializeGoApplicationAccessor(accessor);
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        releaseListServices.countDown();
+        executor.shutdownNow();
+        for (DockerServices dockerServices : registry.asMap().values()) {
+            dockerServices.eventsWatcher().stop();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void shouldCreateASingleDockerServicesPerClusterUnderConcurrentRequests() throws Exception {
+        ClusterProfileProperties clusterProfileProperties = new ClusterProfileProperties();
+        clusterProfileProperties.setDockerURI("http://swarm-manager:2375");
+        CyclicBarrier barrier = new CyclicBarrier(THREADS);
+
+        List<Future<DockerServices>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            results.add(executor.submit(() -> {
+                barrier.await();
+                return registry.forCluster(clusterProfileProperties);
+            }));
+        }
+
+        Set<DockerServices> instances = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Future<DockerServices> result : results) {
+            instances.add(result.get());
+        }
+        assertThat(instances, hasSize(1));
+        assertThat(dockerServicesCreated.get(), is(1));
+    }
+
+    @Test(timeout = 30000)
+    public void shouldAnswerReadOnlyRequestsWhileClustersAreBeingRefreshed() throws Exception {
+        List<Future<GoPluginApiResponse>> createAgentResponses = new ArrayList<>();
+        for (int i = 0; i < THREADS / 2; i++) {
+            createAgentResponses.add(executor.submit(() -> plugin.handle(request("cd.go.elastic-agent.create-agent", CREATE_AGENT_REQUEST_BODY))));
+        }
+
+        List<Future<GoPluginApiResponse>> readOnlyResponses = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            for (String readOnly : Arrays.asList("cd.go.elastic-agent.get-elastic-agent-profile-metadata", "cd.go.elastic-agent.get-elastic-agent-profile-view",
+                    "cd.go.elastic-agent.get-icon", "cd.go.elastic-agent.get-capabilities")) {
+                readOnlyResponses.add(executor.submit(() -> plugin.handle(request(readOnly, "{}"))));
+            }
+        }
+        for (Future<GoPluginApiResponse> response : readOnlyResponses) {
+            assertThat(response.get(5, TimeUnit.SECONDS).responseCode(), is(200));
+        }
+        for (Future<GoPluginApiResponse> response : createAgentResponses) {
+            assertFalse(response.isDone());
+        }
+
+        releaseListServices.countDown();
+        for (Future<GoPluginApiResponse> response : createAgentResponses) {
+            assertThat(response.get(10, TimeUnit.SECONDS).responseCode(), is(200));
+        }
+        assertThat(dockerServicesCreated.get(), is(1));
+    }
+
+    @Test
+    public void shouldTimeEveryRequestByRequestType() throws Exception {
+        Metrics metrics = new Metrics();
+        plugin = new DockerPlugin(registry, mock(DockerClientFactory.class), metrics);
+
+        plugin.handle(request("cd.go.elastic-agent.get-capabilities", "{}"));
+        plugin.handle(request("cd.go.elastic-agent.get-capabilities", "{}"));
+        plugin.handle(request("cd.go.elastic-agent.unknown-request", "{}"));
+
+        List<Metrics.Snapshot> snapshots = metrics.snapshot();
+        assertThat(snapshots, hasSize(2));
+        assertThat(snapshots.get(0).getName(), is("request.get-capabilities"));
+        assertThat(snapshots.get(0).getCount(), is(2L));
+        assertThat(snapshots.get(0).getErrors(), is(0L));
+        assertThat(snapshots.get(1).getName(), is("request.unknown-request"));
+        assertThat(snapshots.get(1).getErrors(), is(1L));
+    }
+
+    private static DefaultGoPluginApiRequest request(String requestName, String body) {
+        DefaultGoPluginApiRequest apiRequest = new DefaultGoPluginApiRequest(Constants.EXTENSION_TYPE, Constants.EXTENSION_API_VERSION, requestName);
+        apiRequest.setRequestBody(body);
+        return apiRequest;
+    }
+}
@@ -142,4 +142,21 @@ public class DockerSecretsTest {
 
         DockerSecrets.fromString("src=Username, mode=0898").get(0).mode();
     }
+
+    @Test
+    public void shouldIgnoreOptionsWithoutValueAndTrailingCommas() throws Exception {
+        final DockerSecrets dockerSecrets = DockerSecrets.fromString("src=Username, external, target=Foo=Bar,,");
+
+        assertThat(dockerSecrets, hasSize(1));
+        assertThat(dockerSecrets.get(0).name(), is("Username"));
+        assertThat(dockerSecrets.get(0).file(), is("Foo=Bar"));
+    }
+
+    @Test
+    public void shouldErrorOutWhenSrcIsBlank() throws Exception {
+        thrown.expect(RuntimeException.class);
+        thrown.expectMessage("Invalid secret specification `src= , target=Foo`. Must specify property `src` with value.");
+
+        DockerSecrets.fromString("src= , target=Foo");
+    }
 }
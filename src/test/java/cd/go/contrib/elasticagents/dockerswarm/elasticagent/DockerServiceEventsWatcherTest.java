@@ -0,0 +1,216 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
+
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.JobIdentifier;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.requests.CreateAgentRequest;
+import com.google.common.base.Ticker;
+import com.spotify.docker.client.DefaultDockerClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.BooleanSupplier;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.*;
+
+public class DockerServiceEventsWatcherTest {
+    private FakeSwarmServer server;
+    private DefaultDockerClient dockerClient;
+    private DockerServices dockerServices;
+    private ClusterProfileProperties clusterProfileProperties;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeSwarmServer();
+        dockerClient = DefaultDockerClient.builder().uri(server.uri()).build();
+        DockerClientFactory dockerClientFactory = new DockerClientFactory(clusterProfileProperties -> dockerClient, 10, 30, TimeUnit.MINUTES, Ticker.systemTicker());
+        dockerServices = new DockerServices(dockerClientFactory);
+        clusterProfileProperties = new ClusterProfileProperties();
+        clusterProfileProperties.setDockerURI(server.uri());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dockerServices.eventsWatcher().stop();
+        dockerClient.close();
+        server.stop();
+    }
+
+    @Test
+    public void shouldRegisterServicesCreatedByThePluginAsEventsArrive() throws Exception {
+        dockerServices.refreshAll(clusterProfileProperties);
+
+        server.addService("id-1", "agent-1", true);
+        server.sendEvent("create", "id-1", "agent-1");
+
+        waitUntil(() -> dockerServices.hasInstance("agent-1"));
+        assertThat(dockerServices.find("agent-1").jobIdentifier().getJobId(), is(42L));
+    }
+
+    @Test
+    public void shouldReconcileServicesCreatedByThisPluginWhenTheirCreateEventArrives() throws Exception {
+        dockerServices.refreshAll(clusterProfileProperties);
+        Map<String, String> properties = new HashMap<>();
+        properties.put("Image", "alpine:latest");
+
+        DockerService created = DockerService.create(new CreateAgentRequest("key", properties, "prod", new JobIdentifier(42L), new HashMap<>()), clusterProfileProperties, dockerClient);
+        dockerServices.register(created);
+        assertFalse(created.isReconciled());
+
+        waitUntil(() -> dockerServices.find(created.name()).isReconciled());
+        assertThat(dockerServices.find(created.name()).jobIdentifier().getJobId(), is(42L));
+        assertThat(server.requests("GET /services/{id}"), is(1));
+    }
+
+    @Test
+    public void shouldIgnoreServicesThatWereNotCreatedByThePlugin() throws Exception {
+        dockerServices.refreshAll(clusterProfileProperties);
+
+        server.addService("id-1", "some-other-service", false);
+        server.sendEvent("create", "id-1", "some-other-service");
+        server.addService("id-2", "agent-2", true);
+        server.sendEvent("create", "id-2", "agent-2");
+
+        waitUntil(() -> dockerServices.hasInstance("agent-2"));
+        assertFalse(dockerServices.hasInstance("some-other-service"));
+    }
+
+    @Test
+    public void shouldInspectServicesThatWereNotCreatedByThePluginOnce() throws Exception {
+        dockerServices.refreshAll(clusterProfileProperties);
+
+        server.addService("id-1", "some-other-service", false);
+        server.sendEvent("create", "id-1", "some-other-service");
+        server.sendEvent("update", "id-1", "some-other-service");
+        server.sendEvent("update", "id-1", "some-other-service");
+        server.addService("id-2", "agent-2", true);
+        server.sendEvent("create", "id-2", "agent-2");
+
+        waitUntil(() -> dockerServices.hasInstance("agent-2"));
+        assertThat(server.requests("GET /services/{id}"), is(2));
+    }
+
+    @Test
+    public void shouldWatchEventsByTheClockOfTheSwarm() throws Exception {
+        server.clockOffset(1, TimeUnit.HOURS);
+        long before = DockerServiceEventsWatcher.nowInSeconds() + TimeUnit.HOURS.toSeconds(1);
+        dockerServices.refreshAll(clusterProfileProperties);
+
+        waitUntil(() -> server.eventQueries().size() == 1);
+        long since = Long.parseLong(server.eventQueries().get(0).replaceAll(".*since=(\\d+).*", "$1"));
+        assertTrue(since >= before - 1);
+
+        Thread.sleep(500);
+        assertTrue(dockerServices.eventsWatcher().isWatching());
+        assertThat(server.eventQueries().size(), is(1));
+    }
+
+    @Test
+    public void shouldForgetServicesAsTheyAreRemoved() throws Exception {
+        server.addService("id-1", "agent-1", true);
+        dockerServices.refreshAll(clusterProfileProperties);
+        assertTrue(dockerServices.hasInstance("agent-1"));
+
+        server.removeService("id-1");
+        server.sendEvent("remove", "id-1", "agent-1");
+
+        waitUntil(() -> !dockerServices.hasInstance("agent-1"));
+    }
+
+    @Test
+    public void shouldForgetTheCachedSecretsWhenASecretChanges() throws Exception {
+        CachingDockerClient cachingClient = new CachingDockerClient(DefaultDockerClient.builder().uri(server.uri()));
+        DockerServices dockerServices = new DockerServices(new DockerClientFactory(clusterProfileProperties -> cachingClient, 10, 30, TimeUnit.MINUTES, Ticker.systemTicker()));
+        try {
+            dockerServices.refreshAll(clusterProfileProperties);
+            cachingClient.listSecrets();
+
+            server.addSecret("Password");
+            server.sendEvent("secret", "create", "secret-id", "Password");
+
+            waitUntil(() -> {
+                try {
+                    return cachingClient.listSecrets().size() == 1;
+                } catch (Exception e) {
+                    return false;
+                }
+            });
+            assertThat(server.requests("GET /secrets"), is(2));
+        } finally {
+            dockerServices.eventsWatcher().stop();
+            cachingClient.close();
+        }
+    }
+
+    @Test
+    public void shouldWatchServiceEventsFromTheTimeServicesWereListed() throws Exception {
+        long before = DockerServiceEventsWatcher.nowInSeconds();
+        dockerServices.refreshAll(clusterProfileProperties);
+
+        waitUntil(() -> server.eventQueries().size() == 1);
+        String query = server.eventQueries().get(0);
+        assertThat(query, containsString("\"type\":[\"service\",\"secret\",\"network\"]"));
+        long since = Long.parseLong(query.replaceAll(".*since=(\\d+).*", "$1"));
+        assertTrue(since >= before && since <= DockerServiceEventsWatcher.nowInSeconds());
+        assertThat(query, containsString("until="));
+    }
+
+    @Test
+    public void shouldNotListServicesOnForcedRefreshWhileWatchingEvents() throws Exception {
+        dockerServices.refreshAll(clusterProfileProperties, true);
+        dockerServices.refreshAll(clusterProfileProperties, true);
+        dockerServices.refreshAll(clusterProfileProperties, true);
+
+        assertTrue(dockerServices.eventsWatcher().isWatching());
+        assertThat(server.requests("GET /services"), is(1));
+    }
+
+    @Test
+    public void shouldResyncOnForcedRefreshOnceTheEventsStreamDrops() throws Exception {
+        server.addService("id-1", "agent-1", true);
+        dockerServices.refreshAll(clusterProfileProperties, true);
+        waitUntil(() -> server.eventQueries().size() == 1);
+
+        server.addService("id-2", "agent-2", true);
+        server.closeEventStreams();
+        waitUntil(() -> !dockerServices.eventsWatcher().isWatching());
+
+        dockerServices.refreshAll(clusterProfileProperties, false);
+        assertThat(server.requests("GET /services"), is(1));
+
+        dockerServices.refreshAll(clusterProfileProperties, true);
+        assertThat(server.requests("GET /services"), is(2));
+        assertTrue(dockerServices.hasInstance("agent-2"));
+        waitUntil(() -> server.eventQueries().size() == 2);
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Timed out waiting for condition");
+            }
+            Thread.sleep(10);
+        }
+    }
+}
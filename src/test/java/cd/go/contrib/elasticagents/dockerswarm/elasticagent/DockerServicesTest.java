@@ -0,0 +1,222 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
+
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.JobIdentifier;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.requests.CreateAgentRequest;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.Util;
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.messages.ServiceCreateResponse;
+import com.spotify.docker.client.messages.Version;
+import com.spotify.docker.client.messages.swarm.Service;
+import com.spotify.docker.client.messages.swarm.ServiceSpec;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class DockerServicesTest {
+    private final CountDownLatch createServiceCalled = new CountDownLatch(1);
+    private final CountDownLatch releaseCreateService = new CountDownLatch(1);
+    private DockerClient docker;
+    private DockerClientFactory dockerClientFactory;
+    private DockerServices dockerServices;
+    private PluginRequest pluginRequest;
+    private ClusterProfileProperties clusterProfileProperties;
+    private Map<String, String> properties;
+
+    @Before
+    public void setUp() throws Exception {
+        docker = mock(DockerClient.class);
+        Version version = mock(Version.class);
+        when(version.apiVersion()).thenReturn("1.25");
+        when(docker.version()).thenReturn(version);
+        when(docker.createService(any(ServiceSpec.class))).thenAnswer(invocation -> {
+            createServiceCalled.countDown();
+            releaseCreateService.await();
+            ServiceSpec spec = invocation.getArgument(0);
+            ServiceCreateResponse response = mock(ServiceCreateResponse.class);
+            when(response.id()).thenReturn(spec.name());
+            return response;
+        });
+        when(docker.inspectService(anyString())).thenAnswer(invocation -> service(invocation.getArgument(0)));
+
+        dockerClientFactory = mock(DockerClientFactory.class);
+        when(dockerClientFactory.docker(any(ClusterProfileProperties.class))).thenReturn(docker);
+        dockerServices = new DockerServices(dockerClientFactory);
+
+        pluginRequest = mock(PluginRequest.class);
+        clusterProfileProperties = new ClusterProfileProperties();
+        clusterProfileProperties.setMaxDockerContainers(2);
+        properties = new HashMap<>();
+        properties.put("Image", "alpine:latest");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        releaseCreateService.countDown();
+    }
+
+    @Test(timeout = 10000)
+    public void shouldReturnBeforeTheServiceIsCreated() throws Exception {
+        Future<DockerService> creation = dockerServices.createAsync(request(1L), pluginRequest);
+
+        createServiceCalled.await();
+        assertFalse(creation.isDone());
+        assertTrue(dockerServices.isEmpty());
+
+        releaseCreateService.countDown();
+        DockerService dockerService = creation.get();
+        assertTrue(dockerServices.hasInstance(dockerService.name()));
+    }
+
+    @Test(timeout = 10000)
+    public void shouldNotCreateASecondServiceForAJobWhoseServiceIsBeingCreated() throws Exception {
+        Future<DockerService> creation = dockerServices.createAsync(request(1L), pluginRequest);
+        createServiceCalled.await();
+
+        assertThat(dockerServices.createAsync(request(1L), pluginRequest), is(sameInstance(creation)));
+
+        releaseCreateService.countDown();
+        creation.get();
+        verify(docker, times(1)).createService(any(ServiceSpec.class));
+    }
+
+    @Test(timeout = 10000)
+    public void shouldCountServicesBeingCreatedAgainstTheMaximumNumberOfContainers() throws Exception {
+        Future<DockerService> first = dockerServices.createAsync(request(1L), pluginRequest);
+        Future<DockerService> second = dockerServices.createAsync(request(2L), pluginRequest);
+        Future<DockerService> third = dockerServices.createAsync(request(3L), pluginRequest);
+
+        assertThat(third.get(), is(nullValue()));
+        verify(pluginRequest).addServerHealthMessage(argThat(messages -> messages.size() == 1 && "warning".equals(messages.get(0).get("type"))));
+
+        releaseCreateService.countDown();
+        assertThat(first.get(), is(notNullValue()));
+        assertThat(second.get(), is(notNullValue()));
+        assertThat(dockerServices.createAsync(request(4L), pluginRequest).get(), is(nullValue()));
+    }
+
+    @Test(timeout = 10000)
+    public void shouldReportAFailedCreationToTheServer() throws Exception {
+        releaseCreateService.countDown();
+        when(docker.createService(any(ServiceSpec.class))).thenThrow(new DockerException("swarm is down"));
+
+        try {
+            dockerServices.createAsync(request(1L), pluginRequest).get();
+            fail("Should have thrown exception");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause().getMessage(), is("swarm is down"));
+        }
+
+        verify(pluginRequest).addServerHealthMessage(argThat(messages -> messages.size() == 1
+                && "error".equals(messages.get(0).get("type")) && messages.get(0).get("message").endsWith(": swarm is down")));
+    }
+
+    @Test(timeout = 10000)
+    public void shouldReportACreationNoWorkerIsAvailableForAndReleaseItsCapacity() throws Exception {
+        ExecutorService createExecutor = Executors.newSingleThreadExecutor();
+        createExecutor.shutdown();
+        dockerServices = new DockerServices(dockerClientFactory, new WarmPool(createExecutor), ElasticAgentIndex.instance(), createExecutor);
+        clusterProfileProperties.setMaxDockerContainers(1);
+
+        for (long jobId = 1; jobId <= 2; jobId++) {
+            try {
+                dockerServices.createAsync(request(jobId), pluginRequest).get();
+                fail("Should have thrown exception");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause(), instanceOf(RejectedExecutionException.class));
+            }
+        }
+
+        verify(pluginRequest, times(2)).addServerHealthMessage(argThat(messages -> messages.size() == 1 && "error".equals(messages.get(0).get("type"))));
+        verify(docker, never()).createService(any(ServiceSpec.class));
+    }
+
+    @Test(timeout = 10000)
+    public void shouldReleaseReservedCapacityWhenCreationFails() throws Exception {
+        clusterProfileProperties.setMaxDockerContainers(1);
+        releaseCreateService.countDown();
+        ServiceCreateResponse response = mock(ServiceCreateResponse.class);
+        when(response.id()).thenReturn("service-id");
+        when(docker.createService(any(ServiceSpec.class))).thenThrow(new DockerException("swarm is down")).thenReturn(response);
+
+        try {
+            dockerServices.create(request(1L), pluginRequest);
+            fail("Should have thrown exception");
+        } catch (DockerException e) {
+            assertThat(e.getMessage(), is("swarm is down"));
+        }
+
+        assertThat(dockerServices.create(request(2L), pluginRequest), is(notNullValue()));
+    }
+
+    @Test
+    public void shouldOnlyListServicesCreatedByThePluginOnRefresh() throws Exception {
+        dockerServices.refreshAll(clusterProfileProperties);
+
+        verify(docker).listServices(Util.servicesCreatedByPlugin());
+        verify(docker, never()).listServices();
+        dockerServices.eventsWatcher().stop();
+    }
+
+    @Test
+    public void shouldTerminateUnregisteredServicesWithoutInspectingThem() throws Exception {
+        DateTime now = new DateTime();
+        for (int i = 0; i < 5; i++) {
+            dockerServices.register(new DockerService("old-" + i, now.minusMinutes(11).toDate(), properties, "production", new JobIdentifier((long) i)));
+        }
+        dockerServices.register(new DockerService("new", now.minusMinutes(9).toDate(), properties, "production", new JobIdentifier(5L)));
+        dockerServices.register(new DockerService("registered", now.minusMinutes(11).toDate(), properties, "production", new JobIdentifier(6L)));
+        dockerServices.clock = new Clock.TestClock(now);
+
+        dockerServices.terminateUnregisteredInstances(clusterProfileProperties, new Agents(Arrays.asList(new Agent("registered", null, null, null))));
+
+        verify(docker, never()).inspectService(anyString());
+        verify(docker, times(5)).removeService(anyString());
+        verify(dockerClientFactory, times(1)).docker(clusterProfileProperties);
+        assertTrue(dockerServices.hasInstance("new"));
+        assertTrue(dockerServices.hasInstance("registered"));
+        assertFalse(dockerServices.hasInstance("old-0"));
+    }
+
+    private CreateAgentRequest request(long jobId) {
+        JobIdentifier jobIdentifier = new JobIdentifier("up42", 1L, "1", "stage", "1", "job", jobId);
+        return new CreateAgentRequest("key", properties, "production", jobIdentifier, clusterProfileProperties);
+    }
+
+    private static Service service(String name) {
+        Service service = mock(Service.class);
+        ServiceSpec spec = mock(ServiceSpec.class);
+        when(spec.name()).thenReturn(name);
+        when(service.spec()).thenReturn(spec);
+        when(service.createdAt()).thenReturn(new Date());
+        return service;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.messages.swarm.Service;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Date;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ElasticAgentIndexTest {
+    private ElasticAgentIndex index;
+    private DockerClient docker;
+    private ClusterProfileProperties profile1;
+    private ClusterProfileProperties profile2;
+    private DockerServices cluster1;
+    private DockerServices cluster2;
+
+    @Before
+    public void setUp() throws Exception {
+        index = new ElasticAgentIndex();
+        docker = mock(DockerClient.class);
+        when(docker.listServices(any(Service.Criteria.class))).thenReturn(Collections.emptyList());
+        DockerClientFactory dockerClientFactory = mock(DockerClientFactory.class);
+        when(dockerClientFactory.docker(any(ClusterProfileProperties.class))).thenReturn(docker);
+        profile1 = profile("http://swarm-1:2375");
+        profile2 = profile("http://swarm-2:2375");
+        cluster1 = new DockerServices(dockerClientFactory, new WarmPool(MoreExecutors.newDirectExecutorService()), index);
+        cluster2 = new DockerServices(dockerClientFactory, new WarmPool(MoreExecutors.newDirectExecutorService()), index);
+        cluster1.refreshAll(profile1);
+        cluster2.refreshAll(profile2);
+    }
+
+    @After
+    public void tearDown() {
+        cluster1.eventsWatcher().stop();
+        cluster2.eventsWatcher().stop();
+    }
+
+    @Test
+    public void shouldKnowTheClusterOfRegisteredAgents() throws Exception {
+        cluster1.register(service("agent-1"));
+        cluster2.register(service("agent-2"));
+
+        assertThat(index.clusterOf("agent-1"), is(profile1.uuid()));
+        assertThat(index.clusterOf("agent-2"), is(profile2.uuid()));
+        assertThat(index.clusterOf("agent-3"), is(nullValue()));
+    }
+
+    @Test
+    public void shouldForgetTerminatedAgents() throws Exception {
+        cluster1.register(service("agent-1"));
+
+        cluster1.terminate("agent-1", profile1);
+
+        assertThat(index.clusterOf("agent-1"), is(nullValue()));
+        assertThat(index.size(), is(0));
+    }
+
+    @Test
+    public void shouldForgetAgentsThatAreNoLongerListedOnRefresh() throws Exception {
+        cluster1.register(service("agent-1"));
+        cluster1.eventsWatcher().stop();
+
+        cluster1.refreshAll(profile1, true);
+
+        assertThat(index.clusterOf("agent-1"), is(nullValue()));
+        assertThat(index.size(), is(0));
+    }
+
+    @Test
+    public void shouldNotLetAClusterForgetAnAgentOwnedByAnotherCluster() throws Exception {
+        cluster1.register(service("agent-1"));
+        cluster2.register(service("agent-1"));
+
+        cluster1.remove("agent-1");
+
+        assertThat(index.clusterOf("agent-1"), is(profile2.uuid()));
+    }
+
+    @Test
+    public void shouldLetTheRegistryFindTheServicesOfTheClusterOfAnAgent() throws Exception {
+        DockerServicesRegistry registry = new DockerServicesRegistry(() -> cluster2, index);
+        registry.forCluster(profile2);
+        cluster2.register(service("agent-2"));
+
+        assertThat(registry.forAgent("agent-2", profile1), is(sameInstance(cluster2)));
+        assertThat(registry.forAgent("agent-3", profile2), is(sameInstance(cluster2)));
+    }
+
+    private static ClusterProfileProperties profile(String dockerURI) {
+        ClusterProfileProperties clusterProfileProperties = new ClusterProfileProperties();
+        clusterProfileProperties.setDockerURI(dockerURI);
+        return clusterProfileProperties;
+    }
+
+    private static DockerService service(String name) {
+        return new DockerService(name, new Date(), null, "", null);
+    }
+}
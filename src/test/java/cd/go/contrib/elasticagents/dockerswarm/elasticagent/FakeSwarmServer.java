@@ -0,0 +1,625 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
+
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.JobIdentifier;
+import com.google.gson.*;
+import com.google.gson.reflect.TypeToken;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static cd.go.contrib.elasticagents.dockerswarm.elasticagent.Constants.*;
+
+/**
+ * An in-process stand-in for the docker swarm endpoints the plugin talks to: services, tasks, nodes, secrets,
+ * networks, version, ping, events and logs. State is held in memory, so services created through the API get a
+ * running task on one of the nodes, show up in listings and produce service events until they are removed.
+ * <p>
+ * Every request can be slowed down by a fixed latency, and requests can be made to fail, either the next few or a
+ * share of them at random, to see how the plugin behaves against a slow or flaky swarm.
+ */
+public class FakeSwarmServer {
+    private static final Gson GSON = new Gson();
+    private static final JsonObject CLOSE_STREAM = new JsonObject();
+    private static final String API_VERSION = "1.32";
+    private static final long EVENT_HISTORY_SECONDS = 300;
+
+    private final HttpServer httpServer;
+    private final ExecutorService executorService = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "fake-swarm");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, JsonObject> services = new ConcurrentHashMap<>();
+    private final Map<String, JsonObject> tasks = new ConcurrentHashMap<>();
+    private final List<JsonObject> nodes = new CopyOnWriteArrayList<>();
+    private final List<JsonObject> secrets = new CopyOnWriteArrayList<>();
+    private final List<JsonObject> networks = new CopyOnWriteArrayList<>();
+    private final Deque<JsonObject> eventHistory = new ArrayDeque<>();
+    private final Set<BlockingQueue<JsonObject>> eventSubscribers = new HashSet<>();
+    private final List<String> eventQueries = new CopyOnWriteArrayList<>();
+    private final Map<String, AtomicInteger> requestCounts = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+    private final AtomicLong responseBytes = new AtomicLong();
+    private final AtomicInteger failNext = new AtomicInteger();
+    private final Random random = new Random(42);
+
+    private volatile long latencyMillis;
+    private volatile double failureRate;
+    private volatile long clockOffsetMillis;
+
+    public FakeSwarmServer() throws IOException {
+        this(1);
+    }
+
+    public FakeSwarmServer(int nodeCount) throws IOException {
+        for (int i = 0; i < nodeCount; i++) {
+            nodes.add(node(i));
+        }
+        networks.add(network("ingress", "overlay"));
+        networks.add(network("bridge", "bridge"));
+
+        httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        httpServer.createContext("/", this::handle);
+        httpServer.setExecutor(executorService);
+        httpServer.start();
+    }
+
+    public String uri() {
+        return "http://127.0.0.1:" + httpServer.getAddress().getPort();
+    }
+
+    public void stop() {
+        closeEventStreams();
+        httpServer.stop(0);
+        executorService.shutdownNow();
+    }
+
+    /**
+     * Every request waits for the given time before it is answered.
+     */
+    public FakeSwarmServer latency(long latency, TimeUnit unit) {
+        this.latencyMillis = unit.toMillis(latency);
+        return this;
+    }
+
+    /**
+     * The clock of the swarm, which stamps events and bounds the windows of events streams, is off from the clock of
+     * the test by the given time.
+     */
+    public FakeSwarmServer clockOffset(long offset, TimeUnit unit) {
+        this.clockOffsetMillis = unit.toMillis(offset);
+        return this;
+    }
+
+    /**
+     * The given share of requests, picked at random, fail with a server error.
+     */
+    public FakeSwarmServer failureRate(double failureRate) {
+        this.failureRate = failureRate;
+        return this;
+    }
+
+    /**
+     * The next requests, up to the given number, fail with a server error.
+     */
+    public FakeSwarmServer failNext(int requests) {
+        failNext.set(requests);
+        return this;
+    }
+
+    /**
+     * Adds a service as if it had been created earlier, without a service event.
+     */
+    public void addService(String id, String name, boolean createdByPlugin) {
+        Map<String, String> labels = new HashMap<>();
+        if (createdByPlugin) {
+            labels.put(CREATED_BY_LABEL_KEY, PLUGIN_ID);
+            labels.put(CONFIGURATION_LABEL_KEY, "{\"Image\":\"alpine:latest\"}");
+            labels.put(JOB_IDENTIFIER_LABEL_KEY, new JobIdentifier(42L).toJson());
+        }
+
+        JsonObject spec = new JsonObject();
+        spec.addProperty("Name", name);
+        spec.add("Labels", GSON.toJsonTree(labels));
+        spec.add("TaskTemplate", object("ContainerSpec", object("Image", "alpine:latest")));
+        putService(id, spec);
+    }
+
+    /**
+     * Removes a service and its tasks, without a service event.
+     */
+    public void removeService(String id) {
+        services.remove(id);
+        tasks.values().removeIf(task -> id.equals(task.get("ServiceID").getAsString()));
+    }
+
+    public void addSecret(String name) {
+        JsonObject secret = resource();
+        secret.add("Spec", object("Name", name));
+        secrets.add(secret);
+    }
+
+    public Set<String> serviceNames() {
+        Set<String> names = new HashSet<>();
+        for (JsonObject service : services.values()) {
+            names.add(service.getAsJsonObject("Spec").get("Name").getAsString());
+        }
+        return names;
+    }
+
+    public void sendEvent(String action, String id, String name) {
+        sendEvent("service", action, id, name);
+    }
+
+    public void sendEvent(String type, String action, String id, String name) {
+        JsonObject actor = new JsonObject();
+        actor.addProperty("ID", id);
+        actor.add("Attributes", object("name", name));
+
+        JsonObject event = new JsonObject();
+        event.addProperty("Type", type);
+        event.addProperty("Action", action);
+        event.add("Actor", actor);
+        event.addProperty("time", TimeUnit.MILLISECONDS.toSeconds(currentTimeMillis()));
+        event.addProperty("timeNano", TimeUnit.MILLISECONDS.toNanos(currentTimeMillis()));
+
+        synchronized (eventSubscribers) {
+            while (!eventHistory.isEmpty() && eventHistory.peekFirst().get("time").getAsLong() < event.get("time").getAsLong() - EVENT_HISTORY_SECONDS) {
+                eventHistory.removeFirst();
+            }
+            eventHistory.addLast(event);
+            eventSubscribers.forEach(subscriber -> subscriber.add(event));
+        }
+    }
+
+    /**
+     * Ends all open events streams before the end of the window they were requested for.
+     */
+    public void closeEventStreams() {
+        synchronized (eventSubscribers) {
+            eventSubscribers.forEach(subscriber -> subscriber.add(CLOSE_STREAM));
+        }
+    }
+
+    /**
+     * @return the decoded query strings of the events streams requested so far
+     */
+    public List<String> eventQueries() {
+        return eventQueries;
+    }
+
+    /**
+     * @return the number of requests made so far for an endpoint, e.g. <code>GET /services</code> or
+     * <code>GET /services/{id}</code>
+     */
+    public int requests(String endpoint) {
+        final AtomicInteger count = requestCounts.get(endpoint);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @return how many bytes of response bodies the swarm has sent so far, leaving out events streams
+     */
+    public long responseBytes() {
+        return responseBytes.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        final String method = exchange.getRequestMethod();
+        final String path = exchange.getRequestURI().getPath().replaceFirst("^/v[0-9.]+", "");
+        final String[] segments = path.substring(1).split("/");
+        final String route = method + " " + path.replaceFirst("^/services/(?!create$)[^/]+", "/services/{id}");
+        requestCounts.computeIfAbsent(route, endpoint -> new AtomicInteger()).incrementAndGet();
+
+        try {
+            if (latencyMillis > 0) {
+                Thread.sleep(latencyMillis);
+            }
+            if (shouldFail()) {
+                respond(exchange, 500, error("injected failure"));
+                return;
+            }
+
+            final Map<String, List<String>> filters = filters(exchange);
+            switch (route) {
+                case "GET /_ping":
+                    respond(exchange, 200, "OK");
+                    break;
+                case "GET /version":
+                    respond(exchange, 200, version());
+                    break;
+                case "GET /info":
+                    respond(exchange, 200, info());
+                    break;
+                case "GET /services":
+                    respond(exchange, 200, GSON.toJson(matching(services.values(), filters)));
+                    break;
+                case "POST /services/create":
+                    respond(exchange, 201, createService(exchange));
+                    break;
+                case "GET /services/{id}":
+                    final JsonObject service = service(segments[1]);
+                    if (service == null) {
+                        respond(exchange, 404, error("service " + segments[1] + " not found"));
+                    } else {
+                        respond(exchange, 200, GSON.toJson(service));
+                    }
+                    break;
+                case "DELETE /services/{id}":
+                    final JsonObject removed = service(segments[1]);
+                    if (removed == null) {
+                        respond(exchange, 404, error("service " + segments[1] + " not found"));
+                    } else {
+                        final String id = removed.get("ID").getAsString();
+                        removeService(id);
+                        sendEvent("remove", id, removed.getAsJsonObject("Spec").get("Name").getAsString());
+                        respond(exchange, 200, "");
+                    }
+                    break;
+                case "GET /services/{id}/logs":
+                    final JsonObject logged = service(segments[1]);
+                    if (logged == null) {
+                        respond(exchange, 404, error("service " + segments[1] + " not found"));
+                    } else {
+                        respond(exchange, 200, "application/vnd.docker.raw-stream", logs(logged));
+                    }
+                    break;
+                case "GET /tasks":
+                    respond(exchange, 200, GSON.toJson(matching(tasks.values(), filters)));
+                    break;
+                case "GET /nodes":
+                    respond(exchange, 200, GSON.toJson(nodes));
+                    break;
+                case "GET /secrets":
+                    respond(exchange, 200, GSON.toJson(secrets));
+                    break;
+                case "GET /networks":
+                    respond(exchange, 200, GSON.toJson(networks));
+                    break;
+                case "GET /events":
+                    eventQueries.add(URLDecoder.decode(exchange.getRequestURI().getRawQuery(), "UTF-8"));
+                    streamEvents(exchange);
+                    break;
+                default:
+                    respond(exchange, 404, error("page not found"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            respond(exchange, 500, error(e.getMessage()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private boolean shouldFail() {
+        if (failNext.getAndUpdate(remaining -> Math.max(remaining - 1, 0)) > 0) {
+            return true;
+        }
+        synchronized (random) {
+            return failureRate > 0 && random.nextDouble() < failureRate;
+        }
+    }
+
+    private String createService(HttpExchange exchange) throws IOException {
+        final JsonObject spec = new JsonParser().parse(IOUtils.toString(exchange.getRequestBody(), StandardCharsets.UTF_8)).getAsJsonObject();
+        final String id = nextId();
+        final String name = spec.has("Name") ? spec.get("Name").getAsString() : id;
+        putService(id, spec);
+        sendEvent("create", id, name);
+        return GSON.toJson(object("ID", id));
+    }
+
+    private void putService(String id, JsonObject spec) {
+        JsonObject service = resource();
+        service.addProperty("ID", id);
+        service.add("Spec", spec);
+        service.add("Endpoint", object("Spec", new JsonObject()));
+        services.put(id, service);
+
+        JsonObject status = new JsonObject();
+        status.addProperty("Timestamp", now());
+        status.addProperty("State", "running");
+        status.addProperty("Message", "started");
+
+        JsonObject task = resource();
+        task.add("Spec", spec.has("TaskTemplate") ? spec.get("TaskTemplate") : new JsonObject());
+        task.addProperty("ServiceID", id);
+        JsonObject serviceAnnotations = new JsonObject();
+        serviceAnnotations.addProperty("Name", spec.has("Name") ? spec.get("Name").getAsString() : id);
+        serviceAnnotations.add("Labels", spec.has("Labels") ? spec.get("Labels") : new JsonObject());
+        task.add("ServiceAnnotations", serviceAnnotations);
+        task.addProperty("Slot", 1);
+        task.addProperty("NodeID", nodes.get((int) (ids.get() % nodes.size())).get("ID").getAsString());
+        task.add("Status", status);
+        task.addProperty("DesiredState", "running");
+        tasks.put(task.get("ID").getAsString(), task);
+    }
+
+    private JsonObject service(String idOrName) {
+        final JsonObject service = services.get(idOrName);
+        if (service != null) {
+            return service;
+        }
+        for (JsonObject candidate : services.values()) {
+            if (idOrName.equals(candidate.getAsJsonObject("Spec").get("Name").getAsString())) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A single line on stdout, framed the way docker multiplexes the output streams of a service.
+     */
+    private static byte[] logs(JsonObject service) {
+        final byte[] line = ("Starting agent for service " + service.get("ID").getAsString() + "\n").getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(8 + line.length).put((byte) 1).put(new byte[3]).putInt(line.length).put(line).array();
+    }
+
+    /**
+     * Streams the events of the requested window as they happen, starting with those already sent since the start of
+     * the window, and ends the stream once the window is over.
+     */
+    private void streamEvents(HttpExchange exchange) throws IOException, InterruptedException {
+        final Map<String, String> query = query(exchange);
+        final long since = query.containsKey("since") ? Long.parseLong(query.get("since")) : Long.MIN_VALUE;
+        final long until = query.containsKey("until") ? Long.parseLong(query.get("until")) : Long.MAX_VALUE;
+
+        final BlockingQueue<JsonObject> subscriber = new LinkedBlockingQueue<>();
+        synchronized (eventSubscribers) {
+            eventHistory.stream().filter(event -> event.get("time").getAsLong() >= since).forEach(subscriber::add);
+            eventSubscribers.add(subscriber);
+        }
+
+        try {
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, 0);
+            final OutputStream body = exchange.getResponseBody();
+            body.flush();
+            while (true) {
+                final long remaining = TimeUnit.SECONDS.toMillis(until) - currentTimeMillis();
+                final JsonObject event = subscriber.poll(Math.min(Math.max(remaining, 0), TimeUnit.DAYS.toMillis(1)), TimeUnit.MILLISECONDS);
+                if (event == null || event == CLOSE_STREAM) {
+                    return;
+                }
+                if (event.get("time").getAsLong() < until) {
+                    body.write((GSON.toJson(event) + "\n").getBytes(StandardCharsets.UTF_8));
+                    body.flush();
+                }
+            }
+        } finally {
+            synchronized (eventSubscribers) {
+                eventSubscribers.remove(subscriber);
+            }
+        }
+    }
+
+    private static List<JsonObject> matching(Collection<JsonObject> resources, Map<String, List<String>> filters) {
+        List<JsonObject> matching = new ArrayList<>();
+        for (JsonObject resource : resources) {
+            if (matches(resource, filters)) {
+                matching.add(resource);
+            }
+        }
+        return matching;
+    }
+
+    private static boolean matches(JsonObject resource, Map<String, List<String>> filters) {
+        final JsonObject spec = resource.getAsJsonObject("Spec");
+        for (Map.Entry<String, List<String>> filter : filters.entrySet()) {
+            for (String value : filter.getValue()) {
+                switch (filter.getKey()) {
+                    case "id":
+                        if (!resource.get("ID").getAsString().startsWith(value)) return false;
+                        break;
+                    case "name":
+                        if (!spec.has("Name") || !spec.get("Name").getAsString().startsWith(value)) return false;
+                        break;
+                    case "service":
+                        if (!resource.get("ServiceID").getAsString().equals(value)) return false;
+                        break;
+                    case "desired-state":
+                        if (!resource.has("DesiredState") || !resource.get("DesiredState").getAsString().equals(value)) return false;
+                        break;
+                    case "label":
+                        final String[] label = value.split("=", 2);
+                        // like docker, tasks are matched on the labels of their service
+                        final JsonObject labelled = resource.has("ServiceAnnotations") ? resource.getAsJsonObject("ServiceAnnotations") : spec;
+                        final JsonObject labels = labelled.has("Labels") ? labelled.getAsJsonObject("Labels") : new JsonObject();
+                        if (!labels.has(label[0]) || (label.length == 2 && !labels.get(label[0]).getAsString().equals(label[1]))) return false;
+                        break;
+                    default:
+                }
+            }
+        }
+        return true;
+    }
+
+    private static Map<String, List<String>> filters(HttpExchange exchange) throws IOException {
+        final String filters = query(exchange).get("filters");
+        if (filters == null) {
+            return Collections.emptyMap();
+        }
+        return GSON.fromJson(filters, new TypeToken<Map<String, List<String>>>() {
+        }.getType());
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) throws IOException {
+        final String rawQuery = exchange.getRequestURI().getRawQuery();
+        final Map<String, String> query = new HashMap<>();
+        if (rawQuery != null) {
+            for (String parameter : rawQuery.split("&")) {
+                final String[] parts = parameter.split("=", 2);
+                query.put(URLDecoder.decode(parts[0], "UTF-8"), parts.length == 2 ? URLDecoder.decode(parts[1], "UTF-8") : "");
+            }
+        }
+        return query;
+    }
+
+    private void respond(HttpExchange exchange, int status, String body) throws IOException {
+        respond(exchange, status, "application/json", body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void respond(HttpExchange exchange, int status, String contentType, byte[] bytes) throws IOException {
+        responseBytes.addAndGet(bytes.length);
+        exchange.getResponseHeaders().add("Content-Type", contentType);
+        // An empty body goes out chunked: answering with no body at all leaves the client's pooled connection unusable.
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private String nextId() {
+        return String.format("%025x", ids.incrementAndGet());
+    }
+
+    private JsonObject resource() {
+        JsonObject resource = new JsonObject();
+        resource.addProperty("ID", nextId());
+        resource.add("Version", object("Index", 1));
+        resource.addProperty("CreatedAt", now());
+        resource.addProperty("UpdatedAt", now());
+        return resource;
+    }
+
+    private JsonObject node(int index) {
+        JsonObject spec = new JsonObject();
+        spec.addProperty("Role", index == 0 ? "manager" : "worker");
+        spec.addProperty("Availability", "active");
+
+        JsonObject platform = new JsonObject();
+        platform.addProperty("Architecture", "x86_64");
+        platform.addProperty("OS", "linux");
+        JsonObject resources = new JsonObject();
+        resources.addProperty("NanoCPUs", 4000000000L);
+        resources.addProperty("MemoryBytes", 8L * 1024 * 1024 * 1024);
+        JsonObject description = new JsonObject();
+        description.addProperty("Hostname", "swarm-node-" + index);
+        description.add("Platform", platform);
+        description.add("Resources", resources);
+        description.add("Engine", object("EngineVersion", "17.09.0-ce"));
+
+        JsonObject status = new JsonObject();
+        status.addProperty("State", "ready");
+        status.addProperty("Addr", "10.0.0." + (index + 1));
+
+        JsonObject node = resource();
+        node.add("Spec", spec);
+        node.add("Description", description);
+        node.add("Status", status);
+        if (index == 0) {
+            JsonObject managerStatus = new JsonObject();
+            managerStatus.addProperty("Leader", true);
+            managerStatus.addProperty("Reachability", "reachable");
+            managerStatus.addProperty("Addr", "10.0.0.1:2377");
+            node.add("ManagerStatus", managerStatus);
+        }
+        return node;
+    }
+
+    private JsonObject network(String name, String driver) {
+        JsonObject ipam = new JsonObject();
+        ipam.addProperty("Driver", "default");
+        ipam.add("Config", new JsonArray());
+
+        JsonObject network = new JsonObject();
+        network.addProperty("Name", name);
+        network.addProperty("Id", nextId());
+        network.addProperty("Scope", "swarm");
+        network.addProperty("Driver", driver);
+        network.add("IPAM", ipam);
+        network.add("Containers", new JsonObject());
+        network.add("Options", new JsonObject());
+        network.addProperty("Internal", false);
+        network.addProperty("EnableIPv6", false);
+        network.add("Labels", new JsonObject());
+        network.addProperty("Attachable", false);
+        network.addProperty("Ingress", "ingress".equals(name));
+        return network;
+    }
+
+    private static String version() {
+        JsonObject version = new JsonObject();
+        version.addProperty("ApiVersion", API_VERSION);
+        version.addProperty("Arch", "amd64");
+        version.addProperty("GitCommit", "afdb6d4");
+        version.addProperty("GoVersion", "go1.8.3");
+        version.addProperty("KernelVersion", "4.9.0");
+        version.addProperty("Os", "linux");
+        version.addProperty("Version", "17.09.0-ce");
+        return GSON.toJson(version);
+    }
+
+    private static String error(String message) {
+        return GSON.toJson(object("message", message));
+    }
+
+    private String info() {
+        JsonObject info = new JsonObject();
+        info.addProperty("ID", "fake-swarm");
+        info.addProperty("Name", "swarm-manager");
+        info.addProperty("Containers", 0);
+        info.addProperty("Images", 0);
+        info.addProperty("NCPU", 4);
+        info.addProperty("MemTotal", 8L * 1024 * 1024 * 1024);
+        info.addProperty("Debug", false);
+        info.addProperty("MemoryLimit", true);
+        info.addProperty("SwapLimit", true);
+        info.addProperty("IPv4Forwarding", true);
+        info.addProperty("NFd", 0);
+        info.addProperty("NGoroutines", 0);
+        info.addProperty("NEventsListener", eventSubscribers.size());
+        info.addProperty("DockerRootDir", "/var/lib/docker");
+        info.addProperty("Driver", "overlay2");
+        info.add("DriverStatus", new JsonArray());
+        info.addProperty("IndexServerAddress", "https://index.docker.io/v1/");
+        info.addProperty("KernelVersion", "4.9.0");
+        info.add("Labels", new JsonArray());
+        info.addProperty("OperatingSystem", "linux");
+        info.add("RegistryConfig", object("IndexConfigs", new JsonObject()));
+        info.addProperty("SystemTime", now());
+        return GSON.toJson(info);
+    }
+
+    private long currentTimeMillis() {
+        return System.currentTimeMillis() + clockOffsetMillis;
+    }
+
+    private String now() {
+        return Instant.ofEpochMilli(currentTimeMillis()).toString();
+    }
+
+    private static JsonObject object(String key, Object value) {
+        JsonObject object = new JsonObject();
+        object.add(key, value instanceof JsonElement ? (JsonElement) value : GSON.toJsonTree(value));
+        return object;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
+
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.Util;
+import com.spotify.docker.client.DefaultDockerClient;
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.EventStream;
+import com.spotify.docker.client.LogStream;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.exceptions.ServiceNotFoundException;
+import com.spotify.docker.client.messages.Event;
+import com.spotify.docker.client.messages.ServiceCreateResponse;
+import com.spotify.docker.client.messages.swarm.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.spotify.docker.client.DockerClient.EventsParam.*;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+
+public class FakeSwarmServerTest {
+    private FakeSwarmServer server;
+    private DefaultDockerClient docker;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeSwarmServer(3);
+        docker = DefaultDockerClient.builder().uri(server.uri()).build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        docker.close();
+        server.stop();
+    }
+
+    @Test
+    public void shouldAnswerPingAndVersion() throws Exception {
+        assertThat(docker.ping(), is("OK"));
+        assertThat(docker.version().apiVersion(), is("1.32"));
+    }
+
+    @Test
+    public void shouldCreateListInspectAndRemoveServices() throws Exception {
+        ServiceCreateResponse response = docker.createService(ServiceSpec.builder()
+                .name("agent-1")
+                .labels(Collections.singletonMap(Constants.CREATED_BY_LABEL_KEY, Constants.PLUGIN_ID))
+                .taskTemplate(TaskSpec.builder().containerSpec(ContainerSpec.builder().image("alpine:latest").build()).build())
+                .build());
+        server.addService("id-2", "some-other-service", false);
+
+        List<Service> createdByPlugin = docker.listServices(Util.servicesCreatedByPlugin());
+        assertThat(createdByPlugin, hasSize(1));
+        assertThat(createdByPlugin.get(0).id(), is(response.id()));
+        assertThat(docker.listServices(), hasSize(2));
+        assertThat(docker.listServices(Service.Criteria.builder().serviceName("agent-1").build()), hasSize(1));
+        assertThat(docker.inspectService("agent-1").spec().taskTemplate().containerSpec().image(), is("alpine:latest"));
+
+        docker.removeService(response.id());
+
+        assertThat(server.serviceNames(), contains("some-other-service"));
+        try {
+            docker.inspectService(response.id());
+            fail("Expected the service to be gone");
+        } catch (ServiceNotFoundException expected) {
+        }
+    }
+
+    @Test
+    public void shouldRunATaskForEveryServiceOnOneOfTheNodes() throws Exception {
+        server.addService("id-1", "agent-1", true);
+        server.addService("id-2", "agent-2", true);
+
+        List<Node> nodes = docker.listNodes();
+        assertThat(nodes, hasSize(3));
+        List<Task> tasks = docker.listTasks(Task.Criteria.builder().serviceName("id-1").build());
+        assertThat(tasks, hasSize(1));
+        assertThat(tasks.get(0).status().state(), is("running"));
+        assertThat(nodes.stream().map(Node::id).collect(toList()), hasItem(tasks.get(0).nodeId()));
+    }
+
+    @Test
+    public void shouldListSecretsAndNetworksAndServeServiceLogs() throws Exception {
+        server.addSecret("Username");
+        server.addService("id-1", "agent-1", true);
+
+        assertThat(docker.listSecrets().get(0).secretSpec().name(), is("Username"));
+        assertThat(docker.listNetworks(), hasSize(2));
+        try (LogStream logs = docker.serviceLogs("id-1", DockerClient.LogsParam.stdout(), DockerClient.LogsParam.stderr())) {
+            assertThat(logs.readFully(), containsString("id-1"));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void shouldStreamServiceEventsOfTheRequestedWindow() throws Exception {
+        long now = DockerServiceEventsWatcher.nowInSeconds();
+        server.sendEvent("create", "id-1", "agent-1");
+
+        try (EventStream events = docker.events(type(Event.Type.SERVICE), since(now), until(now + 1))) {
+            Event event = events.next();
+            assertThat(event.action(), is("create"));
+            assertThat(event.actor().attributes().get("name"), is("agent-1"));
+            assertFalse(events.hasNext());
+        }
+    }
+
+    @Test
+    public void shouldDelayAndFailRequestsWhenAskedTo() throws Exception {
+        server.latency(200, TimeUnit.MILLISECONDS);
+        long startedAt = System.nanoTime();
+        docker.listServices();
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt), is(greaterThanOrEqualTo(200L)));
+
+        server.latency(0, TimeUnit.MILLISECONDS).failNext(1);
+        try {
+            docker.listServices();
+            fail("Expected the request to fail");
+        } catch (DockerException expected) {
+        }
+        assertThat(docker.listServices(), is(empty()));
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.exceptions.ServiceNotFoundException;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.*;
+
+public class MetricsTest {
+    private final Metrics metrics = new Metrics();
+
+    @Test
+    public void shouldCountCallsAndErrors() {
+        Metrics.Timer timer = metrics.timer("request.server-ping");
+        timer.record(TimeUnit.MILLISECONDS.toNanos(10), false);
+        timer.record(TimeUnit.MILLISECONDS.toNanos(30), true);
+
+        Metrics.Snapshot snapshot = metrics.snapshot().get(0);
+        assertThat(snapshot.getName(), is("request.server-ping"));
+        assertThat(snapshot.getCount(), is(2L));
+        assertThat(snapshot.getErrors(), is(1L));
+        assertThat(snapshot.getMeanMillis(), is(20.0));
+        assertThat(snapshot.getMaxMillis(), is(30.0));
+    }
+
+    @Test
+    public void shouldEstimatePercentilesWithinAFactorOfTwo() {
+        Metrics.Timer timer = metrics.timer("docker.listServices");
+        for (int i = 0; i < 98; i++) {
+            timer.record(TimeUnit.MILLISECONDS.toNanos(5), false);
+        }
+        timer.record(TimeUnit.MILLISECONDS.toNanos(500), false);
+        timer.record(TimeUnit.MILLISECONDS.toNanos(700), false);
+
+        Metrics.Snapshot snapshot = metrics.snapshot().get(0);
+        assertThat(snapshot.getP50Millis(), is(both(greaterThanOrEqualTo(5.0)).and(lessThan(10.0))));
+        assertThat(snapshot.getP99Millis(), is(both(greaterThanOrEqualTo(500.0)).and(lessThanOrEqualTo(700.0))));
+        assertThat(snapshot.getMaxMillis(), is(700.0));
+    }
+
+    @Test
+    public void shouldReturnTheSameTimerForAName() {
+        assertThat(metrics.timer("create.queue-wait"), is(sameInstance(metrics.timer("create.queue-wait"))));
+    }
+
+    @Test
+    public void shouldListSnapshotsByName() {
+        metrics.timer("request.server-ping").record(1, false);
+        metrics.timer("docker.listServices").record(1, false);
+        metrics.timer("cluster.f655c71a").record(1, false);
+
+        List<String> names = metrics.snapshot().stream().map(Metrics.Snapshot::getName).collect(toList());
+        assertThat(names, contains("cluster.f655c71a", "docker.listServices", "request.server-ping"));
+    }
+
+    @Test
+    public void shouldTimeDockerCallsPerCallAndPerCluster() throws Exception {
+        DockerClient docker = mock(DockerClient.class);
+        when(docker.listServices()).thenReturn(Collections.emptyList());
+        when(docker.inspectService("agent-1")).thenThrow(new ServiceNotFoundException("agent-1"));
+        DockerClient meteredDocker = MeteredDockerClient.wrap(docker, "f655c71a", metrics);
+
+        assertThat(meteredDocker.listServices(), is(empty()));
+        try {
+            meteredDocker.inspectService("agent-1");
+            fail("Expected the exception of the docker client to be rethrown");
+        } catch (DockerException expected) {
+            assertThat(expected, is(instanceOf(ServiceNotFoundException.class)));
+        }
+        meteredDocker.close();
+
+        List<Metrics.Snapshot> snapshots = metrics.snapshot();
+        assertThat(snapshots.stream().map(Metrics.Snapshot::getName).collect(toList()),
+                contains("cluster.f655c71a", "docker.inspectService", "docker.listServices"));
+        assertThat(snapshots.get(0).getCount(), is(2L));
+        assertThat(snapshots.get(0).getErrors(), is(1L));
+        assertThat(snapshots.get(1).getErrors(), is(1L));
+        verify(docker).close();
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
+
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.reports.SwarmCluster;
+import com.google.common.base.Ticker;
+import com.spotify.docker.client.DockerClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class SwarmClusterSnapshotsTest {
+    private final FakeTicker ticker = new FakeTicker();
+    private final List<Runnable> refreshes = new ArrayList<>();
+    private final AtomicInteger listings = new AtomicInteger();
+    private SwarmClusterSnapshots snapshots;
+    private ExecutorService viewers;
+
+    @Before
+    public void setUp() {
+        snapshots = new SwarmClusterSnapshots(30, TimeUnit.SECONDS, ticker, refreshes::add);
+        viewers = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        viewers.shutdownNow();
+    }
+
+    @Test
+    public void shouldListTheSwarmOnceForViewersAskingAtTheSameTime() throws Exception {
+        CountDownLatch listing = new CountDownLatch(1);
+        List<Future<SwarmCluster>> views = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            views.add(viewers.submit(() -> snapshots.snapshot("cluster", () -> {
+                listing.await();
+                return list();
+            })));
+        }
+
+        Thread.sleep(100);
+        listing.countDown();
+
+        SwarmCluster swarmCluster = views.get(0).get(5, TimeUnit.SECONDS);
+        for (Future<SwarmCluster> view : views) {
+            assertThat(view.get(5, TimeUnit.SECONDS), is(sameInstance(swarmCluster)));
+        }
+        assertThat(listings.get(), is(1));
+    }
+
+    @Test
+    public void shouldServeTheSnapshotWhileRefreshingItInTheBackground() throws Exception {
+        SwarmCluster first = snapshots.snapshot("cluster", this::list);
+
+        ticker.advance(20, TimeUnit.SECONDS);
+        assertThat(snapshots.snapshot("cluster", this::list), is(sameInstance(first)));
+        assertThat(refreshes, hasSize(1));
+
+        refreshes.remove(0).run();
+        SwarmCluster refreshed = snapshots.snapshot("cluster", this::list);
+        assertThat(refreshed, is(not(sameInstance(first))));
+        assertThat(listings.get(), is(2));
+    }
+
+    @Test
+    public void shouldWaitForAFreshListingOnceTheSnapshotIsTooOld() throws Exception {
+        SwarmCluster first = snapshots.snapshot("cluster", this::list);
+
+        ticker.advance(31, TimeUnit.SECONDS);
+
+        assertThat(snapshots.snapshot("cluster", this::list), is(not(sameInstance(first))));
+        assertThat(refreshes, is(empty()));
+        assertThat(listings.get(), is(2));
+    }
+
+    private SwarmCluster list() throws Exception {
+        listings.incrementAndGet();
+        return new SwarmCluster(mock(DockerClient.class));
+    }
+
+    private static class FakeTicker extends Ticker {
+        private volatile long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long duration, TimeUnit unit) {
+            nanos += unit.toNanos(duration);
+        }
+    }
+}
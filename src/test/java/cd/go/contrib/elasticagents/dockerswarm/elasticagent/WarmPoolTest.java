@@ -0,0 +1,231 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent;
+
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.JobIdentifier;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.requests.CreateAgentRequest;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.spotify.docker.client.messages.swarm.Service;
+import com.spotify.docker.client.messages.swarm.ServiceSpec;
+import org.joda.time.DateTime;
+import org.joda.time.Period;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class WarmPoolTest {
+    private final DateTime now = new DateTime();
+    private WarmPool warmPool;
+    private Map<String, String> properties;
+    private List<DockerService> services;
+
+    @Before
+    public void setUp() throws Exception {
+        warmPool = new WarmPool(MoreExecutors.newDirectExecutorService());
+        properties = new HashMap<>();
+        properties.put("Image", "alpine:latest");
+        properties.put(WarmPool.SIZE, "2");
+        services = new ArrayList<>();
+    }
+
+    @Test
+    public void shouldClaimAnUnboundAgentWithTheSameProfileAndEnvironment() throws Exception {
+        DockerService otherEnvironment = pooledService("pooled-1", "staging", now);
+        DockerService pooled = pooledService("pooled-2", "production", now);
+        services.add(otherEnvironment);
+        services.add(pooled);
+        reportIdle(otherEnvironment, pooled);
+
+        assertThat(warmPool.claim(services, job(1L), properties, "production", now), is(pooled));
+        assertThat(warmPool.boundJob("pooled-2").getJobId(), is(1L));
+        assertThat(warmPool.claim(services, job(1L), properties, "production", now), is(pooled));
+        assertThat(warmPool.claim(services, job(2L), properties, "production", now), is(nullValue()));
+    }
+
+    @Test
+    public void shouldOnlyClaimAgentsFoundInTheSwarmOnceTheServerReportsThemIdle() throws Exception {
+        DockerService pooled = pooledService("pooled-1", "production", now);
+        services.add(pooled);
+
+        assertThat(warmPool.claim(services, job(1L), properties, "production", now), is(nullValue()));
+
+        reportIdle(pooled);
+        assertThat(warmPool.claim(services, job(1L), properties, "production", now), is(pooled));
+    }
+
+    @Test
+    public void shouldClaimAgentsCreatedForThePool() throws Exception {
+        warmPool.refill(new CreateAgentRequest("key", properties, "production", job(1L), new ClusterProfileProperties()), services, request -> {
+            DockerService pooled = pooledService("pooled-" + (services.size() + 1), "production", now);
+            services.add(pooled);
+            return pooled;
+        });
+
+        assertThat(services, hasSize(2));
+        assertThat(warmPool.claim(services, job(1L), properties, "production", now), is(services.get(0)));
+        assertThat(warmPool.claim(services, job(2L), properties, "production", now), is(services.get(1)));
+    }
+
+    @Test
+    public void shouldBindAgentsTheServerReportsAsBuildingToTheirUnknownJob() throws Exception {
+        DockerService pooled = pooledService("pooled-1", "production", now.minusHours(2));
+        services.add(pooled);
+
+        warmPool.observe(pooled, new Agent("pooled-1", Agent.AgentState.Building, Agent.BuildState.Building, Agent.ConfigState.Enabled), now);
+        reportIdle(pooled);
+
+        assertThat(warmPool.claim(services, job(1L), properties, "production", now), is(nullValue()));
+        assertFalse(warmPool.bind(pooled, job(1L), properties, "production", now));
+        assertThat(warmPool.boundJob("pooled-1"), is(nullValue()));
+        assertTrue(warmPool.isProtected(pooled, now.plusMinutes(9), Period.minutes(10)));
+    }
+
+    @Test
+    public void shouldReadTheKeyOfThePoolFromTheLabelsOfTheService() throws Exception {
+        Map<String, String> labels = new HashMap<>();
+        labels.put(Constants.CREATED_BY_LABEL_KEY, Constants.PLUGIN_ID);
+        labels.put(Constants.CONFIGURATION_LABEL_KEY, "{\"Image\":\"alpine:latest\"}");
+        labels.put(Constants.WARM_POOL_LABEL_KEY, WarmPool.keyFor(properties, "production"));
+        ServiceSpec spec = mock(ServiceSpec.class);
+        when(spec.name()).thenReturn("pooled-1");
+        when(spec.labels()).thenReturn(ImmutableMap.copyOf(labels));
+        Service service = mock(Service.class);
+        when(service.spec()).thenReturn(spec);
+        when(service.createdAt()).thenReturn(now.toDate());
+
+        DockerService pooled = DockerService.fromService(service);
+        services.add(pooled);
+        reportIdle(pooled);
+
+        assertThat(pooled.warmPoolKey(), is(WarmPool.keyFor(properties, "production")));
+        assertThat(warmPool.claim(services, job(1L), properties, "production", now), is(pooled));
+    }
+
+    @Test
+    public void shouldNotClaimAgentsWhenTheProfileHasNoWarmPool() throws Exception {
+        services.add(pooledService("pooled-1", "production", now));
+        reportIdle(services.get(0));
+        properties.remove(WarmPool.SIZE);
+
+        assertThat(warmPool.claim(services, job(1L), properties, "production", now), is(nullValue()));
+    }
+
+    @Test
+    public void shouldBindAnUnboundAgentToTheFirstJobAskingForIt() throws Exception {
+        DockerService pooled = pooledService("pooled-1", "production", now);
+
+        assertFalse(warmPool.bind(pooled, job(1L), properties, "staging", now));
+        assertTrue(warmPool.bind(pooled, job(1L), properties, "production", now));
+        assertTrue(warmPool.bind(pooled, job(1L), properties, "production", now));
+        assertFalse(warmPool.bind(pooled, job(2L), properties, "production", now));
+    }
+
+    @Test
+    public void shouldNeverBindAgentsCreatedForAJob() throws Exception {
+        DockerService service = new DockerService("agent-1", now.toDate(), properties, "production", job(1L));
+
+        assertFalse(warmPool.bind(service, job(2L), properties, "production", now));
+    }
+
+    @Test
+    public void shouldProtectUnboundAgentsUntilTheirIdleTimeout() throws Exception {
+        properties.put(WarmPool.IDLE_TIMEOUT, "15");
+        DockerService pooled = pooledService("pooled-1", "production", now);
+
+        assertTrue(warmPool.isProtected(pooled, now.plusMinutes(14), Period.minutes(10)));
+        assertFalse(warmPool.isProtected(pooled, now.plusMinutes(16), Period.minutes(10)));
+    }
+
+    @Test
+    public void shouldProtectBoundAgentsForTheAutoRegisterPeriodAfterBeingBound() throws Exception {
+        DockerService pooled = pooledService("pooled-1", "production", now.minusHours(2));
+        warmPool.bind(pooled, job(1L), properties, "production", now);
+
+        assertTrue(warmPool.isProtected(pooled, now.plusMinutes(9), Period.minutes(10)));
+        assertFalse(warmPool.isProtected(pooled, now.plusMinutes(11), Period.minutes(10)));
+    }
+
+    @Test
+    public void shouldRefillThePoolUpToItsSize() throws Exception {
+        services.add(pooledService("pooled-1", "production", now));
+        List<CreateAgentRequest> requests = new ArrayList<>();
+
+        warmPool.refill(new CreateAgentRequest("key", properties, "production", job(1L), new ClusterProfileProperties()), services, request -> {
+            requests.add(request);
+            return pooledService("pooled-" + (requests.size() + 1), "production", now);
+        });
+
+        assertThat(requests, hasSize(1));
+        assertThat(requests.get(0).jobIdentifier(), is(nullValue()));
+        assertThat(requests.get(0).properties(), is(properties));
+        assertThat(requests.get(0).environment(), is("production"));
+        assertThat(requests.get(0).autoRegisterKey(), is("key"));
+    }
+
+    @Test
+    public void shouldNotCountBoundAgentsWhenRefillingThePool() throws Exception {
+        DockerService pooled = pooledService("pooled-1", "production", now);
+        services.add(pooled);
+        reportIdle(pooled);
+        warmPool.claim(services, job(1L), properties, "production", now);
+        List<CreateAgentRequest> requests = new ArrayList<>();
+
+        warmPool.refill(new CreateAgentRequest("key", properties, "production", job(1L), new ClusterProfileProperties()), services, request -> {
+            requests.add(request);
+            return null;
+        });
+
+        assertThat(requests, hasSize(2));
+    }
+
+    @Test
+    public void shouldNotReportUnboundPooledAgentsAsIdleAgents() throws Exception {
+        DockerServices dockerServices = new DockerServices(DockerClientFactory.instance(), warmPool);
+        dockerServices.register(pooledService("pooled-1", "production", now));
+        dockerServices.register(new DockerService("agent-1", now.toDate(), properties, "production", job(1L)));
+        Agents agents = new Agents(Arrays.asList(new Agent("pooled-1", null, null, null), new Agent("agent-1", null, null, null)));
+
+        dockerServices.clock = new Clock.TestClock(now).forward(Period.minutes(11));
+        Agents idleAgents = dockerServices.instancesCreatedAfterTimeout(new ClusterProfileProperties(), agents);
+        assertThat(idleAgents.agentIds(), contains("agent-1"));
+
+        dockerServices.clock = new Clock.TestClock(now).forward(Period.minutes(31));
+        idleAgents = dockerServices.instancesCreatedAfterTimeout(new ClusterProfileProperties(), agents);
+        assertThat(idleAgents.agentIds(), containsInAnyOrder("agent-1", "pooled-1"));
+    }
+
+    private DockerService pooledService(String name, String environment, DateTime createdAt) {
+        return new DockerService(name, createdAt.toDate(), properties, environment, null);
+    }
+
+    private void reportIdle(DockerService... pooled) {
+        for (DockerService service : pooled) {
+            warmPool.observe(service, new Agent(service.name(), Agent.AgentState.Idle, Agent.BuildState.Idle, Agent.ConfigState.Enabled), now);
+        }
+    }
+
+    private static JobIdentifier job(long jobId) {
+        return new JobIdentifier("up42", 1L, "1", "stage", "1", "job", jobId);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent.builders;
+
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.reports.StatusReportGenerationError;
+import com.google.gson.JsonObject;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class PluginStatusReportViewBuilderTest {
+
+    @Test
+    public void shouldLoadTheTemplatesOnce() throws Exception {
+        final PluginStatusReportViewBuilder builder = PluginStatusReportViewBuilder.instance();
+
+        for (String template : PluginStatusReportViewBuilder.TEMPLATES) {
+            assertThat(builder.getTemplate(template), is(sameInstance(builder.getTemplate(template))));
+        }
+    }
+
+    @Test
+    public void shouldBuildTheViewAsTheJsonResponseBody() throws Exception {
+        final PluginStatusReportViewBuilder builder = PluginStatusReportViewBuilder.instance();
+        final String text = "\"quoted\" \\ <b>bold</b>\n\ttabbed\r\u0001\u001f   ünïcode ☃";
+        final Template template = new Template("raw", "${text}", new Configuration(Configuration.VERSION_2_3_23));
+
+        for (int i = 0; i < 2; i++) {
+            assertThat(builder.buildView(template, Collections.singletonMap("text", text)), is(view(text)));
+        }
+
+        final Template errorTemplate = builder.getTemplate("error.template.ftlh");
+        final StatusReportGenerationError error = new StatusReportGenerationError(new RuntimeException(text));
+        assertThat(builder.buildView(errorTemplate, error), is(view(builder.build(errorTemplate, error))));
+    }
+
+    private static String view(String view) {
+        final JsonObject responseJSON = new JsonObject();
+        responseJSON.addProperty("view", view);
+        return responseJSON.toString();
+    }
+}
@@ -18,12 +18,17 @@ package cd.go.contrib.elasticagents.dockerswarm.elasticagent.executors;
 
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.ClusterProfileProperties;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.DockerClientFactory;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.DockerService;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.DockerServices;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.PluginRequest;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.SwarmClusterSnapshots;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.builders.PluginStatusReportViewBuilder;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.JobIdentifier;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.reports.SwarmCluster;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.reports.agent.ServiceLogs;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.requests.AgentStatusReportRequest;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.JobIdentifierMother;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.Util;
 import com.google.gson.reflect.TypeToken;
 import com.spotify.docker.client.DockerClient;
 import com.spotify.docker.client.LogMessage;
@@ -40,19 +45,23 @@ import org.mockito.Mock;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.text.MessageFormat;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Map;
 
-import static cd.go.contrib.elasticagents.dockerswarm.elasticagent.Constants.JOB_IDENTIFIER_LABEL_KEY;
+import static cd.go.contrib.elasticagents.dockerswarm.elasticagent.Constants.*;
 import static cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.Util.GSON;
-import static com.spotify.docker.client.DockerClient.LogsParam.stderr;
-import static com.spotify.docker.client.DockerClient.LogsParam.stdout;
+import static com.spotify.docker.client.DockerClient.LogsParam.*;
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.endsWith;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
 import static org.junit.Assert.*;
-import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.*;
 import static org.mockito.MockitoAnnotations.initMocks;
 
 public class AgentStatusReportExecutorTest {
@@ -85,8 +94,8 @@ public class AgentStatusReportExecutorTest {
         final Service service = mockedService("elastic-agent-id", "abcd-xyz");
         when(statusReportRequest.getJobIdentifier()).thenReturn(JobIdentifierMother.get());
         when(statusReportRequest.getElasticAgentId()).thenReturn("elastic-agent-id");
-        when(client.listServices()).thenReturn(Arrays.asList(service));
-        when(client.serviceLogs("abcd-xyz", stdout(), stderr())).thenReturn(new StubbedLogStream("some-logs"));
+        when(client.listServices(Service.Criteria.builder().serviceName("elastic-agent-id").build())).thenReturn(Arrays.asList(service));
+        when(client.serviceLogs(eq("abcd-xyz"), any())).thenReturn(new StubbedLogStream("some-logs"));
 
         GoPluginApiResponse response = executor.execute();
 
@@ -107,8 +116,8 @@ public class AgentStatusReportExecutorTest {
         final Service service = mockedService("elastic-agent-id", "abcd-xyz");
         when(statusReportRequest.getJobIdentifier()).thenReturn(JobIdentifierMother.get());
         when(statusReportRequest.getElasticAgentId()).thenReturn("elastic-agent-id");
-        when(client.listServices()).thenReturn(Arrays.asList(service));
-        when(client.serviceLogs("abcd-xyz", stdout(), stderr())).thenReturn(new StubbedLogStream("some-logs"));
+        when(client.listServices(Service.Criteria.builder().serviceName("elastic-agent-id").build())).thenReturn(Arrays.asList(service));
+        when(client.serviceLogs(eq("abcd-xyz"), any())).thenReturn(new StubbedLogStream("some-logs"));
 
         GoPluginApiResponse response = executor.execute();
 
@@ -125,13 +134,74 @@ public class AgentStatusReportExecutorTest {
         assertFalse(hasEnvironmentVariable(document, "GO_EA_AUTO_REGISTER_KEY", null));
     }
 
+    @Test
+    public void shouldLookUpTheServiceByIdWhenNoServiceIsNamedAfterTheElasticAgentId() throws Exception {
+        final Service service = mockedService("some-service-name", "abcd-xyz");
+        when(statusReportRequest.getJobIdentifier()).thenReturn(null);
+        when(statusReportRequest.getElasticAgentId()).thenReturn("abcd-xyz");
+        when(client.listServices(Service.Criteria.builder().serviceId("abcd-xyz").build())).thenReturn(Arrays.asList(service));
+        when(client.serviceLogs(eq("abcd-xyz"), any())).thenReturn(new StubbedLogStream("some-logs"));
+
+        GoPluginApiResponse response = executor.execute();
+
+        assertThat(response.responseCode(), is(200));
+        verify(client, never()).listServices();
+    }
+
+    @Test
+    public void shouldOnlyLookUpTheServiceByNameForAnAgentKnownToTheCluster() throws Exception {
+        final Service service = mockedService("elastic-agent-id", "abcd-xyz");
+        when(dockerServices.find("elastic-agent-id")).thenReturn(new DockerService("elastic-agent-id", new Date(), null, "", null));
+        when(statusReportRequest.getElasticAgentId()).thenReturn("elastic-agent-id");
+        when(client.listServices(Service.Criteria.builder().serviceName("elastic-agent-id").build())).thenReturn(Arrays.asList(service));
+        when(client.serviceLogs(eq("abcd-xyz"), any())).thenReturn(new StubbedLogStream("some-logs"));
+
+        assertServiceDetails(service, view(executor.execute()));
+        verify(client, never()).listServices(Service.Criteria.builder().serviceId("elastic-agent-id").build());
+    }
+
+    @Test
+    public void shouldLinkToAndReportTheOlderLogsOfAnAgent() throws Exception {
+        final Service service = mockedService("elastic-agent-id", "abcd-xyz");
+        StringBuilder logs = new StringBuilder();
+        for (int i = 1; i <= ServiceLogs.PAGE_LINES + 1; i++) {
+            logs.append("line ").append(i).append("\n");
+        }
+        when(statusReportRequest.getElasticAgentId()).thenReturn("elastic-agent-id");
+        when(client.listServices(Service.Criteria.builder().serviceName("elastic-agent-id").build())).thenReturn(Arrays.asList(service));
+        when(client.serviceLogs(eq("abcd-xyz"), any())).thenAnswer(invocation -> new StubbedLogStream(logs.toString()));
+
+        Document document = view(executor.execute());
+        String moreLink = document.select(".service-logs a.logs-more").attr("href");
+        String statusReportId = moreLink.substring(moreLink.lastIndexOf('/') + 1);
+        assertThat(statusReportId, startsWith("logs:1:"));
+        assertThat(statusReportId, endsWith(":abcd-xyz"));
+
+        when(statusReportRequest.getElasticAgentId()).thenReturn(statusReportId);
+        when(client.listServices(Service.Criteria.builder().serviceName("abcd-xyz").build())).thenReturn(Collections.emptyList());
+        when(client.listServices(Service.Criteria.builder().serviceId("abcd-xyz").build())).thenReturn(Arrays.asList(service));
+
+        document = view(executor.execute());
+        assertServiceLog(document, "line 1");
+        assertThat(document.select(".service-logs .logs-notice").text(), is("Older logs of this agent, page 2."));
+        assertTrue(document.select(".service-logs a.logs-more").isEmpty());
+        verify(client).serviceLogs("abcd-xyz", stdout(), stderr(), tail(2 * ServiceLogs.PAGE_LINES + 1), since((int) (Long.parseLong(statusReportId.split(":")[2]) / 1000)));
+    }
+
+    private Document view(GoPluginApiResponse response) {
+        assertThat(response.responseCode(), is(200));
+        final Map<String, String> responseMap = GSON.fromJson(response.responseBody(), new TypeToken<Map<String, String>>() {
+        }.getType());
+        return Jsoup.parse(responseMap.get("view"));
+    }
+
     @Test
     public void shouldPrintMessageWhenLogIsNotAvailable() throws Exception {
         final Service service = mockedService("elastic-agent-id", "abcd-xyz");
         when(statusReportRequest.getJobIdentifier()).thenReturn(null);
         when(statusReportRequest.getElasticAgentId()).thenReturn("elastic-agent-id");
-        when(client.listServices()).thenReturn(Arrays.asList(service));
-        when(client.serviceLogs("abcd-xyz", stdout(), stderr())).thenReturn(new StubbedLogStream(""));
+        when(client.listServices(Service.Criteria.builder().serviceName("elastic-agent-id").build())).thenReturn(Arrays.asList(service));
+        when(client.serviceLogs(eq("abcd-xyz"), any())).thenReturn(new StubbedLogStream(""));
 
         GoPluginApiResponse response = executor.execute();
 
@@ -144,6 +214,41 @@ public class AgentStatusReportExecutorTest {
         assertThat(document.select(".service-logs").text(), is("Logs not available for this agent."));
     }
 
+    @Test
+    public void shouldReportTheTasksOfANodeFromTheSnapshotOfTheSwarm() throws Exception {
+        final SwarmClusterSnapshots swarmClusterSnapshots = mock(SwarmClusterSnapshots.class);
+        executor = new AgentStatusReportExecutor(statusReportRequest, pluginRequest, dockerServices, dockerClientFactory, PluginStatusReportViewBuilder.instance(), swarmClusterSnapshots);
+        final Service service = new StubbedService("abcd-xyz", ServiceSpec.builder()
+                .addLabel(JOB_IDENTIFIER_LABEL_KEY, JobIdentifierMother.get().toJson())
+                .addLabel(CREATED_BY_LABEL_KEY, PLUGIN_ID)
+                .name("elastic-agent-id")
+                .taskTemplate(TaskSpec.builder().containerSpec(ContainerSpec.builder().image("gocd/gocd-docker-agent:v18.2.0").build()).build())
+                .build());
+        final Node node = mockedNode("node-id", "swarm-node-1");
+        final Task task = mockedTask("task-id", "node-id", "abcd-xyz");
+        when(client.listNodes()).thenReturn(Arrays.asList(node));
+        when(client.listServices(Util.servicesCreatedByPlugin())).thenReturn(Arrays.asList(service));
+        when(client.listTasks(any(Task.Criteria.class))).thenReturn(Arrays.asList(task));
+        when(statusReportRequest.getElasticAgentId()).thenReturn("node:node-id");
+        final SwarmCluster swarmCluster = new SwarmCluster(client, true);
+        when(swarmClusterSnapshots.snapshot(clusterProfileProperties, dockerClientFactory)).thenReturn(swarmCluster);
+
+        GoPluginApiResponse response = executor.execute();
+
+        assertThat(response.responseCode(), is(200));
+        final Map<String, String> responseMap = GSON.fromJson(response.responseBody(), new TypeToken<Map<String, String>>() {
+        }.getType());
+        final Document document = Jsoup.parse(responseMap.get("view"));
+        assertThat(document.select(".hostname").text(), is("swarm-node-1"));
+        assertThat(document.select("tbody tr td").first().text(), is("task-id"));
+        assertThat(document.select("tbody tr a").attr("href"), containsString("/agent/abcd-xyz?job_id="));
+        verify(client, never()).listServices(Service.Criteria.builder().serviceName("node:node-id").build());
+        verify(client).listTasks(Task.Criteria.builder().nodeId("node-id").desiredState("running").build());
+
+        when(statusReportRequest.getElasticAgentId()).thenReturn("node:node-gone");
+        assertThat(executor.execute().responseBody(), containsString("Node is not in the swarm."));
+    }
+
     private boolean hasEnvironmentVariable(Document document, String name, String value) {
         final Elements elements = document.select(MessageFormat.format(".environments .name-value .name-value_pair label:contains({0})", name));
         if (elements.isEmpty()) {
@@ -192,8 +297,36 @@ public class AgentStatusReportExecutorTest {
         return new StubbedService(serviceId, serviceSpec);
     }
 
+    private Node mockedNode(String nodeId, String hostname) {
+        final Node node = mock(Node.class);
+        final NodeDescription nodeDescription = mock(NodeDescription.class);
+        when(node.id()).thenReturn(nodeId);
+        when(node.spec()).thenReturn(NodeSpec.builder().availability("active").role("worker").build());
+        when(node.status()).thenReturn(mock(NodeStatus.class));
+        when(node.description()).thenReturn(nodeDescription);
+        when(nodeDescription.hostname()).thenReturn(hostname);
+        when(nodeDescription.engine()).thenReturn(mock(EngineConfig.class));
+        when(nodeDescription.platform()).thenReturn(mock(Platform.class));
+        when(nodeDescription.resources()).thenReturn(Resources.builder().memoryBytes(1024L * 1024 * 1024).nanoCpus(1000000000L).build());
+        return node;
+    }
+
+    private Task mockedTask(String taskId, String nodeId, String serviceId) {
+        final Task task = mock(Task.class);
+        final TaskStatus taskStatus = mock(TaskStatus.class);
+        when(task.id()).thenReturn(taskId);
+        when(task.nodeId()).thenReturn(nodeId);
+        when(task.serviceId()).thenReturn(serviceId);
+        when(task.createdAt()).thenReturn(new Date());
+        when(task.spec()).thenReturn(TaskSpec.builder().containerSpec(ContainerSpec.builder().image("gocd/gocd-docker-agent:v18.2.0").build()).build());
+        when(task.status()).thenReturn(taskStatus);
+        when(taskStatus.state()).thenReturn("running");
+        return task;
+    }
+
     class StubbedLogStream implements LogStream {
         private final String logs;
+        private boolean read;
 
         public StubbedLogStream(String logs) {
 
@@ -222,12 +355,13 @@ public class AgentStatusReportExecutorTest {
 
         @Override
         public boolean hasNext() {
-            return false;
+            return !read && !logs.isEmpty();
         }
 
         @Override
         public LogMessage next() {
-            return null;
+            read = true;
+            return new LogMessage(LogMessage.Stream.STDOUT, ByteBuffer.wrap(logs.getBytes(StandardCharsets.UTF_8)));
         }
     }
 
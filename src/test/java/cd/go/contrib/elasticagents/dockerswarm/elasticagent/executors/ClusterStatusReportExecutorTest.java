@@ -60,7 +60,7 @@ public class ClusterStatusReportExecutorTest {
         final Template template = mock(Template.class);
 
         when(builder.getTemplate("status-report.template.ftlh")).thenReturn(template);
-        when(builder.build(eq(template), any(SwarmCluster.class))).thenReturn("status-report");
+        when(builder.buildView(eq(template), any(SwarmCluster.class))).thenReturn("{\"view\":\"status-report\"}");
         final GoPluginApiResponse response = new ClusterStatusReportExecutor(clusterStatusReportRequest, dockerServices, dockerClientFactory, builder).execute();
 
         assertThat(response.responseCode(), is(200));
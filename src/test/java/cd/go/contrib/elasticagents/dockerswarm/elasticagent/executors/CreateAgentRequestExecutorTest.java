@@ -32,6 +32,7 @@ public class CreateAgentRequestExecutorTest {
         when(request.getClusterProfileProperties()).thenReturn(clusterProfileProperties);
         new CreateAgentRequestExecutor(request, agentInstances, pluginRequest).execute();
 
-        verify(agentInstances).create(request, pluginRequest);
+        verify(agentInstances).createAsync(request, pluginRequest);
+        verify(agentInstances, never()).create(request, pluginRequest);
     }
 }
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent.executors;
+
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.ValidationError;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class NumberMetadataTest {
+
+    @Test
+    public void shouldAllowBlankValues() throws Exception {
+        assertNull(new NumberMetadata("WarmPoolSize", true).validate(null));
+        assertNull(new NumberMetadata("WarmPoolSize", true).validate(""));
+    }
+
+    @Test
+    public void shouldValidateNonNegativeIntegers() throws Exception {
+        assertNull(new NumberMetadata("WarmPoolSize", true).validate("0"));
+        assertNull(new NumberMetadata("WarmPoolSize", true).validate("3"));
+
+        ValidationError validationError = new NumberMetadata("WarmPoolSize", true).validate("-1");
+
+        assertNotNull(validationError);
+        assertThat(validationError.key(), is("WarmPoolSize"));
+        assertThat(validationError.message(), is("WarmPoolSize must be a non-negative integer."));
+    }
+
+    @Test
+    public void shouldValidatePositiveIntegers() throws Exception {
+        assertNull(new NumberMetadata("WarmPoolIdleTimeout", false).validate("30"));
+
+        assertThat(new NumberMetadata("WarmPoolIdleTimeout", false).validate("0").message(), is("WarmPoolIdleTimeout must be a positive integer."));
+        assertThat(new NumberMetadata("WarmPoolIdleTimeout", false).validate("ten").message(), is("WarmPoolIdleTimeout must be a positive integer."));
+    }
+}
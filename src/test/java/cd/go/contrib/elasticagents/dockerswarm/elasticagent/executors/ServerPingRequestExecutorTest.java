@@ -20,13 +20,18 @@ import cd.go.contrib.elasticagents.dockerswarm.elasticagent.*;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.JobIdentifier;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.requests.CreateAgentRequest;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.requests.ServerPingRequest;
+import com.spotify.docker.client.DockerClient;
+import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 import org.joda.time.Period;
 import org.junit.Test;
 
 import java.util.*;
 
 import static cd.go.contrib.elasticagents.dockerswarm.elasticagent.Agent.ConfigState.Disabled;
+import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
 public class ServerPingRequestExecutorTest extends BaseTest {
@@ -40,7 +45,6 @@ public class ServerPingRequestExecutorTest extends BaseTest {
         Agent agent1AfterDisabling = new Agent(agentId, Agent.AgentState.Idle, Agent.BuildState.Idle, Disabled); //idle time elapsed
 
         final Agents allAgentsInitially = new Agents(Arrays.asList(agent1));
-        final Agents allAgentsAfterDisablingIdleAgents = new Agents(Arrays.asList(agent1AfterDisabling));
         DockerService dockerServiceForAgent1 = new DockerService(agentId, new Date(), null, "", null);
         DockerServices agentInstances = new DockerServices();
         agentInstances.clock = new Clock.TestClock().forward(Period.minutes(11));
@@ -48,7 +52,7 @@ public class ServerPingRequestExecutorTest extends BaseTest {
         agentInstances.register(dockerServiceForAgent1);
 
         PluginRequest pluginRequest = mock(PluginRequest.class);
-        when(pluginRequest.listAgents()).thenReturn(allAgentsInitially, allAgentsAfterDisablingIdleAgents, new Agents());
+        when(pluginRequest.listAgents()).thenReturn(allAgentsInitially);
 
         HashMap<String, DockerServices> clusterSpecificInstances = new HashMap<>();
         clusterSpecificInstances.put(clusterProfileProperties.uuid(), agentInstances);
@@ -57,6 +61,7 @@ public class ServerPingRequestExecutorTest extends BaseTest {
         when(serverPingRequest.allClusterProfileProperties()).thenReturn(Collections.singletonList(clusterProfileProperties));
         new ServerPingRequestExecutor(serverPingRequest, clusterSpecificInstances, pluginRequest).execute();
 
+        verify(pluginRequest, times(1)).listAgents();
         verify(pluginRequest, atLeastOnce()).disableAgents(Arrays.asList(agent1));
         verify(pluginRequest, atLeastOnce()).deleteAgents(Collections.singletonList(agent1AfterDisabling));
     }
@@ -69,6 +74,7 @@ public class ServerPingRequestExecutorTest extends BaseTest {
         ClusterProfileProperties clusterProfileProperties1 = createClusterProfileProperties();
         ClusterProfileProperties clusterProfileProperties2 = createClusterProfileProperties();
         clusterProfileProperties2.setMaxDockerContainers(2);
+        clusterProfileProperties2.setDockerURI("http://another-swarm-manager:2375");
         Agent agent1 = new Agent(agentId1, Agent.AgentState.Idle, Agent.BuildState.Idle, Agent.ConfigState.Enabled); //idle time elapsed
         Agent agent1AfterDisabling = new Agent(agentId1, Agent.AgentState.Idle, Agent.BuildState.Idle, Disabled); //idle time elapsed
 
@@ -76,9 +82,6 @@ public class ServerPingRequestExecutorTest extends BaseTest {
         Agent agent2AfterDisabling = new Agent(agentId2, Agent.AgentState.Idle, Agent.BuildState.Idle, Disabled); //idle time elapsed
 
         final Agents allAgentsInitially1 = new Agents(Arrays.asList(agent1, agent2));
-        final Agents allAgentsAfter1GotDeleted = new Agents(Arrays.asList(agent2));
-        final Agents allAgentsAfterDisablingIdleAgent1 = new Agents(Arrays.asList(agent1AfterDisabling, agent2));
-        final Agents allAgentsAfterDisablingIdleAgent2 = new Agents(Arrays.asList(agent2AfterDisabling));
 
         DockerService dockerServiceForAgent1 = new DockerService(agentId1, new Date(), null, "", null);
         DockerServices agentInstances1 = new DockerServices();
@@ -93,11 +96,7 @@ public class ServerPingRequestExecutorTest extends BaseTest {
         agentInstances2.register(dockerServiceForAgent2);
 
         PluginRequest pluginRequest = mock(PluginRequest.class);
-        when(pluginRequest.listAgents()).thenReturn(allAgentsInitially1,
-                allAgentsAfterDisablingIdleAgent1,
-                allAgentsAfter1GotDeleted,
-                allAgentsAfterDisablingIdleAgent2,
-                new Agents());
+        when(pluginRequest.listAgents()).thenReturn(allAgentsInitially1);
 
         HashMap<String, DockerServices> clusterSpecificInstances = new HashMap<>();
         clusterSpecificInstances.put(clusterProfileProperties1.uuid(), agentInstances1);
@@ -112,6 +111,140 @@ public class ServerPingRequestExecutorTest extends BaseTest {
 
         verify(pluginRequest, atLeastOnce()).disableAgents(Arrays.asList(agent2));
         verify(pluginRequest, atLeastOnce()).deleteAgents(Arrays.asList(agent2AfterDisabling));
+        verify(pluginRequest, times(1)).listAgents();
+    }
+
+    @Test
+    public void shouldListAgentsOncePerPingAndOnlyCleanUpAgentsOfEachCluster() throws Exception {
+        ClusterProfileProperties clusterProfileProperties1 = createClusterProfileProperties();
+        ClusterProfileProperties clusterProfileProperties2 = createClusterProfileProperties();
+        clusterProfileProperties2.setMaxDockerContainers(2);
+        clusterProfileProperties2.setDockerURI("http://another-swarm-manager:2375");
+        Agent idleAgent = new Agent("idle-agent", Agent.AgentState.Idle, Agent.BuildState.Idle, Agent.ConfigState.Enabled);
+        Agent disabledAgent = new Agent("disabled-agent", Agent.AgentState.Idle, Agent.BuildState.Idle, Disabled);
+        Agent buildingAgent = new Agent("building-agent", Agent.AgentState.Building, Agent.BuildState.Building, Agent.ConfigState.Enabled);
+
+        DockerClientFactory dockerClientFactory = mock(DockerClientFactory.class);
+        DockerClient docker = mock(DockerClient.class);
+        when(dockerClientFactory.docker(any(ClusterProfileProperties.class))).thenReturn(docker);
+
+        DockerServices agentInstances1 = new DockerServices(dockerClientFactory);
+        agentInstances1.clock = new Clock.TestClock().forward(Period.minutes(11));
+        agentInstances1.register(new DockerService("idle-agent", new Date(), null, "", null));
+        agentInstances1.register(new DockerService("building-agent", new Date(), null, "", null));
+        DockerServices agentInstances2 = new DockerServices(dockerClientFactory);
+        agentInstances2.clock = new Clock.TestClock().forward(Period.minutes(11));
+        agentInstances2.register(new DockerService("disabled-agent", new Date(), null, "", null));
+
+        HashMap<String, DockerServices> clusterSpecificInstances = new HashMap<>();
+        clusterSpecificInstances.put(clusterProfileProperties1.uuid(), agentInstances1);
+        clusterSpecificInstances.put(clusterProfileProperties2.uuid(), agentInstances2);
+
+        PluginRequest pluginRequest = mock(PluginRequest.class);
+        when(pluginRequest.listAgents()).thenReturn(new Agents(Arrays.asList(idleAgent, disabledAgent, buildingAgent)));
+        ServerPingRequest serverPingRequest = mock(ServerPingRequest.class);
+        when(serverPingRequest.allClusterProfileProperties()).thenReturn(Arrays.asList(clusterProfileProperties1, clusterProfileProperties2));
+
+        new ServerPingRequestExecutor(serverPingRequest, clusterSpecificInstances, pluginRequest).execute();
+
+        verify(pluginRequest, times(1)).listAgents();
+        verify(pluginRequest).disableAgents(Arrays.asList(idleAgent));
+        verify(pluginRequest).deleteAgents(Arrays.asList(new Agent("idle-agent", Agent.AgentState.Idle, Agent.BuildState.Idle, Disabled)));
+        verify(pluginRequest).deleteAgents(Arrays.asList(disabledAgent));
+        verify(docker).removeService("idle-agent");
+        verify(docker).removeService("disabled-agent");
+        verify(docker, never()).removeService("building-agent");
+        verify(pluginRequest, never()).disableAgents(Arrays.asList(disabledAgent));
+    }
+
+    @Test
+    public void shouldCleanUpHealthyClustersAndKeepUnknownAgentsWhenAClusterFails() throws Exception {
+        ClusterProfileProperties healthyCluster = createClusterProfileProperties();
+        ClusterProfileProperties brokenCluster = createClusterProfileProperties();
+        brokenCluster.setMaxDockerContainers(2);
+        brokenCluster.setDockerURI("http://another-swarm-manager:2375");
+        Agent healthyAgent = new Agent("healthy-agent", Agent.AgentState.Idle, Agent.BuildState.Idle, Disabled);
+        Agent brokenAgent = new Agent("broken-agent", Agent.AgentState.Idle, Agent.BuildState.Idle, Disabled);
+        Agent unknownAgent = new Agent("unknown-agent", Agent.AgentState.Idle, Agent.BuildState.Idle, Agent.ConfigState.Enabled);
+
+        DockerClient docker = mock(DockerClient.class);
+        DockerClientFactory healthyFactory = mock(DockerClientFactory.class);
+        when(healthyFactory.docker(any(ClusterProfileProperties.class))).thenReturn(docker);
+        DockerClientFactory brokenFactory = mock(DockerClientFactory.class);
+        when(brokenFactory.docker(any(ClusterProfileProperties.class))).thenThrow(new IllegalStateException("swarm manager is unreachable"));
+
+        DockerServices healthyInstances = new DockerServices(healthyFactory);
+        healthyInstances.register(new DockerService("healthy-agent", new Date(), null, "", null));
+        DockerServices brokenInstances = new DockerServices(brokenFactory);
+        brokenInstances.register(new DockerService("broken-agent", new Date(), null, "", null));
+
+        HashMap<String, DockerServices> clusterSpecificInstances = new HashMap<>();
+        clusterSpecificInstances.put(healthyCluster.uuid(), healthyInstances);
+        clusterSpecificInstances.put(brokenCluster.uuid(), brokenInstances);
+
+        PluginRequest pluginRequest = mock(PluginRequest.class);
+        when(pluginRequest.listAgents()).thenReturn(new Agents(Arrays.asList(healthyAgent, brokenAgent, unknownAgent)));
+        ServerPingRequest serverPingRequest = mock(ServerPingRequest.class);
+        when(serverPingRequest.allClusterProfileProperties()).thenReturn(Arrays.asList(brokenCluster, healthyCluster));
+
+        GoPluginApiResponse response = new ServerPingRequestExecutor(serverPingRequest, clusterSpecificInstances, pluginRequest).execute();
+
+        assertThat(response.responseCode(), is(200));
+        verify(docker).removeService("healthy-agent");
+        verify(pluginRequest).deleteAgents(Arrays.asList(healthyAgent));
+        verify(pluginRequest, never()).deleteAgents(Arrays.asList(brokenAgent));
+        verify(pluginRequest, never()).deleteAgents(Arrays.asList(unknownAgent));
+        verify(pluginRequest, never()).disableAgents(Arrays.asList(unknownAgent));
+    }
+
+    @Test
+    public void shouldProcessOnlyOneClusterProfileOfTheSameSwarm() throws Exception {
+        ClusterProfileProperties cluster = createClusterProfileProperties();
+        ClusterProfileProperties sameSwarm = createClusterProfileProperties();
+        sameSwarm.setMaxDockerContainers(2);
+        sameSwarm.setDockerClientKey("another-client-key");
+        DockerServices dockerServices = mock(DockerServices.class);
+        when(dockerServices.instancesCreatedAfterTimeout(any(ClusterProfileProperties.class), any(Agents.class))).thenReturn(new Agents());
+
+        HashMap<String, DockerServices> clusterSpecificInstances = new HashMap<>();
+        clusterSpecificInstances.put(cluster.uuid(), dockerServices);
+
+        PluginRequest pluginRequest = mock(PluginRequest.class);
+        when(pluginRequest.listAgents()).thenReturn(new Agents());
+        ServerPingRequest serverPingRequest = mock(ServerPingRequest.class);
+        when(serverPingRequest.allClusterProfileProperties()).thenReturn(Arrays.asList(cluster, sameSwarm));
+
+        new ServerPingRequestExecutor(serverPingRequest, clusterSpecificInstances, pluginRequest, true).execute();
+
+        verify(dockerServices).refreshAll(cluster, true);
+        verify(dockerServices).instancesCreatedAfterTimeout(eq(cluster), any(Agents.class));
+        verify(dockerServices).terminateUnregisteredInstances(eq(cluster), any(Agents.class));
+        verify(dockerServices, never()).refreshAll(eq(sameSwarm), anyBoolean());
+        verify(dockerServices, never()).instancesCreatedAfterTimeout(eq(sameSwarm), any(Agents.class));
+        verify(pluginRequest).addServerHealthMessage(argThat(messages -> messages.size() == 1
+                && "warning".equals(messages.get(0).get("type"))
+                && messages.get(0).get("message").contains("have different auto-register timeouts, maximum containers or credentials")));
+    }
+
+    @Test
+    public void shouldNotWarnAboutClusterProfilesOfTheSameSwarmWithTheSameSettings() throws Exception {
+        ClusterProfileProperties cluster = createClusterProfileProperties();
+        ClusterProfileProperties sameSwarm = createClusterProfileProperties();
+        DockerServices dockerServices = mock(DockerServices.class);
+        when(dockerServices.instancesCreatedAfterTimeout(any(ClusterProfileProperties.class), any(Agents.class))).thenReturn(new Agents());
+
+        HashMap<String, DockerServices> clusterSpecificInstances = new HashMap<>();
+        clusterSpecificInstances.put(cluster.uuid(), dockerServices);
+
+        PluginRequest pluginRequest = mock(PluginRequest.class);
+        when(pluginRequest.listAgents()).thenReturn(new Agents());
+        ServerPingRequest serverPingRequest = mock(ServerPingRequest.class);
+        when(serverPingRequest.allClusterProfileProperties()).thenReturn(Arrays.asList(cluster, sameSwarm));
+
+        new ServerPingRequestExecutor(serverPingRequest, clusterSpecificInstances, pluginRequest, true).execute();
+
+        verify(dockerServices).refreshAll(cluster, true);
+        verify(pluginRequest, never()).addServerHealthMessage(anyList());
     }
 
     @Test
@@ -17,7 +17,9 @@
 package cd.go.contrib.elasticagents.dockerswarm.elasticagent.model;
 
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.Constants;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.reports.DockerNode;
 import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.reports.SwarmCluster;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils.Util;
 import com.spotify.docker.client.DockerClient;
 import com.spotify.docker.client.messages.swarm.*;
 import org.junit.Test;
@@ -27,9 +29,9 @@ import java.util.*;
 import static cd.go.contrib.elasticagents.dockerswarm.elasticagent.Constants.JOB_IDENTIFIER_LABEL_KEY;
 import static com.spotify.docker.client.DockerClient.ListContainersParam.withStatusCreated;
 import static com.spotify.docker.client.DockerClient.ListContainersParam.withStatusRunning;
-import static org.hamcrest.Matchers.hasSize;
-import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
 public class SwarmClusterTest {
@@ -53,13 +55,15 @@ public class SwarmClusterTest {
         when(service.id()).thenReturn("service-id");
         when(service.spec()).thenReturn(serviceSpec);
         when(dockerClient.listNodes()).thenReturn(nodeList);
-        when(dockerClient.listTasks()).thenReturn(taskList);
-        when(dockerClient.listServices()).thenReturn(services);
+        when(dockerClient.listTasks(Util.tasksCreatedByPlugin(false))).thenReturn(taskList);
+        when(dockerClient.listServices(Util.servicesCreatedByPlugin())).thenReturn(services);
 
         final cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.reports.SwarmCluster swarmCluster = new cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.reports.SwarmCluster(dockerClient);
 
         verify(dockerClient, times(1)).listNodes();
-        verify(dockerClient, times(1)).listTasks();
+        verify(dockerClient, times(1)).listTasks(Util.tasksCreatedByPlugin(false));
+        verify(dockerClient, never()).listTasks();
+        verify(dockerClient, never()).listServices();
 
         assertThat(swarmCluster.getNodes(), hasSize(1));
         assertThat(swarmCluster.getNodes().get(0).getTasks(), hasSize(1));
@@ -93,18 +97,78 @@ public class SwarmClusterTest {
         when(service_2.spec()).thenReturn(service2Spec);
 
         when(dockerClient.listNodes()).thenReturn(nodeList);
-        when(dockerClient.listTasks()).thenReturn(taskList);
-        when(dockerClient.listServices()).thenReturn(services);
+        when(dockerClient.listTasks(Util.tasksCreatedByPlugin(false))).thenReturn(taskList);
+        when(dockerClient.listServices(Util.servicesCreatedByPlugin())).thenReturn(services);
 
         final cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.reports.SwarmCluster swarmCluster = new cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.reports.SwarmCluster(dockerClient);
 
         verify(dockerClient, times(1)).listNodes();
-        verify(dockerClient, times(1)).listTasks();
+        verify(dockerClient, times(1)).listTasks(any(Task.Criteria.class));
 
         assertThat(swarmCluster.getNodes(), hasSize(1));
         assertThat(swarmCluster.getNodes().get(0).getTasks(), hasSize(1));
     }
 
+    @Test
+    public void shouldListOnlyTheRunningTasksOfThePluginServicesWhenAsked() throws Exception {
+        final DockerClient dockerClient = mock(DockerClient.class);
+        final Node node = mockNode("node-id", "manager", true);
+        final Service service = mock(Service.class);
+        final Map<String, String> labels = new HashMap<>();
+        labels.put(Constants.CREATED_BY_LABEL_KEY, Constants.PLUGIN_ID);
+        final Task.Criteria runningTasks = Util.tasksCreatedByPlugin(true);
+        final List<Task> taskList = Arrays.asList(mockTask(node.id(), "service-id"), mockTask("node-gone", "service-id"),
+                mockTask(node.id(), "other-service-id"));
+
+        when(service.id()).thenReturn("service-id");
+        when(service.spec()).thenReturn(ServiceSpec.builder().taskTemplate(TaskSpec.builder().build()).labels(labels).build());
+        when(dockerClient.listNodes()).thenReturn(Arrays.asList(node));
+        when(dockerClient.listServices(Util.servicesCreatedByPlugin())).thenReturn(Arrays.asList(service));
+        when(dockerClient.listTasks(runningTasks)).thenReturn(taskList);
+
+        final SwarmCluster swarmCluster = new SwarmCluster(dockerClient, true);
+
+        verify(dockerClient, times(1)).listTasks(runningTasks);
+        verify(dockerClient, never()).listTasks();
+        assertThat(swarmCluster.getNodes().get(0).getTasks(), hasSize(1));
+        assertThat(swarmCluster.getTaskCount(), is(1));
+    }
+
+    @Test
+    public void shouldSummariseTheTasksOfEachNode() throws Exception {
+        final DockerClient dockerClient = mock(DockerClient.class);
+        final Node node = mockNode("node-id", "worker", false);
+        final Service service = mock(Service.class);
+        final Map<String, String> labels = new HashMap<>();
+        labels.put(Constants.CREATED_BY_LABEL_KEY, Constants.PLUGIN_ID);
+        final Resources reservations = Resources.builder().memoryBytes(512L * 1024 * 1024).nanoCpus(1000000000L).build();
+
+        when(node.description().resources()).thenReturn(Resources.builder().memoryBytes(4L * 1024 * 1024 * 1024).nanoCpus(4000000000L).build());
+        when(service.id()).thenReturn("service-id");
+        when(service.spec()).thenReturn(ServiceSpec.builder().taskTemplate(TaskSpec.builder().build()).labels(labels).build());
+        when(dockerClient.listNodes()).thenReturn(Arrays.asList(node));
+        when(dockerClient.listServices(Util.servicesCreatedByPlugin())).thenReturn(Arrays.asList(service));
+        final List<Task> taskList = Arrays.asList(mockTask(node.id(), "service-id", "running", reservations),
+                mockTask(node.id(), "service-id", "running", reservations), mockTask(node.id(), "service-id", "pending", null),
+                mockTask(node.id(), "service-id", "shutdown", reservations), mockTask(node.id(), "other-service-id", "running", reservations));
+        when(dockerClient.listTasks(Util.tasksCreatedByPlugin(false))).thenReturn(taskList);
+
+        final SwarmCluster swarmCluster = new SwarmCluster(dockerClient);
+        final DockerNode dockerNode = swarmCluster.getNode(node.id());
+
+        assertThat(dockerNode, is(sameInstance(swarmCluster.getNodes().get(0))));
+        assertThat(swarmCluster.getNode("node-gone"), is(nullValue()));
+        assertThat(swarmCluster.getTaskCount(), is(4));
+        assertThat(swarmCluster.getNodePages(), contains(Arrays.asList(dockerNode)));
+        assertThat(dockerNode.getStatusReportId(), is("node:" + node.id()));
+        assertThat(dockerNode.getTaskCountsByState().keySet(), contains("Pending", "Running", "Shutdown"));
+        assertThat(dockerNode.getTaskCountsByState().get("Running"), is(2));
+        assertThat(dockerNode.getAgentReservations().getMemory(), is("1 GB"));
+        assertThat(dockerNode.getAgentReservations().getMemoryPercent(), is(25));
+        assertThat(dockerNode.getAgentReservations().getCpus(), is(2.0));
+        assertThat(dockerNode.getAgentReservations().getCpusPercent(), is(50));
+    }
+
     @Test
     public void shouldSortNodesBasedOnLeaderRoleAndHostName() throws Exception {
         final DockerClient dockerClient = mock(DockerClient.class);
@@ -157,9 +221,15 @@ public class SwarmClusterTest {
     }
 
     private Task mockTask(String nodeId, String serviceId) {
+        return mockTask(nodeId, serviceId, "running", null);
+    }
+
+    private Task mockTask(String nodeId, String serviceId, String state, Resources reservations) {
         final Task task = mock(Task.class);
         final ContainerSpec containerSpec = ContainerSpec.builder().image("gocd-agent:latest").build();
-        final TaskSpec taskSpec = TaskSpec.builder().containerSpec(containerSpec).build();
+        final TaskSpec taskSpec = TaskSpec.builder().containerSpec(containerSpec)
+                .resources(ResourceRequirements.builder().reservations(reservations).build())
+                .build();
         final TaskStatus taskStatus = mock(TaskStatus.class);
         final Date createdAt = new Date();
 
@@ -169,7 +239,8 @@ public class SwarmClusterTest {
         when(task.nodeId()).thenReturn(nodeId);
         when(task.serviceId()).thenReturn(serviceId);
         when(task.status()).thenReturn(taskStatus);
-        when(taskStatus.state()).thenReturn("running");
+        when(taskStatus.state()).thenReturn(state);
+        when(task.desiredState()).thenReturn("shutdown".equals(state) ? "shutdown" : "running");
         return task;
     }
 }
\ No newline at end of file
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.reports.agent;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.LogMessage;
+import com.spotify.docker.client.LogStream;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static com.spotify.docker.client.DockerClient.LogsParam.*;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class ServiceLogsTest {
+    private DockerClient client;
+    private List<String> logged;
+
+    @Before
+    public void setUp() throws Exception {
+        client = mock(DockerClient.class);
+        logged = new ArrayList<>();
+        // serves the last lines asked for, in frames that do not line up with the lines
+        when(client.serviceLogs(eq("abcd-xyz"), any())).thenAnswer(invocation -> {
+            int tail = Integer.parseInt(((DockerClient.LogsParam) invocation.getArgument(3)).value());
+            byte[] logs = String.join("", logged.subList(Math.max(0, logged.size() - tail), logged.size())).getBytes(StandardCharsets.UTF_8);
+            List<LogMessage> messages = new ArrayList<>();
+            for (int offset = 0; offset < logs.length; offset += 7) {
+                messages.add(new LogMessage(LogMessage.Stream.STDOUT, ByteBuffer.wrap(logs, offset, Math.min(7, logs.length - offset))));
+            }
+            return logStream(messages.iterator());
+        });
+    }
+
+    @Test
+    public void shouldReadTheLogsAPageAtATimeFromTheMostRecentOne() throws Exception {
+        for (int i = 1; i <= 5; i++) {
+            logged.add("line " + i + "\n");
+        }
+
+        ServiceLogs.Page first = ServiceLogs.Page.first(2, 1024, 60_000);
+        ServiceLogs logs = ServiceLogs.read(client, "abcd-xyz", first);
+        assertThat(logs.getText(), is("line 4\nline 5\n"));
+        verify(client).serviceLogs("abcd-xyz", stdout(), stderr(), tail(3), since(60));
+
+        logs = ServiceLogs.read(client, "abcd-xyz", logs.more());
+        assertThat(logs.getText(), is("line 2\nline 3\n"));
+
+        logs = ServiceLogs.read(client, "abcd-xyz", logs.more());
+        assertThat(logs.getText(), is("line 1\n"));
+        assertThat(logs.hasMore(), is(false));
+        assertThat(logs.more(), is(nullValue()));
+        assertThat(logs.isTruncated(), is(false));
+    }
+
+    @Test
+    public void shouldDropTheOldestLinesAndCutLongLinesToStayWithinTheByteLimit() throws Exception {
+        logged.add("first line\n");
+        logged.add("a line much longer than the limit\n");
+
+        ServiceLogs logs = ServiceLogs.read(client, "abcd-xyz", ServiceLogs.Page.first(10, 16, 0));
+
+        assertThat(logs.getText(), is("a line much lon\n"));
+        assertThat(logs.isTruncated(), is(true));
+        assertThat(logs.hasMore(), is(false));
+    }
+
+    @Test
+    public void shouldNotHaveMoreWhenExactlyAPageWasLogged() throws Exception {
+        logged.add("line 1\n");
+        logged.add("line 2\n");
+
+        ServiceLogs logs = ServiceLogs.read(client, "abcd-xyz", ServiceLogs.Page.first(2, 1024, 0));
+
+        assertThat(logs.getText(), is("line 1\nline 2\n"));
+        assertThat(logs.hasMore(), is(false));
+        assertThat(logs.getMoreStatusReportId(), is(nullValue()));
+
+        logged.add("line 3\n");
+        assertThat(ServiceLogs.read(client, "abcd-xyz", ServiceLogs.Page.first(2, 1024, 0)).hasMore(), is(true));
+    }
+
+    @Test
+    public void shouldCutALongLineBeforeACharacterThatDoesNotFit() throws Exception {
+        logged.add("abcdefghijklmn\u00e9\n");
+
+        ServiceLogs logs = ServiceLogs.read(client, "abcd-xyz", ServiceLogs.Page.first(10, 16, 0));
+
+        assertThat(logs.getText(), is("abcdefghijklmn\n"));
+        assertThat(logs.isTruncated(), is(true));
+    }
+
+    @Test
+    public void shouldLinkToTheOlderPageThroughItsStatusReportId() throws Exception {
+        for (int i = 1; i <= ServiceLogs.PAGE_LINES + 1; i++) {
+            logged.add("line " + i + "\n");
+        }
+
+        ServiceLogs logs = ServiceLogs.read(client, "abcd-xyz", ServiceLogs.Page.first(ServiceLogs.PAGE_LINES, ServiceLogs.PAGE_BYTES, 60_000));
+        String statusReportId = logs.getMoreStatusReportId();
+
+        assertThat(statusReportId, is("logs:1:60000:abcd-xyz"));
+        assertThat(ServiceLogs.serviceIdOf(statusReportId), is("abcd-xyz"));
+        ServiceLogs older = ServiceLogs.read(client, ServiceLogs.serviceIdOf(statusReportId), ServiceLogs.pageOf(statusReportId));
+        assertThat(older.getPage().getNumber(), is(1));
+        assertThat(older.getText(), is("line 1\n"));
+        assertThat(older.getMoreStatusReportId(), is(nullValue()));
+    }
+
+    @Test
+    public void shouldNotLinkPastTheLastPageThatCanBeRead() throws Exception {
+        for (int i = 1; i <= 2 * ServiceLogs.MAX_PAGES + 1; i++) {
+            logged.add("line " + i + "\n");
+        }
+
+        ServiceLogs logs = ServiceLogs.read(client, "abcd-xyz", ServiceLogs.Page.first(2, 1024, 0));
+        for (int page = 1; page < ServiceLogs.MAX_PAGES; page++) {
+            logs = ServiceLogs.read(client, "abcd-xyz", logs.more());
+        }
+
+        assertThat(logs.getPage().getNumber(), is(ServiceLogs.MAX_PAGES - 1));
+        assertThat(logs.getText(), is("line 2\nline 3\n"));
+        assertThat(logs.hasMore(), is(true));
+        assertThat(logs.more(), is(nullValue()));
+        assertThat(logs.getMoreStatusReportId(), is(nullValue()));
+        verify(client).serviceLogs("abcd-xyz", stdout(), stderr(), tail(2 * ServiceLogs.MAX_PAGES + 1), since(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectAStatusReportIdPastTheLastPageThatCanBeRead() {
+        ServiceLogs.pageOf("logs:" + ServiceLogs.MAX_PAGES + ":60000:abcd-xyz");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectAMalformedStatusReportId() {
+        ServiceLogs.pageOf("logs:one:60000:abcd-xyz");
+    }
+
+    private static LogStream logStream(Iterator<LogMessage> messages) {
+        LogStream logStream = mock(LogStream.class);
+        when(logStream.hasNext()).thenAnswer(invocation -> messages.hasNext());
+        when(logStream.next()).thenAnswer(invocation -> messages.next());
+        return logStream;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019 ThoughtWorks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagents.dockerswarm.elasticagent.utils;
+
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.Agent;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.ClusterProfileProperties;
+import cd.go.contrib.elasticagents.dockerswarm.elasticagent.model.JobIdentifier;
+import com.google.gson.FieldNamingPolicy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class GsonRegistryTest {
+    private static final Gson REFLECTIVE = new GsonBuilder()
+            .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+            .excludeFieldsWithoutExposeAnnotation()
+            .create();
+
+    @Test
+    public void shouldWriteJobIdentifiersLikeTheReflectiveAdapter() {
+        JobIdentifier jobIdentifier = new JobIdentifier("up42", 98765L, "foo", "stage_1", "30000", "job_1", 876578L);
+
+        assertThat(jobIdentifier.toJson(), is(REFLECTIVE.toJson(jobIdentifier)));
+        assertThat(new JobIdentifier(12L).toJson(), is("{\"job_id\":12}"));
+
+        String json = "{\"job_id\":\"12\",\"pipeline_counter\":null,\"job_name\":\"test\",\"unknown\":{\"a\":[1]}}";
+        assertThat(JobIdentifier.fromJson(json), is(REFLECTIVE.fromJson(json, JobIdentifier.class)));
+    }
+
+    @Test
+    public void shouldReadAndWriteAgentsLikeTheReflectiveAdapter() {
+        String json = "[{\"agent_id\":\"agent-1\",\"agent_state\":\"Idle\",\"build_state\":\"Unknown\",\"config_state\":\"Enabled\",\"free_space\":42}," +
+                "{\"agent_id\":\"agent-2\",\"agent_state\":\"Sleeping\",\"build_state\":null}]";
+
+        List<Agent> agents = Agent.fromJSONArray(json);
+        List<Agent> reflectivelyRead = REFLECTIVE.fromJson(json, Agent.AGENT_METADATA_LIST_TYPE);
+
+        assertThat(agents, is(reflectivelyRead));
+        assertThat(Agent.toJSONArray(agents), is(REFLECTIVE.toJson(agents)));
+    }
+
+    @Test
+    public void shouldReadAndWriteClusterProfilePropertiesLikeTheReflectiveAdapter() {
+        String json = "{\"go_server_url\":\"https://go.example.com/go\",\"max_docker_containers\":10,\"docker_uri\":\"http://swarm:2375\"," +
+                "\"auto_register_timeout\":\"3\",\"enable_private_registry_authentication\":\"true\",\"docker_ca_cert\":null,\"unknown\":[true]}";
+
+        ClusterProfileProperties properties = ClusterProfileProperties.fromJSON(json);
+
+        assertThat(properties, is(REFLECTIVE.fromJson(json, ClusterProfileProperties.class)));
+        assertThat(properties.useDockerAuthInfo(), is(true));
+        assertThat(GsonRegistry.EXPOSED_SNAKE_CASE.toJson(properties), is(REFLECTIVE.toJson(properties)));
+
+        Map<String, String> configuration = new HashMap<>();
+        configuration.put("docker_uri", "http://swarm:2375");
+        configuration.put("max_docker_containers", "10");
+        configuration.put("enable_private_registry_authentication", "true");
+        configuration.put("unknown", "value");
+        assertThat(ClusterProfileProperties.fromConfiguration(configuration), is(REFLECTIVE.fromJson(REFLECTIVE.toJson(configuration), ClusterProfileProperties.class)));
+    }
+}